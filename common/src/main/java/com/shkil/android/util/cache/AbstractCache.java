@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Base {@link Cache} implementation with bulk operations looping over single key operations.
+ * Implementations override them to take a lock once per batch.
+ */
+public abstract class AbstractCache<K, V> implements Cache<K, V> {
+
+    /**
+     * Returns the timestamp of {@link #getEntry}, implementations override it to look the timestamp up
+     * without an entry and statistics
+     */
+    @Override
+    public long getTimestamp(K key) {
+        Entry<V> entry = getEntry(key);
+        return entry != null ? entry.getTimestamp() : NO_TIMESTAMP;
+    }
+
+    @NonNull
+    @Override
+    public Map<K, V> getAll(@NonNull Collection<? extends K> keys) {
+        Map<K, V> result = new HashMap<>(keys.size() * 4 / 3 + 1);
+        for (K key : keys) {
+            V value = get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public Map<K, Entry<V>> getEntries(@NonNull Collection<? extends K> keys) {
+        Map<K, Entry<V>> result = new HashMap<>(keys.size() * 4 / 3 + 1);
+        for (K key : keys) {
+            Entry<V> entry = getEntry(key);
+            if (entry != null) {
+                result.put(key, entry);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void putAll(@NonNull Map<? extends K, ? extends V> values) {
+        for (Map.Entry<? extends K, ? extends V> entry : values.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void removeAll(@NonNull Collection<? extends K> keys) {
+        for (K key : keys) {
+            remove(key);
+        }
+    }
+}
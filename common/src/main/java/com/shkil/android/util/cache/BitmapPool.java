@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pool of mutable bitmaps to be reused for decoding through {@link BitmapFactory.Options#inBitmap}.
+ * Bitmaps are bucketed by allocation size and evicted in LRU order when the pool exceeds its byte budget.
+ * <p/>
+ * <p>Before API 19 a bitmap can be reused only for an image of exactly the same dimensions and config,
+ * since API 19 any pooled bitmap that is large enough is reconfigured.
+ * <p/>
+ * <p>A bitmap must not be put into the pool while it is still displayed or used otherwise.
+ */
+public class BitmapPool implements TrimmableCache {
+
+    /**
+     * Pooled bitmap may be larger than requested by this factor at most
+     */
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final TreeMap<Integer, List<Bitmap>> buckets = new TreeMap<>();
+    private final LinkedHashSet<Bitmap> lru = new LinkedHashSet<>(); // least recently put first
+
+    private int size;
+    private int maxSize;
+
+    private volatile StatsCounter statsCounter = new ConcurrentStatsCounter();
+
+    /**
+     * @param maxSize maximum size of pooled bitmaps in bytes
+     */
+    public BitmapPool(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Adds the bitmap to the pool, nothing is done if the bitmap is not mutable or is too large for the pool.
+     *
+     * @return true if the bitmap was pooled
+     */
+    public boolean put(@NonNull Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return false;
+        }
+        int bitmapSize = getBitmapSize(bitmap);
+        synchronized (this) {
+            if (bitmapSize > maxSize || !lru.add(bitmap)) {
+                return false;
+            }
+            statsCounter.recordPut();
+            List<Bitmap> bucket = buckets.get(bitmapSize);
+            if (bucket == null) {
+                bucket = new ArrayList<>(4);
+                buckets.put(bitmapSize, bucket);
+            }
+            bucket.add(bitmap);
+            size += bitmapSize;
+            trimToSize(maxSize);
+        }
+        return true;
+    }
+
+    /**
+     * Returns a pooled bitmap which can be used to decode an image of the given dimensions and config,
+     * or null if there is none. Returned bitmap is removed from the pool, its pixels are undefined.
+     */
+    @Nullable
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        int requiredSize = width * height * getBytesPerPixel(config);
+        synchronized (this) {
+            Bitmap bitmap = Build.VERSION.SDK_INT >= 19
+                    ? removeLargeEnough(requiredSize)
+                    : removeExactly(requiredSize, width, height, config);
+            if (bitmap == null) {
+                statsCounter.recordMiss();
+                return null;
+            }
+            statsCounter.recordHit();
+            return bitmap;
+        }
+    }
+
+    /**
+     * Returns a pooled bitmap of the given dimensions and config with transparent pixels,
+     * or null if there is none
+     */
+    @Nullable
+    @TargetApi(19)
+    public Bitmap getErased(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = get(width, height, config);
+        if (bitmap != null) {
+            if (Build.VERSION.SDK_INT >= 19) {
+                bitmap.reconfigure(width, height, config);
+            }
+            bitmap.eraseColor(Color.TRANSPARENT);
+        }
+        return bitmap;
+    }
+
+    private Bitmap removeLargeEnough(int requiredSize) {
+        Map.Entry<Integer, List<Bitmap>> entry = buckets.ceilingEntry(requiredSize);
+        if (entry == null || entry.getKey() > (long) requiredSize * MAX_SIZE_MULTIPLE) {
+            return null;
+        }
+        List<Bitmap> bucket = entry.getValue();
+        Bitmap bitmap = bucket.get(bucket.size() - 1);
+        remove(bitmap, entry.getKey());
+        return bitmap;
+    }
+
+    private Bitmap removeExactly(int requiredSize, int width, int height, Bitmap.Config config) {
+        List<Bitmap> bucket = buckets.get(requiredSize);
+        if (bucket != null) {
+            for (int i = bucket.size() - 1; i >= 0; i--) {
+                Bitmap bitmap = bucket.get(i);
+                if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                    remove(bitmap, requiredSize);
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void remove(Bitmap bitmap, int bitmapSize) {
+        List<Bitmap> bucket = buckets.get(bitmapSize);
+        bucket.remove(bitmap);
+        if (bucket.isEmpty()) {
+            buckets.remove(bitmapSize);
+        }
+        lru.remove(bitmap);
+        size -= bitmapSize;
+    }
+
+    /**
+     * Decodes an image reusing a pooled bitmap if possible
+     *
+     * @see BitmapFactory#decodeByteArray(byte[], int, int, BitmapFactory.Options)
+     */
+    @Nullable
+    public Bitmap decodeByteArray(byte[] data, int offset, int length, @Nullable BitmapFactory.Options options) {
+        return decodeByteArray(data, offset, length, options, 0, 0);
+    }
+
+    /**
+     * Decodes an image of known dimensions reusing a pooled bitmap if possible, without decoding its bounds again
+     *
+     * @param width  width of the image before sampling and scaling, 0 if it is unknown
+     * @param height height of the image before sampling and scaling, 0 if it is unknown
+     * @see BitmapFactory#decodeByteArray(byte[], int, int, BitmapFactory.Options)
+     */
+    @Nullable
+    public Bitmap decodeByteArray(byte[] data, int offset, int length, @Nullable BitmapFactory.Options options,
+                                  int width, int height) {
+        if (options == null) {
+            options = new BitmapFactory.Options();
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && prepareInBitmap(options, data, offset, length, null, width, height)) {
+            try {
+                Bitmap bitmap = BitmapFactory.decodeByteArray(data, offset, length, options);
+                if (bitmap == null) {
+                    releaseInBitmap(options);
+                }
+                return bitmap;
+            } catch (IllegalArgumentException ex) {
+                // the pooled bitmap can not be reused for this image
+                releaseInBitmap(options);
+            }
+        }
+        return BitmapFactory.decodeByteArray(data, offset, length, options);
+    }
+
+    /**
+     * Decodes an image file reusing a pooled bitmap if possible
+     *
+     * @see BitmapFactory#decodeFile(String, BitmapFactory.Options)
+     */
+    @Nullable
+    public Bitmap decodeFile(String pathName, @Nullable BitmapFactory.Options options) {
+        return decodeFile(pathName, options, 0, 0);
+    }
+
+    /**
+     * Decodes an image file of known dimensions reusing a pooled bitmap if possible, without decoding its bounds again
+     *
+     * @param width  width of the image before sampling and scaling, 0 if it is unknown
+     * @param height height of the image before sampling and scaling, 0 if it is unknown
+     * @see BitmapFactory#decodeFile(String, BitmapFactory.Options)
+     */
+    @Nullable
+    public Bitmap decodeFile(String pathName, @Nullable BitmapFactory.Options options, int width, int height) {
+        if (options == null) {
+            options = new BitmapFactory.Options();
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && prepareInBitmap(options, null, 0, 0, pathName, width, height)) {
+            try {
+                Bitmap bitmap = BitmapFactory.decodeFile(pathName, options);
+                if (bitmap == null) {
+                    releaseInBitmap(options);
+                }
+                return bitmap;
+            } catch (IllegalArgumentException ex) {
+                // the pooled bitmap can not be reused for this image
+                releaseInBitmap(options);
+            }
+        }
+        return BitmapFactory.decodeFile(pathName, options);
+    }
+
+    /**
+     * Decodes bounds of the image unless they are known and sets {@link BitmapFactory.Options#inBitmap}
+     * to a pooled bitmap large enough for the sampled and scaled image. The image is decoded mutable
+     * either way, so that the bitmap can be pooled once it is evicted
+     *
+     * @return true if a pooled bitmap was found
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private boolean prepareInBitmap(BitmapFactory.Options options, byte[] data, int offset, int length,
+                                    String pathName, int width, int height) {
+        options.inMutable = true;
+        int sampleSize = Math.max(1, options.inSampleSize);
+        if (options.inJustDecodeBounds || (sampleSize > 1 && Build.VERSION.SDK_INT < 19)) {
+            return false;
+        }
+        if (width <= 0 || height <= 0) {
+            options.inJustDecodeBounds = true;
+            if (data != null) {
+                BitmapFactory.decodeByteArray(data, offset, length, options);
+            } else {
+                BitmapFactory.decodeFile(pathName, options);
+            }
+            options.inJustDecodeBounds = false;
+            width = options.outWidth;
+            height = options.outHeight;
+            if (width <= 0 || height <= 0) {
+                return false;
+            }
+        }
+        width = (width + sampleSize - 1) / sampleSize;
+        height = (height + sampleSize - 1) / sampleSize;
+        if (options.inScaled && options.inDensity > 0 && options.inTargetDensity > 0
+                && options.inDensity != options.inTargetDensity) {
+            float scale = (float) options.inTargetDensity / options.inDensity;
+            width = (int) (width * scale + 0.5f);
+            height = (int) (height * scale + 0.5f);
+        }
+        Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = get(width, height, config);
+        if (bitmap == null) {
+            return false;
+        }
+        options.inBitmap = bitmap;
+        return true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void releaseInBitmap(BitmapFactory.Options options) {
+        Bitmap bitmap = options.inBitmap;
+        options.inBitmap = null;
+        if (bitmap != null) {
+            put(bitmap);
+        }
+    }
+
+    @TargetApi(19)
+    static int getBitmapSize(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= 19) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    static int getBytesPerPixel(@Nullable Bitmap.Config config) {
+        if (config == null) {
+            return 4;
+        }
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * Removes least recently pooled bitmaps until the pool size is not greater than {@code maxSize}.
+     */
+    @Override
+    public synchronized void trimToSize(int maxSize) {
+        Iterator<Bitmap> iterator = lru.iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            iterator.remove();
+            int bitmapSize = getBitmapSize(bitmap);
+            List<Bitmap> bucket = buckets.get(bitmapSize);
+            bucket.remove(bitmap);
+            if (bucket.isEmpty()) {
+                buckets.remove(bitmapSize);
+            }
+            size -= bitmapSize;
+            statsCounter.recordEviction(bitmapSize);
+        }
+    }
+
+    @Override
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        synchronized (this) {
+            this.maxSize = maxSize;
+            trimToSize(maxSize);
+        }
+    }
+
+    public void clear() {
+        trimToSize(-1);
+    }
+
+    /**
+     * Returns the size of pooled bitmaps in bytes
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned a bitmap, truncated to int like the other int counters
+     * read from {@link #stats()}. Returns 0 if statistics are {@link StatsCounter#DISABLED}.
+     */
+    public int hitCount() {
+        return (int) stats().hitCount();
+    }
+
+    public int missCount() {
+        return (int) stats().missCount();
+    }
+
+    public int putCount() {
+        return (int) stats().putCount();
+    }
+
+    public int evictionCount() {
+        return (int) stats().evictionCount();
+    }
+
+    /**
+     * Returns a snapshot of statistics recorded by {@link ConcurrentStatsCounter} unless another counter is set
+     */
+    @NonNull
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    /**
+     * Set a counter to record statistics to, {@link StatsCounter#DISABLED} removes statistics overhead
+     */
+    public BitmapPool setStatsCounter(@NonNull StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+        return this;
+    }
+
+    @Override
+    public synchronized String toString() {
+        CacheStats stats = stats();
+        long accesses = stats.requestCount();
+        int hitPercent = accesses != 0 ? (int) (100 * stats.hitCount() / accesses) : 0;
+        return String.format(Locale.US, "BitmapPool[maxSize=%d,size=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxSize, size, stats.hitCount(), stats.missCount(), hitPercent);
+    }
+}
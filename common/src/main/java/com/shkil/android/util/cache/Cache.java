@@ -18,15 +18,31 @@ package com.shkil.android.util.cache;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import java.util.Collection;
+import java.util.Map;
+
 import static java.lang.System.currentTimeMillis;
 
 public interface Cache<K, V> {
 
+    /**
+     * Returned by {@link #getTimestamp} for missing keys
+     */
+    long NO_TIMESTAMP = Long.MIN_VALUE;
+
     V get(K key);
 
     @Nullable
     Entry<V> getEntry(K key);
 
+    /**
+     * Returns the timestamp of the cached value of {@code key}, {@link #NO_TIMESTAMP} if it is missing.
+     * Unlike {@link #getEntry} it is not meant to allocate, it complements {@link #get}, so it is not counted
+     * as a request and never creates a missing value. Use {@link #getEntry} to get a value with its timestamp
+     * consistently.
+     */
+    long getTimestamp(K key);
+
     boolean isCacheControlSupported();
 
     V put(K key, V value);
@@ -35,6 +51,22 @@ public interface Cache<K, V> {
 
     V remove(K key);
 
+    /**
+     * Returns values of cached keys, keys of missing values are absent in the result
+     */
+    @NonNull
+    Map<K, V> getAll(@NonNull Collection<? extends K> keys);
+
+    /**
+     * Returns entries of cached keys, keys of missing values are absent in the result
+     */
+    @NonNull
+    Map<K, Entry<V>> getEntries(@NonNull Collection<? extends K> keys);
+
+    void putAll(@NonNull Map<? extends K, ? extends V> values);
+
+    void removeAll(@NonNull Collection<? extends K> keys);
+
     int size();
 
     void clear();
@@ -43,6 +75,12 @@ public interface Cache<K, V> {
 
     boolean isQuick();
 
+    /**
+     * Returns a snapshot of statistics, {@link CacheStats#EMPTY} if the cache does not record them
+     */
+    @NonNull
+    CacheStats stats();
+
     class Entry<T> {
         public enum Status {
             GOOD, STALE, BAD
@@ -71,10 +109,17 @@ public interface Cache<K, V> {
 
         @NonNull
         public Status check(@Nullable CacheControl cacheControl) {
+            return check(timestamp, cacheControl);
+        }
+
+        /**
+         * Returns the status of a value with the {@code timestamp}, e.g. got by {@link Cache#getTimestamp}
+         */
+        @NonNull
+        public static Status check(long timestamp, @Nullable CacheControl cacheControl) {
             if (cacheControl == null) {
                 return Status.GOOD;
             }
-            long timestamp = getTimestamp();
             if (timestamp <= 0) {
                 return Status.GOOD;
             }
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Trims registered caches when the system is low on memory. Caches are held weakly.
+ * <p/>
+ * <p>On {@link #onTrimMemory} every cache whose {@link TrimPriority} allows the level is trimmed
+ * to a fraction of its {@link TrimmableCache#maxSize()}: 3/4 on moderate levels, 1/2 on low levels,
+ * 1/4 on critical levels and nothing is left on {@link #TRIM_MEMORY_COMPLETE} and {@link #onLowMemory()}.
+ * The maximum size is not changed, so caches grow back when memory is available again.
+ */
+public class CacheRegistry implements ComponentCallbacks2 {
+
+    public enum TrimPriority {
+        /**
+         * Trimmed on any memory pressure, for caches that are cheap to refill
+         */
+        HIGH(TRIM_MEMORY_RUNNING_MODERATE),
+        /**
+         * Trimmed when memory is low while running or the UI is hidden
+         */
+        NORMAL(TRIM_MEMORY_RUNNING_LOW),
+        /**
+         * Trimmed only when the process is in background LRU list
+         */
+        LOW(TRIM_MEMORY_BACKGROUND);
+
+        private final int minTrimLevel;
+
+        TrimPriority(int minTrimLevel) {
+            this.minTrimLevel = minTrimLevel;
+        }
+    }
+
+    private static final CacheRegistry INSTANCE = new CacheRegistry();
+
+    @GuardedBy("itself")
+    private final Map<TrimmableCache, TrimPriority> caches = new WeakHashMap<>();
+
+    public static CacheRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers this registry for memory callbacks of the application
+     */
+    public CacheRegistry install(Context context) {
+        context.getApplicationContext().registerComponentCallbacks(this);
+        return this;
+    }
+
+    public void uninstall(Context context) {
+        context.getApplicationContext().unregisterComponentCallbacks(this);
+    }
+
+    public <C extends TrimmableCache> C register(C cache) {
+        return register(cache, TrimPriority.NORMAL);
+    }
+
+    public <C extends TrimmableCache> C register(C cache, TrimPriority priority) {
+        synchronized (caches) {
+            caches.put(cache, priority);
+        }
+        return cache;
+    }
+
+    public void unregister(TrimmableCache cache) {
+        synchronized (caches) {
+            caches.remove(cache);
+        }
+    }
+
+    /**
+     * Trims registered caches for the given {@link ComponentCallbacks2} level
+     */
+    public void trimMemory(int level) {
+        float retainedFraction = getRetainedFraction(level);
+        List<TrimmableCache> toTrim = new ArrayList<>();
+        synchronized (caches) {
+            for (Map.Entry<TrimmableCache, TrimPriority> entry : caches.entrySet()) {
+                if (level >= entry.getValue().minTrimLevel) {
+                    toTrim.add(entry.getKey());
+                }
+            }
+        }
+        for (TrimmableCache cache : toTrim) {
+            if (retainedFraction == 0) {
+                cache.trimToSize(-1);
+            } else {
+                cache.trimToSize((int) (cache.maxSize() * retainedFraction));
+            }
+        }
+    }
+
+    static float getRetainedFraction(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            return 0;
+        }
+        if (level >= TRIM_MEMORY_MODERATE) {
+            return 0.25f;
+        }
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            return 0.5f;
+        }
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            return 0.75f;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0.25f;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            return 0.5f;
+        }
+        return 0.75f;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        trimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
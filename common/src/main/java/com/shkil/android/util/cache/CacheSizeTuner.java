@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Moves a shared size budget between caches to minimize their total misses. A miss ratio curve of each
+ * cache is estimated online from a sample of requested keys: reuse distances of sampled keys, the number
+ * of distinct keys requested between two requests of a key, tell how many requests would hit at any size.
+ * Every {@link #tune} gives the budget away in steps to caches whose curves gain the most hits per step,
+ * within their minimum and maximum sizes, and then decays the curves so they follow changing workloads.
+ * The budget left when no cache gains more hits is spread in the same way, so caches without estimates yet
+ * are not kept at their minimum sizes.
+ * <p/>
+ * <p>Reuse distances and sizes are counted in entries, so {@link LruCache}s that override
+ * {@link LruCache#sizeOf} are rejected, and other tuned caches must be limited by the number of entries too.
+ * Call {@link #tune} periodically, e.g. every minute or when the app becomes idle.
+ */
+public class CacheSizeTuner {
+
+    public static final int DEFAULT_SAMPLING_SHIFT = 3; // 1 of 8 keys
+
+    private static final int STEPS = 64;
+
+    private final int budget;
+    private final int samplingShift;
+
+    @GuardedBy("this")
+    private final List<Handle<?>> handles = new ArrayList<>();
+
+    /**
+     * @param budget        total maximum size of all registered caches
+     * @param samplingShift keys are sampled with the rate of {@code 1 / 2^samplingShift}
+     */
+    public CacheSizeTuner(int budget, int samplingShift) {
+        if (budget <= 0 || samplingShift < 0 || samplingShift > 16) {
+            throw new IllegalArgumentException("budget <= 0 || samplingShift not in [0..16]");
+        }
+        this.budget = budget;
+        this.samplingShift = samplingShift;
+    }
+
+    public CacheSizeTuner(int budget) {
+        this(budget, DEFAULT_SAMPLING_SHIFT);
+    }
+
+    /**
+     * Registers a cache to tune and observes its requests
+     *
+     * @throws IllegalArgumentException if the cache overrides {@link LruCache#sizeOf}
+     */
+    public synchronized <K> Handle<K> register(@NonNull LruCache<K, ?> cache, int minSize, int maxSize) {
+        if (overridesSizeOf(cache)) {
+            throw new IllegalArgumentException("Cache sizes are not counted in entries");
+        }
+        Handle<K> handle = register((TrimmableCache) cache, minSize, maxSize);
+        cache.setAccessObserver(handle);
+        return handle;
+    }
+
+    /**
+     * Registers a cache to tune, its requests must be reported by {@link Handle#onAccess}
+     *
+     * @throws IllegalArgumentException if minimum sizes of registered caches would exceed the budget
+     */
+    public synchronized <K> Handle<K> register(@NonNull TrimmableCache cache, int minSize, int maxSize) {
+        if (minSize <= 0 || maxSize < minSize) {
+            throw new IllegalArgumentException("minSize <= 0 || maxSize < minSize");
+        }
+        long minSizes = minSize;
+        for (int i = 0, count = handles.size(); i < count; i++) {
+            minSizes += handles.get(i).minSize;
+        }
+        if (minSizes > budget) {
+            throw new IllegalArgumentException("Minimum sizes exceed the budget of " + budget);
+        }
+        Handle<K> handle = new Handle<>(cache, minSize, maxSize, samplingShift);
+        handles.add(handle);
+        return handle;
+    }
+
+    public synchronized void unregister(@NonNull Handle<?> handle) {
+        handles.remove(handle);
+    }
+
+    private static boolean overridesSizeOf(LruCache<?, ?> cache) {
+        for (Class<?> type = cache.getClass(); type != LruCache.class; type = type.getSuperclass()) {
+            try {
+                type.getDeclaredMethod("sizeOf", Object.class, Object.class);
+                return true;
+            } catch (NoSuchMethodException ex) {
+                // not overridden by this class
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Resizes registered caches to minimize estimated misses within the budget
+     *
+     * @return new sizes of caches in the order of registration
+     */
+    public int[] tune() {
+        List<Handle<?>> handles;
+        synchronized (this) {
+            handles = new ArrayList<>(this.handles);
+        }
+        int count = handles.size();
+        int[] sizes = new int[count];
+        if (count == 0) {
+            return sizes;
+        }
+        long[][] curves = new long[count][];
+        int remaining = budget;
+        int maxCapacity = 0;
+        for (int i = 0; i < count; i++) {
+            Handle<?> handle = handles.get(i);
+            curves[i] = handle.takeHits();
+            sizes[i] = handle.minSize;
+            remaining -= handle.minSize;
+            maxCapacity = Math.max(maxCapacity, handle.maxSize);
+        }
+        int step = Math.max(1, Math.max(budget, maxCapacity) / (STEPS * count));
+        while (remaining > 0) {
+            int best = -1;
+            double bestGain = -1;
+            for (int i = 0; i < count; i++) {
+                Handle<?> handle = handles.get(i);
+                int increment = Math.min(step, Math.min(remaining, handle.maxSize - sizes[i]));
+                if (increment <= 0) {
+                    continue;
+                }
+                double gain = (double) (handle.hitsAt(curves[i], sizes[i] + increment)
+                        - handle.hitsAt(curves[i], sizes[i])) / increment;
+                if (gain > bestGain) {
+                    best = i;
+                    bestGain = gain;
+                }
+            }
+            if (best < 0) {
+                break; // all caches are at their maximum size
+            }
+            int increment = Math.min(step, Math.min(remaining, handles.get(best).maxSize - sizes[best]));
+            sizes[best] += increment;
+            remaining -= increment;
+        }
+        for (int i = 0; i < count; i++) {
+            handles.get(i).cache.resize(sizes[i]);
+        }
+        return sizes;
+    }
+
+    /**
+     * Registration of a cache estimating its miss ratio curve
+     */
+    public static class Handle<K> implements LruCache.AccessObserver<K> {
+        private final TrimmableCache cache;
+        private final int minSize;
+        private final int maxSize;
+        private final int samplingShift;
+        private final int samplingMask;
+        private final int bucketWidth;
+
+        /**
+         * Times of the last requests of sampled keys, from the least recent one. They work as ghost
+         * entries: keys are tracked whether or not the cache still holds them
+         */
+        @GuardedBy("this")
+        private final LinkedHashMap<K, Integer> sampledKeys = new LinkedHashMap<>(16, 0.75f, true);
+        /**
+         * Fenwick tree over request times marking the last request time of every sampled key,
+         * the number of marks after a time is the number of distinct keys requested since then
+         */
+        @GuardedBy("this")
+        private final int[] marks;
+        @GuardedBy("this")
+        private int time;
+        /**
+         * Numbers of hits by reuse distance scaled to cache size, bucket i counts hits at sizes
+         * greater than {@code i * bucketWidth}
+         */
+        @GuardedBy("this")
+        private final long[] hits;
+
+        Handle(TrimmableCache cache, int minSize, int maxSize, int samplingShift) {
+            this.cache = cache;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.samplingShift = samplingShift;
+            this.samplingMask = (1 << samplingShift) - 1;
+            this.bucketWidth = Math.max(1, maxSize / STEPS);
+            int maxSampledKeys = (maxSize >> samplingShift) + 1;
+            this.marks = new int[maxSampledKeys * 2 + 1];
+            this.hits = new long[maxSize / bucketWidth + 1];
+        }
+
+        @Override
+        public void onAccess(K key) {
+            int hash = key.hashCode() * 0x9E3779B9;
+            if (((hash ^ (hash >>> 16)) & samplingMask) != 0) {
+                return;
+            }
+            synchronized (this) {
+                Integer lastTime = sampledKeys.get(key); // moves the key to the most recent
+                if (lastTime != null) {
+                    int distance = countMarksAfter(lastTime) << samplingShift;
+                    addMark(lastTime, -1);
+                    int bucket = distance / bucketWidth;
+                    if (bucket < hits.length) {
+                        hits[bucket]++;
+                    }
+                }
+                if (time + 1 >= marks.length) {
+                    compact();
+                }
+                time++;
+                addMark(time, 1);
+                sampledKeys.put(key, time);
+                if (sampledKeys.size() > (marks.length - 1) / 2) {
+                    // keys further than the maximum size can't hit, forget the least recent one
+                    Iterator<Map.Entry<K, Integer>> iterator = sampledKeys.entrySet().iterator();
+                    addMark(iterator.next().getValue(), -1);
+                    iterator.remove();
+                }
+            }
+        }
+
+        /**
+         * Returns hits by size buckets and halves them, so old requests weigh less
+         */
+        synchronized long[] takeHits() {
+            long[] result = hits.clone();
+            for (int i = 0; i < hits.length; i++) {
+                hits[i] /= 2;
+            }
+            return result;
+        }
+
+        /**
+         * Returns the estimated number of hits at the size
+         */
+        long hitsAt(long[] curve, int size) {
+            long result = 0;
+            int buckets = Math.min(curve.length, size / bucketWidth);
+            for (int i = 0; i < buckets; i++) {
+                result += curve[i];
+            }
+            return result;
+        }
+
+        public int getMinSize() {
+            return minSize;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        @GuardedBy("this")
+        private int countMarksAfter(int lastTime) {
+            return sumMarks(time) - sumMarks(lastTime);
+        }
+
+        @GuardedBy("this")
+        private int sumMarks(int index) {
+            int sum = 0;
+            for (int i = index; i > 0; i -= i & -i) {
+                sum += marks[i];
+            }
+            return sum;
+        }
+
+        @GuardedBy("this")
+        private void addMark(int index, int delta) {
+            for (int i = index; i < marks.length; i += i & -i) {
+                marks[i] += delta;
+            }
+        }
+
+        /**
+         * Renumbers request times of sampled keys from 1 keeping their order
+         */
+        @GuardedBy("this")
+        private void compact() {
+            for (int i = 0; i < marks.length; i++) {
+                marks[i] = 0;
+            }
+            time = 0;
+            for (Map.Entry<K, Integer> entry : sampledKeys.entrySet()) {
+                time++;
+                entry.setValue(time);
+                addMark(time, 1);
+            }
+        }
+    }
+}
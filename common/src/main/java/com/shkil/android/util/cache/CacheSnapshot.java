@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.os.AsyncTask;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.shkil.android.util.concurrent.MainThreadExecutor;
+import com.shkil.android.util.concurrent.ResultFuture;
+import com.shkil.android.util.concurrent.ResultFutureTask;
+import com.shkil.android.util.io.Codec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import static com.shkil.android.util.io.IoUtils.closeQuietly;
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Snapshot file of the most recently used entries of a cache, to warm it up after the process restarts.
+ * Keys are saved with timestamps, so {@link CacheControl} checks of restored entries still apply, and
+ * values are saved too if a value codec is set. Save a snapshot when the app goes to background, e.g.
+ * on {@link android.content.ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN}, and restore it on startup.
+ */
+public class CacheSnapshot<K, V> {
+
+    private static final String TAG = "CacheSnapshot";
+
+    private static final int MAGIC = 0x43534e31; // CSN1
+
+    private static final int MAX_KEY_LENGTH = 64 * 1024;
+    private static final int MAX_VALUE_LENGTH = 16 * 1024 * 1024;
+
+    private final File file;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final int maxEntries;
+    private final Executor executor;
+
+    /**
+     * @param valueCodec codec of values, null to save keys only
+     * @param maxEntries maximum number of most recently used entries to save
+     */
+    public CacheSnapshot(File file, Codec<K> keyCodec, @Nullable Codec<V> valueCodec, int maxEntries) {
+        this(file, keyCodec, valueCodec, maxEntries, AsyncTask.SERIAL_EXECUTOR);
+    }
+
+    /**
+     * @param executor serial executor used for file operations
+     */
+    public CacheSnapshot(File file, Codec<K> keyCodec, @Nullable Codec<V> valueCodec, int maxEntries,
+            Executor executor) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries <= 0");
+        }
+        this.file = file;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.maxEntries = maxEntries;
+        this.executor = executor;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Copies the most recently used entries of the cache and writes them on the executor.
+     * The cache keeps no timestamps, so entries are saved with the time of the snapshot.
+     */
+    public void save(@NonNull LruCache<K, V> cache) {
+        List<K> keys = new ArrayList<>();
+        List<Cache.Entry<V>> entries = new ArrayList<>();
+        long now = currentTimeMillis();
+        for (Map.Entry<K, V> entry : cache.snapshot().entrySet()) {
+            keys.add(entry.getKey());
+            entries.add(new Cache.Entry<>(entry.getValue(), now));
+        }
+        save(keys, entries);
+    }
+
+    /**
+     * Copies the most recently used entries of the cache with timestamps and writes them on the executor
+     */
+    public void save(@NonNull ControllableCache<K, V> cache) {
+        List<K> keys = new ArrayList<>();
+        List<Cache.Entry<V>> entries = new ArrayList<>();
+        for (Map.Entry<K, Cache.Entry<V>> entry : cache.snapshot().entrySet()) {
+            keys.add(entry.getKey());
+            entries.add(entry.getValue());
+        }
+        save(keys, entries);
+    }
+
+    /**
+     * @param keys    keys ordered from least recently used to most recently used
+     * @param entries entries of the keys
+     */
+    private void save(List<K> keys, List<Cache.Entry<V>> entries) {
+        int from = Math.max(0, keys.size() - maxEntries);
+        final List<K> savedKeys = new ArrayList<>(keys.subList(from, keys.size()));
+        final List<Cache.Entry<V>> savedEntries = new ArrayList<>(entries.subList(from, entries.size()));
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(savedKeys, savedEntries);
+            }
+        });
+    }
+
+    /**
+     * Writes entries from the most recently used one to a temporary file which then atomically replaces
+     * the snapshot
+     */
+    private synchronized void write(List<K> keys, List<Cache.Entry<V>> entries) {
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOutput = null;
+        try {
+            fileOutput = new FileOutputStream(tempFile);
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+            output.writeInt(MAGIC);
+            output.writeInt(keys.size());
+            for (int i = keys.size() - 1; i >= 0; i--) {
+                K key = keys.get(i);
+                Cache.Entry<V> entry = entries.get(i);
+                byte[] keyData = keyCodec.encode(key);
+                byte[] valueData = null;
+                if (valueCodec != null) {
+                    try {
+                        valueData = valueCodec.encode(entry.getValue());
+                    } catch (IOException ex) {
+                        Log.w(TAG, "Error encoding value of " + key, ex);
+                    }
+                }
+                output.writeInt(keyData.length);
+                output.write(keyData);
+                output.writeLong(entry.getTimestamp());
+                if (valueData != null) {
+                    output.writeInt(valueData.length);
+                    output.write(valueData);
+                } else {
+                    output.writeInt(-1);
+                }
+            }
+            output.flush();
+            fileOutput.getFD().sync();
+            output.close();
+            fileOutput = null;
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Can't rename " + tempFile + " to " + file);
+            }
+        } catch (IOException ex) {
+            Log.w(TAG, "Error writing " + file, ex);
+            closeQuietly(fileOutput);
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Puts saved values to the cache, from the least recently used one so the recency order is kept.
+     * A value is not restored if the cache already has the key, unless the cache supports cache control
+     * and its entry is older. Each value is checked right before it is put, without a lock since caches
+     * may run listeners or write to storage on put, so a value put concurrently between the check and the put
+     * may be overwritten by the older saved one. Restore the snapshot before values are fetched, e.g. wait for
+     * {@link #restoreAsync} before fetching. Must not be called on the main thread.
+     *
+     * @return saved keys from the most recently used one, including keys without saved values that
+     * can be fetched lazily
+     */
+    @NonNull
+    public synchronized List<K> restore(@NonNull Cache<K, V> cache) {
+        List<K> keys = new ArrayList<>();
+        List<Cache.Entry<V>> entries = new ArrayList<>();
+        read(keys, entries);
+        boolean cacheControlSupported = cache.isCacheControlSupported();
+        for (int i = keys.size() - 1; i >= 0; i--) {
+            Cache.Entry<V> entry = entries.get(i);
+            if (entry.getValue() == null) {
+                continue;
+            }
+            K key = keys.get(i);
+            long timestamp = cache.getTimestamp(key);
+            if (timestamp == Cache.NO_TIMESTAMP
+                    || (cacheControlSupported && timestamp < entry.getTimestamp())) {
+                cache.put(key, entry);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Restores the snapshot on the executor in parallel with the app startup
+     *
+     * @see #restore
+     */
+    @NonNull
+    public ResultFuture<List<K>> restoreAsync(@NonNull final Cache<K, V> cache) {
+        return ResultFutureTask.execute(new Callable<List<K>>() {
+            @Override
+            public List<K> call() {
+                return restore(cache);
+            }
+        }, executor).getResultFuture(MainThreadExecutor.getInstance(), false);
+    }
+
+    /**
+     * Reads entries, values are null if they were not saved. Entries read before an error are kept.
+     */
+    private void read(List<K> keys, List<Cache.Entry<V>> entries) {
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Wrong snapshot header");
+            }
+            int count = Math.min(input.readInt(), maxEntries);
+            for (int i = 0; i < count; i++) {
+                int keyLength = input.readInt();
+                if (keyLength < 0 || keyLength > MAX_KEY_LENGTH) {
+                    throw new IOException("Wrong key length: " + keyLength);
+                }
+                byte[] keyData = new byte[keyLength];
+                input.readFully(keyData);
+                long timestamp = input.readLong();
+                int valueLength = input.readInt();
+                byte[] valueData = null;
+                if (valueLength >= 0) {
+                    if (valueLength > MAX_VALUE_LENGTH) {
+                        throw new IOException("Wrong value length: " + valueLength);
+                    }
+                    valueData = new byte[valueLength];
+                    input.readFully(valueData);
+                }
+                K key;
+                V value = null;
+                try {
+                    key = keyCodec.decode(keyData, 0, keyLength);
+                    if (valueData != null && valueCodec != null) {
+                        value = valueCodec.decode(valueData, 0, valueLength);
+                    }
+                } catch (IOException ex) {
+                    Log.w(TAG, "Skipping undecodable entry", ex);
+                    continue;
+                }
+                keys.add(key);
+                entries.add(new Cache.Entry<>(value, timestamp));
+            }
+        } catch (FileNotFoundException ex) {
+            // nothing to restore
+        } catch (IOException ex) {
+            Log.w(TAG, "Error reading " + file, ex);
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    public void delete() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (CacheSnapshot.this) {
+                    if (file.exists() && !file.delete()) {
+                        Log.w(TAG, "Can't delete " + file);
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "CacheSnapshot{" +
+                "file=" + file +
+                '}';
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * Immutable snapshot of cache statistics
+ *
+ * @see StatsCounter
+ */
+@AutoValue
+public abstract class CacheStats {
+
+    public static final CacheStats EMPTY = builder().build();
+
+    public abstract long hitCount();
+
+    public abstract long missCount();
+
+    public abstract long putCount();
+
+    /**
+     * Number of times a value was loaded or created on a miss
+     */
+    public abstract long loadSuccessCount();
+
+    /**
+     * Number of times loading or creation of a value on a miss returned nothing or failed
+     */
+    public abstract long loadFailureCount();
+
+    /**
+     * Total time spent loading values in nanoseconds
+     */
+    public abstract long totalLoadTimeNanos();
+
+    public abstract long evictionCount();
+
+    /**
+     * Sum of sizes of evicted entries
+     */
+    public abstract long evictionWeight();
+
+    /**
+     * Number of evicted entries that have expired, they are counted by {@link #evictionCount()} as well
+     */
+    public abstract long expirationCount();
+
+    /**
+     * Number of new entries evicted since the admission policy preferred the entries already cached
+     */
+    public abstract long rejectionCount();
+
+    /**
+     * Number of hits served by evicted values that were still reachable
+     */
+    public abstract long resurrectionCount();
+
+    /**
+     * Length of the window of {@link #windowHitCount()} and {@link #windowMissCount()}, 0 if they are not tracked
+     */
+    public abstract int windowSeconds();
+
+    public abstract long windowHitCount();
+
+    public abstract long windowMissCount();
+
+    public abstract Builder toBuilder();
+
+    public static Builder builder() {
+        return new AutoValue_CacheStats.Builder()
+                .hitCount(0)
+                .missCount(0)
+                .putCount(0)
+                .loadSuccessCount(0)
+                .loadFailureCount(0)
+                .totalLoadTimeNanos(0)
+                .evictionCount(0)
+                .evictionWeight(0)
+                .expirationCount(0)
+                .rejectionCount(0)
+                .resurrectionCount(0)
+                .windowSeconds(0)
+                .windowHitCount(0)
+                .windowMissCount(0);
+    }
+
+    public long requestCount() {
+        return hitCount() + missCount();
+    }
+
+    /**
+     * Returns the ratio of hits to requests or 1.0 if there were no requests
+     */
+    public double hitRate() {
+        long requestCount = requestCount();
+        return requestCount == 0 ? 1.0 : (double) hitCount() / requestCount;
+    }
+
+    public double missRate() {
+        long requestCount = requestCount();
+        return requestCount == 0 ? 0.0 : (double) missCount() / requestCount;
+    }
+
+    /**
+     * Returns the hit rate of the last {@link #windowSeconds()} or 1.0 if there were no requests
+     */
+    public double windowHitRate() {
+        long requestCount = windowHitCount() + windowMissCount();
+        return requestCount == 0 ? 1.0 : (double) windowHitCount() / requestCount;
+    }
+
+    public long averageLoadPenaltyNanos() {
+        long loadCount = loadSuccessCount() + loadFailureCount();
+        return loadCount == 0 ? 0 : totalLoadTimeNanos() / loadCount;
+    }
+
+    @AutoValue.Builder
+    public static abstract class Builder {
+        public abstract Builder hitCount(long hitCount);
+
+        public abstract Builder missCount(long missCount);
+
+        public abstract Builder putCount(long putCount);
+
+        public abstract Builder loadSuccessCount(long loadSuccessCount);
+
+        public abstract Builder loadFailureCount(long loadFailureCount);
+
+        public abstract Builder totalLoadTimeNanos(long totalLoadTimeNanos);
+
+        public abstract Builder evictionCount(long evictionCount);
+
+        public abstract Builder evictionWeight(long evictionWeight);
+
+        public abstract Builder expirationCount(long expirationCount);
+
+        public abstract Builder rejectionCount(long rejectionCount);
+
+        public abstract Builder resurrectionCount(long resurrectionCount);
+
+        public abstract Builder windowSeconds(int windowSeconds);
+
+        public abstract Builder windowHitCount(long windowHitCount);
+
+        public abstract Builder windowMissCount(long windowMissCount);
+
+        public abstract CacheStats build();
+    }
+}
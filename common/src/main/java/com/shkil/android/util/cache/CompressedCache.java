@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.shkil.android.util.io.Codec;
+import com.shkil.android.util.io.Codecs;
+
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Memory cache of values kept compressed, for large values that compress well like JSON or text.
+ * Values are encoded by a codec, deflated and decoded back on each hit, the cache size is the number of
+ * compressed bytes. A small LRU of decoded values in front of it serves the most recently used entries
+ * without decoding, its hits keep the compressed values recently used too.
+ */
+public class CompressedCache<K, V> extends AbstractCache<K, V> implements TrimmableCache {
+
+    private static final String TAG = "CompressedCache";
+
+    private final Codec<V> codec;
+    private final LruCache<K, Entry<byte[]>> compressedCache;
+    private final LruCache<K, Entry<V>> hotCache;
+    private volatile StatsCounter statsCounter = new ConcurrentStatsCounter();
+
+    public static <K, V> CompressedCache<K, V> newCache(int maxBytes, int hotMaxSize, @NonNull Codec<V> codec) {
+        return new CompressedCache<>(maxBytes, hotMaxSize, codec, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * @param maxBytes   maximum sum of compressed sizes of values
+     * @param hotMaxSize maximum number of decoded values kept in front of compressed ones
+     * @param level      deflate compression level
+     */
+    public CompressedCache(int maxBytes, int hotMaxSize, @NonNull Codec<V> codec, int level) {
+        this.codec = Codecs.deflate(codec, level);
+        this.compressedCache = new LruCache<K, Entry<byte[]>>(maxBytes) {
+            @Override
+            protected int sizeOf(K key, Entry<byte[]> entry) {
+                return entry.getValue().length;
+            }
+        }.setStatsCounter(StatsCounter.DISABLED); // requests are counted by this cache
+        this.hotCache = new LruCache<>(hotMaxSize);
+    }
+
+    @Override
+    public V get(K key) {
+        Entry<V> entry = getEntry(key);
+        return entry != null ? entry.getValue() : null;
+    }
+
+    @Nullable
+    @Override
+    public Entry<V> getEntry(K key) {
+        Entry<V> entry = hotCache.get(key);
+        if (entry != null) {
+            compressedCache.get(key); // so that the compressed value is not evicted as least recently used
+            statsCounter.recordHit();
+            return entry;
+        }
+        Entry<byte[]> compressedEntry = compressedCache.get(key);
+        if (compressedEntry != null) {
+            long startTime = System.nanoTime();
+            try {
+                byte[] data = compressedEntry.getValue();
+                entry = new Entry<>(codec.decode(data, 0, data.length), compressedEntry.getTimestamp());
+                statsCounter.recordLoadSuccess(System.nanoTime() - startTime);
+            } catch (IOException ex) {
+                statsCounter.recordLoadFailure(System.nanoTime() - startTime);
+                Log.w(TAG, "Error decoding entry " + key, ex);
+                compressedCache.remove(key);
+            }
+        }
+        if (entry == null) {
+            statsCounter.recordMiss();
+            return null;
+        }
+        statsCounter.recordHit();
+        synchronized (this) {
+            // Publish only if the value was not replaced or removed while it was decoded
+            if (compressedCache.peek(key) == compressedEntry) {
+                hotCache.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the timestamp of the value of {@code key} without decoding it and counting a request
+     */
+    @Override
+    public long getTimestamp(K key) {
+        Entry<V> entry = hotCache.peek(key);
+        if (entry != null) {
+            return entry.getTimestamp();
+        }
+        Entry<byte[]> compressedEntry = compressedCache.peek(key);
+        return compressedEntry != null ? compressedEntry.getTimestamp() : NO_TIMESTAMP;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return put(key, new Entry<>(value, currentTimeMillis()));
+    }
+
+    /**
+     * @return the previous value if it was decoded, otherwise null
+     */
+    @Override
+    public V put(K key, @NonNull Entry<V> entry) {
+        statsCounter.recordPut();
+        Entry<byte[]> compressedEntry;
+        try {
+            byte[] data = codec.encode(entry.getValue());
+            compressedEntry = new Entry<>(data, entry.getTimestamp());
+        } catch (IOException ex) {
+            Log.w(TAG, "Error encoding entry " + key, ex);
+            remove(key);
+            return null;
+        }
+        Entry<V> previous;
+        synchronized (this) {
+            compressedCache.put(key, compressedEntry);
+            previous = hotCache.put(key, entry);
+        }
+        return previous != null ? previous.getValue() : null;
+    }
+
+    /**
+     * @return the previous value if it was decoded, otherwise null
+     */
+    @Override
+    public V remove(K key) {
+        Entry<V> previous;
+        synchronized (this) {
+            compressedCache.remove(key);
+            previous = hotCache.remove(key);
+        }
+        return previous != null ? previous.getValue() : null;
+    }
+
+    /**
+     * Returns the sum of compressed sizes of values
+     */
+    @Override
+    public int size() {
+        return compressedCache.size();
+    }
+
+    @Override
+    public int maxSize() {
+        return compressedCache.maxSize();
+    }
+
+    @Override
+    public void resize(int maxSize) {
+        compressedCache.resize(maxSize);
+    }
+
+    @Override
+    public void trimToSize(int maxSize) {
+        compressedCache.trimToSize(maxSize);
+        if (maxSize < 0 || maxSize < compressedCache.maxSize() / 2) {
+            hotCache.evictAll();
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        hotCache.evictAll();
+        compressedCache.evictAll();
+    }
+
+    /**
+     * Returns the number of hits served by decoded values
+     */
+    public int hotHitCount() {
+        return hotCache.hitCount();
+    }
+
+    /**
+     * Returns statistics, loads are decodings of compressed values
+     */
+    @NonNull
+    @Override
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    /**
+     * Set a counter to record statistics to, {@link StatsCounter#DISABLED} removes statistics overhead
+     */
+    public CompressedCache<K, V> setStatsCounter(@NonNull StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+        return this;
+    }
+
+    @Override
+    public Object getSyncLock() {
+        return this;
+    }
+
+    @Override
+    public boolean isQuick() {
+        return true;
+    }
+
+    @Override
+    public boolean isCacheControlSupported() {
+        return true;
+    }
+}
@@ -0,0 +1,569 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Thread-safe LRU cache with lock-free reads. Values are kept in a {@link ConcurrentHashMap},
+ * while reads are recorded into striped lossy buffers and applied to the LRU list in batches
+ * under the eviction lock, so the LRU order is global but approximate. Writes are serialized.
+ * <p/>
+ * <p>{@link #sizeOf}, {@link #create} and {@link #entryRemoved} have the same semantics as in {@link LruCache}.
+ */
+public class ConcurrentLruCache<K, V> extends AbstractCache<K, V> implements TrimmableCache, PeekableCache<K, V> {
+
+    private static final int MAX_READ_BUFFERS = 16;
+    private static final int READ_BUFFER_SIZE = 32;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+
+    private static final int READ_BUFFERS_COUNT = ceilingPowerOfTwo(Math.min(MAX_READ_BUFFERS, 2 * Runtime.getRuntime().availableProcessors()));
+    private static final int READ_BUFFERS_MASK = READ_BUFFERS_COUNT - 1;
+
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /**
+     * Sentinel of the circular LRU list, {@code head.next} is the least recently used node
+     */
+    @GuardedBy("evictionLock")
+    private final Node<K, V> head = new Node<>(null, null, 0);
+
+    private final AtomicReferenceArray<Node<K, V>>[] readBuffers;
+    private final AtomicLong[] readBufferWriteCounts;
+    private final AtomicLong[] readBufferReadCounts;
+
+    @GuardedBy("evictionLock")
+    private int size;
+    private volatile int maxSize;
+
+    private volatile StatsCounter statsCounter = new ConcurrentStatsCounter();
+
+    private static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        @GuardedBy("evictionLock")
+        int weight;
+        @GuardedBy("evictionLock")
+        Node<K, V> prev;
+        @GuardedBy("evictionLock")
+        Node<K, V> next;
+
+        Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    public static <K, V> ConcurrentLruCache<K, V> newCache(int maxSize) {
+        return new ConcurrentLruCache<>(maxSize);
+    }
+
+    public static <K, V> Cache<K, V> newControllableCache(int maxSize) {
+        return new ControllableCache.Trimmable<>(new ConcurrentLruCache<K, Entry<V>>(maxSize));
+    }
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *                the maximum number of entries in the cache. For all other caches,
+     *                this is the maximum sum of the sizes of the entries in this cache.
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        this.map = new ConcurrentHashMap<>(16, 0.75f, READ_BUFFERS_COUNT);
+        this.head.prev = head;
+        this.head.next = head;
+        this.readBuffers = (AtomicReferenceArray<Node<K, V>>[]) new AtomicReferenceArray<?>[READ_BUFFERS_COUNT];
+        this.readBufferWriteCounts = new AtomicLong[READ_BUFFERS_COUNT];
+        this.readBufferReadCounts = new AtomicLong[READ_BUFFERS_COUNT];
+        for (int i = 0; i < READ_BUFFERS_COUNT; i++) {
+            readBuffers[i] = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+            readBufferWriteCounts[i] = new AtomicLong();
+            readBufferReadCounts[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache or can be
+     * created by {@code #create}. Lookups of existing values do not block.
+     */
+    @Override
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Node<K, V> node = map.get(key);
+        if (node != null) {
+            V value = node.value;
+            if (value != null) {
+                statsCounter.recordHit();
+                afterRead(node);
+                return value;
+            }
+        }
+        StatsCounter statsCounter = this.statsCounter;
+        statsCounter.recordMiss();
+
+        long startTime = statsCounter != StatsCounter.DISABLED ? System.nanoTime() : 0;
+        V createdValue = create(key);
+        if (createdValue == null) {
+            return null;
+        }
+        if (statsCounter != StatsCounter.DISABLED) {
+            statsCounter.recordLoadSuccess(System.nanoTime() - startTime);
+        }
+
+        V mapValue;
+        List<Node<K, V>> evicted;
+        evictionLock.lock();
+        try {
+            node = map.get(key);
+            if (node != null) {
+                mapValue = node.value;
+                evicted = null;
+            } else {
+                mapValue = null;
+                addNode(key, createdValue);
+                evicted = evict(maxSize);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+
+        if (mapValue != null) {
+            entryRemoved(false, key, createdValue, mapValue);
+            return mapValue;
+        }
+        notifyEvicted(evicted);
+        return createdValue;
+    }
+
+    @Override
+    public Entry<V> getEntry(K key) {
+        return Entry.of(get(key), 0);
+    }
+
+    @Override
+    public final long getTimestamp(K key) {
+        return map.containsKey(key) ? 0 : NO_TIMESTAMP;
+    }
+
+    /**
+     * Returns the value of {@code key} without creating it, recording the read or counting a request
+     */
+    @Nullable
+    @Override
+    public final V peek(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Node<K, V> node = map.get(key);
+        return node != null ? node.value : null;
+    }
+
+    @NonNull
+    @Override
+    public final Map<K, V> peekAll(@NonNull Collection<? extends K> keys) {
+        Map<K, V> result = new HashMap<>(keys.size() * 4 / 3 + 1);
+        for (K key : keys) {
+            V value = peek(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public Map<K, Entry<V>> peekEntries(@NonNull Collection<? extends K> keys) {
+        Map<K, V> values = peekAll(keys);
+        Map<K, Entry<V>> result = new HashMap<>(values.size() * 4 / 3 + 1);
+        for (Map.Entry<K, V> entry : values.entrySet()) {
+            result.put(entry.getKey(), new Entry<>(entry.getValue(), 0));
+        }
+        return result;
+    }
+
+    /**
+     * Caches {@code value} for {@code key}. The value is moved to the head of the queue.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    @Override
+    public final V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        statsCounter.recordPut();
+        V previous;
+        List<Node<K, V>> evicted;
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                previous = node.value;
+                int weight = safeSizeOf(key, value);
+                size += weight - node.weight;
+                node.value = value;
+                node.weight = weight;
+                moveToTail(node);
+            } else {
+                previous = null;
+                addNode(key, value);
+            }
+            evicted = evict(maxSize);
+        } finally {
+            evictionLock.unlock();
+        }
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+        notifyEvicted(evicted);
+        return previous;
+    }
+
+    @Override
+    public V put(K key, @NonNull Entry<V> entry) {
+        return put(key, entry.getValue());
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    @Override
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        V previous = null;
+        evictionLock.lock();
+        try {
+            Node<K, V> node = map.remove(key);
+            if (node != null) {
+                previous = node.value;
+                unlink(node);
+                size -= node.weight;
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+        if (previous != null) {
+            entryRemoved(false, key, previous, null);
+        }
+        return previous;
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1); // -1 will evict 0-sized elements
+    }
+
+    @Override
+    public final void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * @param maxSize the maximum size of the cache before returning. May be -1
+     *                to evict even 0-sized elements.
+     */
+    @Override
+    public final void trimToSize(int maxSize) {
+        List<Node<K, V>> evicted;
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            evicted = evict(maxSize);
+        } finally {
+            evictionLock.unlock();
+        }
+        notifyEvicted(evicted);
+    }
+
+    private void afterRead(Node<K, V> node) {
+        int bufferIndex = (int) (Thread.currentThread().getId() & READ_BUFFERS_MASK);
+        AtomicLong writeCount = readBufferWriteCounts[bufferIndex];
+        long index = writeCount.get();
+        long pending = index - readBufferReadCounts[bufferIndex].get();
+        if (pending < READ_BUFFER_SIZE && writeCount.compareAndSet(index, index + 1)) {
+            readBuffers[bufferIndex].lazySet((int) (index & READ_BUFFER_MASK), node);
+            pending++;
+        }
+        if (pending >= READ_BUFFER_DRAIN_THRESHOLD && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    @GuardedBy("evictionLock")
+    private void drainReadBuffers() {
+        for (int i = 0; i < READ_BUFFERS_COUNT; i++) {
+            AtomicReferenceArray<Node<K, V>> buffer = readBuffers[i];
+            long writeCount = readBufferWriteCounts[i].get();
+            long readCount = readBufferReadCounts[i].get();
+            for (; readCount < writeCount; readCount++) {
+                int index = (int) (readCount & READ_BUFFER_MASK);
+                Node<K, V> node = buffer.get(index);
+                if (node == null) {
+                    break; // slot is reserved but not published yet
+                }
+                buffer.lazySet(index, null);
+                if (node.next != null) { // skip removed nodes
+                    moveToTail(node);
+                }
+            }
+            readBufferReadCounts[i].lazySet(readCount);
+        }
+    }
+
+    @GuardedBy("evictionLock")
+    private void addNode(K key, V value) {
+        Node<K, V> node = new Node<>(key, value, safeSizeOf(key, value));
+        map.put(key, node);
+        size += node.weight;
+        linkLast(node);
+    }
+
+    @GuardedBy("evictionLock")
+    private List<Node<K, V>> evict(int maxSize) {
+        List<Node<K, V>> evicted = null;
+        while (true) {
+            if (size < 0 || (map.isEmpty() && size != 0)) {
+                throw new IllegalStateException(getClass().getName()
+                        + ".sizeOf() is reporting inconsistent results!");
+            }
+            if (size <= maxSize || head.next == head) {
+                break;
+            }
+            Node<K, V> node = head.next;
+            unlink(node);
+            map.remove(node.key);
+            size -= node.weight;
+            if (evicted == null) {
+                evicted = new ArrayList<>(4);
+            }
+            evicted.add(node);
+        }
+        return evicted;
+    }
+
+    private void notifyEvicted(List<Node<K, V>> evicted) {
+        if (evicted != null) {
+            StatsCounter statsCounter = this.statsCounter;
+            for (int i = 0, count = evicted.size(); i < count; i++) {
+                Node<K, V> node = evicted.get(i);
+                statsCounter.recordEviction(node.weight);
+                entryRemoved(true, node.key, node.value, null);
+            }
+        }
+    }
+
+    @GuardedBy("evictionLock")
+    private void linkLast(Node<K, V> node) {
+        Node<K, V> last = head.prev;
+        node.prev = last;
+        node.next = head;
+        last.next = node;
+        head.prev = node;
+    }
+
+    @GuardedBy("evictionLock")
+    private void unlink(Node<K, V> node) {
+        if (node.next != null) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+        }
+    }
+
+    @GuardedBy("evictionLock")
+    private void moveToTail(Node<K, V> node) {
+        if (head.prev != node) {
+            unlink(node);
+            linkLast(node);
+        }
+    }
+
+    /**
+     * @see LruCache#entryRemoved(boolean, Object, Object, Object)
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    }
+
+    /**
+     * @see LruCache#create(Object)
+     */
+    protected V create(K key) {
+        return null;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * @see LruCache#sizeOf(Object, Object)
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    @Override
+    public final int size() {
+        evictionLock.lock();
+        try {
+            return size;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public final int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of hits, truncated to int like the other int counters read from {@link #stats()}.
+     * Returns 0 if statistics are {@link StatsCounter#DISABLED}.
+     */
+    public final int hitCount() {
+        return (int) stats().hitCount();
+    }
+
+    public final int missCount() {
+        return (int) stats().missCount();
+    }
+
+    public final int createCount() {
+        return (int) stats().loadSuccessCount();
+    }
+
+    public final int putCount() {
+        return (int) stats().putCount();
+    }
+
+    public final int evictionCount() {
+        return (int) stats().evictionCount();
+    }
+
+    @NonNull
+    @Override
+    public final CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    /**
+     * Set a counter to record statistics to, {@link StatsCounter#DISABLED} removes statistics overhead
+     */
+    public final ConcurrentLruCache<K, V> setStatsCounter(@NonNull StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+        return this;
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache, ordered from least
+     * recently accessed to most recently accessed.
+     */
+    public final Map<K, V> snapshot() {
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            Map<K, V> result = new LinkedHashMap<>(map.size());
+            for (Node<K, V> node = head.next; node != head; node = node.next) {
+                result.put(node.key, node.value);
+            }
+            return result;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public final String toString() {
+        CacheStats stats = stats();
+        long accesses = stats.requestCount();
+        int hitPercent = accesses != 0 ? (int) (100 * stats.hitCount() / accesses) : 0;
+        return String.format(Locale.US, "ConcurrentLruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]", maxSize, stats.hitCount(), stats.missCount(), hitPercent);
+    }
+
+    /**
+     * Operations of this cache are not synchronized on the returned object
+     */
+    @Override
+    public Object getSyncLock() {
+        return this;
+    }
+
+    @Override
+    public boolean isQuick() {
+        return true;
+    }
+
+    @Override
+    public boolean isCacheControlSupported() {
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        evictAll();
+    }
+
+    private static int ceilingPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe {@link StatsCounter} of striped long counters, so recording does not contend
+ * and does not need the cache lock. Optionally counts hits and misses of the last seconds
+ * in a ring of per-second slots, the windowed counts are approximate.
+ */
+public class ConcurrentStatsCounter implements StatsCounter {
+
+    private final StripedCounter hitCount = new StripedCounter();
+    private final StripedCounter missCount = new StripedCounter();
+    private final StripedCounter putCount = new StripedCounter();
+    private final StripedCounter loadSuccessCount = new StripedCounter();
+    private final StripedCounter loadFailureCount = new StripedCounter();
+    private final StripedCounter totalLoadTime = new StripedCounter();
+    private final StripedCounter evictionCount = new StripedCounter();
+    private final StripedCounter evictionWeight = new StripedCounter();
+    private final StripedCounter expirationCount = new StripedCounter();
+    private final StripedCounter rejectionCount = new StripedCounter();
+    private final StripedCounter resurrectionCount = new StripedCounter();
+
+    private final int windowSeconds;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLongArray windowSlotSeconds; // second of each slot
+    private final AtomicLongArray windowHits; // slot * STRIPES + stripe
+    private final AtomicLongArray windowMisses;
+
+    public ConcurrentStatsCounter() {
+        this(0);
+    }
+
+    /**
+     * @param windowSeconds number of last seconds to count windowed hit rate for, 0 to not track it
+     */
+    public ConcurrentStatsCounter(int windowSeconds) {
+        if (windowSeconds < 0) {
+            throw new IllegalArgumentException("windowSeconds < 0");
+        }
+        this.windowSeconds = windowSeconds;
+        if (windowSeconds > 0) {
+            windowSlotSeconds = new AtomicLongArray(windowSeconds);
+            for (int i = 0; i < windowSeconds; i++) {
+                windowSlotSeconds.set(i, Long.MIN_VALUE);
+            }
+            windowHits = new AtomicLongArray(windowSeconds * StripedCounter.STRIPES);
+            windowMisses = new AtomicLongArray(windowSeconds * StripedCounter.STRIPES);
+        } else {
+            windowSlotSeconds = null;
+            windowHits = null;
+            windowMisses = null;
+        }
+    }
+
+    @Override
+    public void recordHit() {
+        hitCount.increment();
+        if (windowSeconds > 0) {
+            recordInWindow(windowHits);
+        }
+    }
+
+    @Override
+    public void recordMiss() {
+        missCount.increment();
+        if (windowSeconds > 0) {
+            recordInWindow(windowMisses);
+        }
+    }
+
+    @Override
+    public void recordPut() {
+        putCount.increment();
+    }
+
+    @Override
+    public void recordLoadSuccess(long loadTimeNanos) {
+        loadSuccessCount.increment();
+        totalLoadTime.add(loadTimeNanos);
+    }
+
+    @Override
+    public void recordLoadFailure(long loadTimeNanos) {
+        loadFailureCount.increment();
+        totalLoadTime.add(loadTimeNanos);
+    }
+
+    @Override
+    public void recordEviction(int weight) {
+        evictionCount.increment();
+        evictionWeight.add(weight);
+    }
+
+    @Override
+    public void recordExpiration() {
+        expirationCount.increment();
+    }
+
+    @Override
+    public void recordRejection() {
+        rejectionCount.increment();
+    }
+
+    @Override
+    public void recordResurrection() {
+        resurrectionCount.increment();
+    }
+
+    private void recordInWindow(AtomicLongArray counts) {
+        long second = currentSecond();
+        int slot = (int) (second % windowSeconds);
+        long slotSecond = windowSlotSeconds.get(slot);
+        if (slotSecond < second && windowSlotSeconds.compareAndSet(slot, slotSecond, second)) {
+            int start = slot * StripedCounter.STRIPES;
+            for (int i = start; i < start + StripedCounter.STRIPES; i++) {
+                windowHits.set(i, 0);
+                windowMisses.set(i, 0);
+            }
+        }
+        counts.incrementAndGet(slot * StripedCounter.STRIPES + StripedCounter.currentStripe());
+    }
+
+    /**
+     * Returns seconds since creation of the counter
+     */
+    protected long currentSecond() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos);
+    }
+
+    @NonNull
+    @Override
+    public CacheStats snapshot() {
+        CacheStats.Builder builder = CacheStats.builder()
+                .hitCount(hitCount.sum())
+                .missCount(missCount.sum())
+                .putCount(putCount.sum())
+                .loadSuccessCount(loadSuccessCount.sum())
+                .loadFailureCount(loadFailureCount.sum())
+                .totalLoadTimeNanos(totalLoadTime.sum())
+                .evictionCount(evictionCount.sum())
+                .evictionWeight(evictionWeight.sum())
+                .expirationCount(expirationCount.sum())
+                .rejectionCount(rejectionCount.sum())
+                .resurrectionCount(resurrectionCount.sum());
+        if (windowSeconds > 0) {
+            long windowStart = currentSecond() - windowSeconds;
+            long hits = 0;
+            long misses = 0;
+            for (int slot = 0; slot < windowSeconds; slot++) {
+                if (windowSlotSeconds.get(slot) > windowStart) {
+                    int start = slot * StripedCounter.STRIPES;
+                    for (int i = start; i < start + StripedCounter.STRIPES; i++) {
+                        hits += windowHits.get(i);
+                        misses += windowMisses.get(i);
+                    }
+                }
+            }
+            builder.windowSeconds(windowSeconds).windowHitCount(hits).windowMissCount(misses);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
@@ -15,11 +15,23 @@
  */
 package com.shkil.android.util.cache;
 
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 import static java.lang.System.currentTimeMillis;
 
-public class ControllableCache<K, V> implements Cache<K, V> {
+/**
+ * Cache of values with timestamps on top of a cache of {@link Entry}.
+ * Use {@link Trimmable} to wrap a {@link TrimmableCache}, e.g. to register it in {@link CacheRegistry}.
+ * Peeks and {@link #getTimestamp} neither create values nor record statistics, so they need a wrapped
+ * {@link PeekableCache}, values of other caches are reported missing.
+ */
+public class ControllableCache<K, V> extends AbstractCache<K, V> implements PeekableCache<K, V> {
 
     private final Cache<K, Entry<V>> cache;
 
@@ -57,6 +69,80 @@ public class ControllableCache<K, V> implements Cache<K, V> {
         return entry != null ? entry.getValue() : null;
     }
 
+    @NonNull
+    @Override
+    public Map<K, V> getAll(@NonNull Collection<? extends K> keys) {
+        Map<K, Entry<V>> entries = cache.getAll(keys);
+        Map<K, V> result = new HashMap<>(entries.size() * 4 / 3 + 1);
+        for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getValue());
+        }
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public Map<K, Entry<V>> getEntries(@NonNull Collection<? extends K> keys) {
+        return cache.getAll(keys);
+    }
+
+    @Override
+    public long getTimestamp(K key) {
+        Entry<V> entry = peekEntry(key);
+        return entry != null ? entry.getTimestamp() : NO_TIMESTAMP;
+    }
+
+    @Override
+    public V peek(K key) {
+        Entry<V> entry = peekEntry(key);
+        return entry != null ? entry.getValue() : null;
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private Entry<V> peekEntry(K key) {
+        if (cache instanceof PeekableCache) {
+            return ((PeekableCache<K, Entry<V>>) cache).peek(key);
+        }
+        return null;
+    }
+
+    @NonNull
+    @Override
+    public Map<K, V> peekAll(@NonNull Collection<? extends K> keys) {
+        Map<K, Entry<V>> entries = peekEntries(keys);
+        Map<K, V> result = new HashMap<>(entries.size() * 4 / 3 + 1);
+        for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getValue());
+        }
+        return result;
+    }
+
+    @NonNull
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<K, Entry<V>> peekEntries(@NonNull Collection<? extends K> keys) {
+        if (cache instanceof PeekableCache) {
+            return ((PeekableCache<K, Entry<V>>) cache).peekAll(keys);
+        }
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public void putAll(@NonNull Map<? extends K, ? extends V> values) {
+        long timestamp = currentTimeMillis();
+        Map<K, Entry<V>> entries = new HashMap<>(values.size() * 4 / 3 + 1);
+        for (Map.Entry<? extends K, ? extends V> entry : values.entrySet()) {
+            entries.put(entry.getKey(), new Entry<V>(entry.getValue(), timestamp));
+        }
+        cache.putAll(entries);
+    }
+
+    @Override
+    public void removeAll(@NonNull Collection<? extends K> keys) {
+        cache.removeAll(keys);
+    }
+
     @Override
     public int size() {
         return cache.size();
@@ -67,11 +153,29 @@ public class ControllableCache<K, V> implements Cache<K, V> {
         cache.clear();
     }
 
+    /**
+     * Returns a copy of entries ordered from least recently accessed to most recently accessed.
+     * Fails if the wrapped cache is not a {@link LruCache}.
+     */
+    @NonNull
+    public Map<K, Entry<V>> snapshot() {
+        if (cache instanceof LruCache) {
+            return ((LruCache<K, Entry<V>>) cache).snapshot();
+        }
+        throw new UnsupportedOperationException(cache + " does not support snapshots");
+    }
+
     @Override
     public Object getSyncLock() {
         return cache.getSyncLock();
     }
 
+    @NonNull
+    @Override
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
     @Override
     public boolean isQuick() {
         return cache.isQuick();
@@ -88,4 +192,32 @@ public class ControllableCache<K, V> implements Cache<K, V> {
                 "cache=" + cache +
                 '}';
     }
+
+    /**
+     * Controllable cache on top of a {@link TrimmableCache}, {@link TrimmableCache} methods are delegated to it
+     */
+    public static class Trimmable<K, V> extends ControllableCache<K, V> implements TrimmableCache {
+
+        private final TrimmableCache trimmableCache;
+
+        public <C extends Cache<K, Entry<V>> & TrimmableCache> Trimmable(C cache) {
+            super(cache);
+            this.trimmableCache = cache;
+        }
+
+        @Override
+        public int maxSize() {
+            return trimmableCache.maxSize();
+        }
+
+        @Override
+        public void resize(int maxSize) {
+            trimmableCache.resize(maxSize);
+        }
+
+        @Override
+        public void trimToSize(int maxSize) {
+            trimmableCache.trimToSize(maxSize);
+        }
+    }
 }
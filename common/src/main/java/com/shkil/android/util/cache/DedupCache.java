@@ -0,0 +1,452 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * LRU cache keeping one copy of equal values put by different keys, e.g. the same image downloaded
+ * by several URLs. Values are looked up by a hash of their content and compared in full without the lock,
+ * so equal values put later are replaced by the one already cached. A value is reference counted by
+ * its keys and released when its last key is evicted or removed.
+ * <p/>
+ * <p>The size of the cache is the sum of sizes of distinct values, e.g. bytes of arrays or bitmaps.
+ * Content is hashed on {@link #put}, which scans the whole value, lookups cost as much as in {@link LruCache}.
+ */
+public class DedupCache<K, V> extends AbstractCache<K, V> implements TrimmableCache {
+
+    /**
+     * Content of values compared by the cache
+     */
+    public interface Content<V> {
+        int hash(@NonNull V value);
+
+        /**
+         * Returns the size of the value, e.g. in bytes
+         */
+        int sizeOf(@NonNull V value);
+
+        boolean contentEquals(@NonNull V value1, @NonNull V value2);
+    }
+
+    public static final Content<byte[]> BYTE_ARRAY_CONTENT = new Content<byte[]>() {
+        @Override
+        public int hash(@NonNull byte[] value) {
+            return Arrays.hashCode(value);
+        }
+
+        @Override
+        public int sizeOf(@NonNull byte[] value) {
+            return value.length;
+        }
+
+        @Override
+        public boolean contentEquals(@NonNull byte[] value1, @NonNull byte[] value2) {
+            return Arrays.equals(value1, value2);
+        }
+    };
+
+    /**
+     * Compares dimensions, configs and pixels of bitmaps, pixels are read row by row.
+     * Sizes are allocation sizes, which may be larger than pixels of reused bitmaps.
+     */
+    public static final Content<Bitmap> BITMAP_CONTENT = new Content<Bitmap>() {
+        @Override
+        public int hash(@NonNull Bitmap value) {
+            int width = value.getWidth();
+            int height = value.getHeight();
+            int hash = 31 * width + height;
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                value.getPixels(row, 0, width, 0, y, width, 1);
+                for (int pixel : row) {
+                    hash = 31 * hash + pixel;
+                }
+            }
+            return hash;
+        }
+
+        @Override
+        public int sizeOf(@NonNull Bitmap value) {
+            return BitmapPool.getBitmapSize(value);
+        }
+
+        @Override
+        public boolean contentEquals(@NonNull Bitmap value1, @NonNull Bitmap value2) {
+            int width = value1.getWidth();
+            int height = value1.getHeight();
+            if (width != value2.getWidth() || height != value2.getHeight()
+                    || value1.getConfig() != value2.getConfig()) {
+                return false;
+            }
+            int[] row1 = new int[width];
+            int[] row2 = new int[width];
+            for (int y = 0; y < height; y++) {
+                value1.getPixels(row1, 0, width, 0, y, width, 1);
+                value2.getPixels(row2, 0, width, 0, y, width, 1);
+                if (!Arrays.equals(row1, row2)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    };
+
+    private final Content<V> content;
+
+    @GuardedBy("this")
+    private final LinkedHashMap<K, Blob<V>> map = new LinkedHashMap<>(0, 0.75f, true);
+    /**
+     * Distinct values by content hash, a bucket is replaced rather than modified, so it can be compared
+     * without the lock and then checked to be unchanged
+     */
+    @GuardedBy("this")
+    private final HashMap<Integer, Blob<V>[]> blobs = new HashMap<>();
+
+    /**
+     * Sum of sizes of distinct values
+     */
+    @GuardedBy("this")
+    private int size;
+    @GuardedBy("this")
+    private int maxSize;
+    @GuardedBy("this")
+    private int valueCount;
+    @GuardedBy("this")
+    private int sharedPutCount;
+
+    private volatile StatsCounter statsCounter = new ConcurrentStatsCounter();
+
+    /**
+     * Distinct value with its content hash and the number of keys mapping it
+     */
+    private static final class Blob<V> {
+        final V value;
+        final int hash;
+        final int size;
+        /**
+         * Released blobs are never referenced again
+         */
+        @GuardedBy("DedupCache.this")
+        int refCount;
+
+        Blob(V value, int hash, int size) {
+            this.value = value;
+            this.hash = hash;
+            this.size = size;
+        }
+    }
+
+    public static <K> DedupCache<K, byte[]> newByteArrayCache(int maxBytes) {
+        return new DedupCache<>(maxBytes, BYTE_ARRAY_CONTENT);
+    }
+
+    /**
+     * @param bitmapPool pool to put bitmaps to when their last key is evicted, or null.
+     *                   See {@link MemoryImageCache#setBitmapPool}
+     */
+    public static <K> DedupCache<K, Bitmap> newBitmapCache(int maxBytes, @Nullable final BitmapPool bitmapPool) {
+        return new DedupCache<K, Bitmap>(maxBytes, BITMAP_CONTENT) {
+            @Override
+            protected void valueRemoved(boolean evicted, Bitmap value) {
+                if (evicted && bitmapPool != null) {
+                    bitmapPool.put(value);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param maxSize maximum sum of sizes of distinct values
+     */
+    public DedupCache(int maxSize, @NonNull Content<V> content) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        this.content = content;
+    }
+
+    @Override
+    public V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Blob<V> blob;
+        synchronized (this) {
+            blob = map.get(key);
+        }
+        if (blob != null) {
+            statsCounter.recordHit();
+            return blob.value;
+        }
+        statsCounter.recordMiss();
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public Entry<V> getEntry(K key) {
+        return Entry.of(get(key), 0);
+    }
+
+    /**
+     * Caches the value, or the cached value with the same content
+     *
+     * @return the previous value mapped by {@code key}
+     */
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        Blob<V> newBlob = new Blob<>(value, content.hash(value), content.sizeOf(value)); // scans the value unlocked
+        statsCounter.recordPut();
+        Blob<V> previous;
+        boolean released;
+        Blob<V>[] candidates;
+        synchronized (this) {
+            candidates = blobs.get(newBlob.hash);
+        }
+        while (true) {
+            Blob<V> match = findEqual(candidates, value); // compares content unlocked
+            synchronized (this) {
+                Blob<V>[] bucket = blobs.get(newBlob.hash);
+                // The match must still be cached, no match is valid only if no value was added meanwhile
+                if (match != null ? match.refCount > 0 : bucket == candidates) {
+                    Blob<V> blob = match;
+                    if (blob == null) {
+                        blob = newBlob;
+                        blobs.put(blob.hash, append(bucket, blob));
+                        size += blob.size;
+                        valueCount++;
+                    } else {
+                        sharedPutCount++;
+                    }
+                    blob.refCount++;
+                    previous = map.put(key, blob);
+                    released = previous != null && release(previous);
+                    break;
+                }
+                candidates = bucket;
+            }
+        }
+        if (released) {
+            valueRemoved(false, previous.value);
+        }
+        trimToSize(maxSize);
+        return previous != null ? previous.value : null;
+    }
+
+    @Override
+    public V put(K key, @NonNull Entry<V> entry) {
+        return put(key, entry.getValue());
+    }
+
+    @Override
+    public V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Blob<V> previous;
+        boolean released;
+        synchronized (this) {
+            previous = map.remove(key);
+            released = previous != null && release(previous);
+        }
+        if (released) {
+            valueRemoved(false, previous.value);
+        }
+        return previous != null ? previous.value : null;
+    }
+
+    private Blob<V> findEqual(@Nullable Blob<V>[] candidates, V value) {
+        if (candidates != null) {
+            for (Blob<V> candidate : candidates) {
+                if (candidate.value == value || content.contentEquals(candidate.value, value)) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Blob<V>[] append(@Nullable Blob<V>[] bucket, Blob<V> blob) {
+        if (bucket == null) {
+            return new Blob[]{blob};
+        }
+        Blob<V>[] result = Arrays.copyOf(bucket, bucket.length + 1);
+        result[bucket.length] = blob;
+        return result;
+    }
+
+    /**
+     * Drops a reference to the blob
+     *
+     * @return true if it was the last reference
+     */
+    @GuardedBy("this")
+    private boolean release(Blob<V> blob) {
+        if (--blob.refCount > 0) {
+            return false;
+        }
+        Blob<V>[] bucket = blobs.get(blob.hash);
+        if (bucket.length == 1) {
+            blobs.remove(blob.hash);
+        } else {
+            Blob<V>[] result = Arrays.copyOf(bucket, bucket.length - 1);
+            for (int i = 0, j = 0; i < bucket.length; i++) {
+                if (bucket[i] != blob) {
+                    result[j++] = bucket[i];
+                }
+            }
+            blobs.put(blob.hash, result);
+        }
+        size -= blob.size;
+        valueCount--;
+        return true;
+    }
+
+    /**
+     * Called without synchronization when the last key of a value has been evicted or removed.
+     * The default implementation does nothing.
+     *
+     * @param evicted true if the value is released to make space
+     */
+    protected void valueRemoved(boolean evicted, V value) {
+    }
+
+    @Override
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        synchronized (this) {
+            this.maxSize = maxSize;
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Evicts the eldest keys until the sum of sizes of values they map is at or below {@code maxSize}.
+     * Evicting a key of a value shared with other keys frees nothing.
+     */
+    @Override
+    public void trimToSize(int maxSize) {
+        while (true) {
+            Blob<V> blob;
+            boolean released;
+            synchronized (this) {
+                if (size <= maxSize || map.isEmpty()) {
+                    break;
+                }
+                Map.Entry<K, Blob<V>> toEvict = map.entrySet().iterator().next();
+                blob = toEvict.getValue();
+                map.remove(toEvict.getKey());
+                released = release(blob);
+            }
+            statsCounter.recordEviction(released ? blob.size : 0);
+            if (released) {
+                valueRemoved(true, blob.value);
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of sizes of distinct values
+     */
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of keys
+     */
+    public synchronized int keyCount() {
+        return map.size();
+    }
+
+    /**
+     * Returns the number of distinct values
+     */
+    public synchronized int valueCount() {
+        return valueCount;
+    }
+
+    /**
+     * Returns the number of times {@link #put} found a cached value with the same content
+     */
+    public synchronized int sharedPutCount() {
+        return sharedPutCount;
+    }
+
+    @Override
+    public void clear() {
+        trimToSize(-1);
+    }
+
+    @Override
+    public Object getSyncLock() {
+        return this;
+    }
+
+    @Override
+    public boolean isQuick() {
+        return true;
+    }
+
+    @Override
+    public boolean isCacheControlSupported() {
+        return false;
+    }
+
+    @NonNull
+    @Override
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    /**
+     * Set a counter to record statistics to, {@link StatsCounter#DISABLED} removes statistics overhead
+     */
+    public DedupCache<K, V> setStatsCounter(@NonNull StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+        return this;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "DedupCache[maxSize=%d,size=%d,keys=%d,values=%d]",
+                maxSize, size, map.size(), valueCount);
+    }
+}
@@ -0,0 +1,649 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.shkil.android.util.io.Codec;
+import com.shkil.android.util.io.Codecs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import static com.shkil.android.util.io.IoUtils.closeQuietly;
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Persistent LRU cache keeping every value in a separate file of the cache directory.
+ * The index of entries with their timestamps is kept in memory and persisted to an append-only journal.
+ * <p/>
+ * <p>A value is written to a temporary file which is synced and renamed to a new unique name,
+ * and only then the entry is recorded to the journal, so a crashed write never corrupts existing entries.
+ * Files are read without holding the lock, so concurrent readers do not block each other.
+ * The journal is compacted when it contains too many redundant records,
+ * the compacted journal also persists LRU order of entries.
+ * <p/>
+ * <p>Intended to be used as a secondary cache of {@link com.shkil.android.util.concurrent.QueueFetcher},
+ * all methods perform I/O and must not be called on the main thread.
+ * {@link #put} and {@link #remove} do not read previous values and always return {@code null}.
+ */
+public class DiskCache<K, V> extends AbstractCache<K, V> {
+
+    private static final String TAG = "DiskCache";
+
+    static final String JOURNAL_FILE = "journal";
+    static final String JOURNAL_FILE_TEMP = "journal.tmp";
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x444b4331; // DKC1
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+
+    private static final int MAX_KEY_LENGTH = 64 * 1024;
+    private static final int MIN_COMPACTION_RECORDS = 1000;
+
+    private final File directory;
+    private final long maxBytes;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+
+    private final Object lock = new Object();
+
+    @GuardedBy("lock")
+    private final LinkedHashMap<K, FileEntry> index = new LinkedHashMap<>(0, 0.75f, true);
+
+    @GuardedBy("lock")
+    private boolean loaded;
+
+    @GuardedBy("lock")
+    private long bytes;
+
+    @GuardedBy("lock")
+    private long nextFileId;
+
+    @GuardedBy("lock")
+    private int redundantRecordCount;
+
+    @GuardedBy("lock")
+    private DataOutputStream journal;
+
+    /**
+     * Length of the journal file when it was opened, and up to the end of the last completely written record
+     */
+    @GuardedBy("lock")
+    private long journalOffset, journalLength;
+
+    private volatile StatsCounter statsCounter = new ConcurrentStatsCounter();
+
+    private static final class FileEntry {
+        final long fileId;
+        final long timestamp;
+        final long length;
+
+        FileEntry(long fileId, long timestamp, long length) {
+            this.fileId = fileId;
+            this.timestamp = timestamp;
+            this.length = length;
+        }
+    }
+
+    public static <V> DiskCache<String, V> open(File directory, long maxBytes, Codec<V> valueCodec) {
+        return new DiskCache<>(directory, maxBytes, Codecs.STRING, valueCodec);
+    }
+
+    /**
+     * @param maxBytes maximum total size of value files
+     */
+    public DiskCache(File directory, long maxBytes, Codec<K> keyCodec, Codec<V> valueCodec) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes <= 0");
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public V get(K key) {
+        Entry<V> entry = getEntry(key);
+        return entry != null ? entry.getValue() : null;
+    }
+
+    @Nullable
+    @Override
+    public Entry<V> getEntry(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        FileEntry fileEntry;
+        synchronized (lock) {
+            ensureLoaded();
+            fileEntry = index.get(key);
+        }
+        if (fileEntry == null) {
+            statsCounter.recordMiss();
+            return null;
+        }
+        try {
+            byte[] data = readFile(getFile(fileEntry.fileId), fileEntry.length);
+            Entry<V> entry = new Entry<>(valueCodec.decode(data, 0, data.length), fileEntry.timestamp);
+            statsCounter.recordHit();
+            return entry;
+        } catch (FileNotFoundException ex) {
+            // replaced or evicted concurrently
+        } catch (IOException ex) {
+            Log.w(TAG, "Error reading entry " + key, ex);
+        }
+        List<File> removedFiles = null;
+        synchronized (lock) {
+            if (index.get(key) == fileEntry) {
+                removedFiles = new ArrayList<>(1);
+                removeEntry(key, removedFiles);
+            }
+        }
+        deleteFiles(removedFiles);
+        statsCounter.recordMiss();
+        return null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return put(key, new Entry<>(value, currentTimeMillis()));
+    }
+
+    @Override
+    public V put(K key, @NonNull Entry<V> entry) {
+        if (key == null || entry.getValue() == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        statsCounter.recordPut();
+        long fileId;
+        synchronized (lock) {
+            ensureLoaded();
+            fileId = nextFileId++;
+        }
+        File tempFile = new File(directory, fileId + TEMP_FILE_SUFFIX);
+        File file = getFile(fileId);
+        long length;
+        try {
+            byte[] data = valueCodec.encode(entry.getValue());
+            length = data.length;
+            if (length > maxBytes) {
+                Log.w(TAG, "Value is too large to be cached: " + key);
+                remove(key);
+                return null;
+            }
+            writeFile(tempFile, data);
+        } catch (IOException ex) {
+            Log.w(TAG, "Error writing entry " + key, ex);
+            tempFile.delete();
+            return null;
+        }
+        List<File> removedFiles = new ArrayList<>(2);
+        synchronized (lock) {
+            if (!tempFile.renameTo(file)) {
+                Log.w(TAG, "Can't rename " + tempFile + " to " + file);
+                removedFiles.add(tempFile);
+            } else {
+                FileEntry fileEntry = new FileEntry(fileId, entry.getTimestamp(), length);
+                if (appendPut(key, fileEntry)) {
+                    FileEntry previous = index.put(key, fileEntry);
+                    bytes += length;
+                    if (previous != null) {
+                        bytes -= previous.length;
+                        removedFiles.add(getFile(previous.fileId));
+                    }
+                    trimToSize(maxBytes, removedFiles);
+                } else {
+                    removedFiles.add(file);
+                }
+            }
+        }
+        deleteFiles(removedFiles);
+        return null;
+    }
+
+    @Override
+    public V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        List<File> removedFiles = new ArrayList<>(1);
+        synchronized (lock) {
+            ensureLoaded();
+            removeEntry(key, removedFiles);
+        }
+        deleteFiles(removedFiles);
+        return null;
+    }
+
+    /**
+     * Returns the number of entries
+     */
+    @Override
+    public int size() {
+        synchronized (lock) {
+            ensureLoaded();
+            return index.size();
+        }
+    }
+
+    /**
+     * Returns the total size of value files
+     */
+    public long sizeBytes() {
+        synchronized (lock) {
+            ensureLoaded();
+            return bytes;
+        }
+    }
+
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public void clear() {
+        synchronized (lock) {
+            closeJournal();
+            index.clear();
+            bytes = 0;
+            redundantRecordCount = 0;
+            loaded = true;
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    public void close() {
+        synchronized (lock) {
+            closeJournal();
+            loaded = false;
+            index.clear();
+            bytes = 0;
+        }
+    }
+
+    @Override
+    public Object getSyncLock() {
+        return lock;
+    }
+
+    /**
+     * Returns a snapshot of statistics recorded by {@link ConcurrentStatsCounter} unless another counter is set,
+     * eviction weights are file lengths
+     */
+    @NonNull
+    @Override
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    /**
+     * Set a counter to record statistics to, {@link StatsCounter#DISABLED} removes statistics overhead
+     */
+    public DiskCache<K, V> setStatsCounter(@NonNull StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+        return this;
+    }
+
+    @Override
+    public boolean isQuick() {
+        return false;
+    }
+
+    @Override
+    public boolean isCacheControlSupported() {
+        return true;
+    }
+
+    @GuardedBy("lock")
+    private void removeEntry(K key, List<File> removedFiles) {
+        FileEntry fileEntry = index.remove(key);
+        if (fileEntry != null) {
+            bytes -= fileEntry.length;
+            removedFiles.add(getFile(fileEntry.fileId));
+            appendRemove(key);
+        }
+    }
+
+    @GuardedBy("lock")
+    private void trimToSize(long maxBytes, List<File> removedFiles) {
+        Iterator<Map.Entry<K, FileEntry>> iterator = index.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<K, FileEntry> eldest = iterator.next();
+            FileEntry fileEntry = eldest.getValue();
+            iterator.remove();
+            bytes -= fileEntry.length;
+            removedFiles.add(getFile(fileEntry.fileId));
+            appendRemove(eldest.getKey());
+            statsCounter.recordEviction((int) fileEntry.length);
+        }
+    }
+
+    @GuardedBy("lock")
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Can't create " + directory);
+        }
+        File journalFile = new File(directory, JOURNAL_FILE);
+        boolean compact = false;
+        int recordCount = 0;
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Wrong journal header");
+            }
+            while (true) {
+                int op = input.read();
+                if (op < 0) {
+                    break;
+                }
+                K key = readKey(input);
+                if (op == OP_PUT) {
+                    long fileId = input.readLong();
+                    long timestamp = input.readLong();
+                    long length = input.readLong();
+                    FileEntry previous = index.put(key, new FileEntry(fileId, timestamp, length));
+                    bytes += length;
+                    if (previous != null) {
+                        bytes -= previous.length;
+                    }
+                    nextFileId = Math.max(nextFileId, fileId + 1);
+                } else if (op == OP_REMOVE) {
+                    FileEntry previous = index.remove(key);
+                    if (previous != null) {
+                        bytes -= previous.length;
+                    }
+                } else {
+                    throw new IOException("Unknown operation: " + op);
+                }
+                recordCount++;
+            }
+        } catch (FileNotFoundException ex) {
+            compact = true;
+        } catch (EOFException ex) {
+            compact = true; // last record was not completely written
+        } catch (IOException ex) {
+            Log.w(TAG, "Error reading journal, entries after the error are dropped", ex);
+            compact = true;
+        } finally {
+            closeQuietly(input);
+        }
+        redundantRecordCount = recordCount - index.size();
+        deleteOrphanFiles();
+        List<File> removedFiles = new ArrayList<>();
+        trimToSize(maxBytes, removedFiles);
+        deleteFiles(removedFiles);
+        if (compact) {
+            compactJournal();
+        }
+    }
+
+    /**
+     * Deletes temporary files of crashed writes and files not referenced by the journal
+     */
+    @GuardedBy("lock")
+    private void deleteOrphanFiles() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Set<String> names = new HashSet<>(index.size() + 2);
+        names.add(JOURNAL_FILE);
+        for (FileEntry fileEntry : index.values()) {
+            names.add(String.valueOf(fileEntry.fileId));
+        }
+        for (File file : files) {
+            if (!names.contains(file.getName())) {
+                file.delete();
+            }
+        }
+    }
+
+    @GuardedBy("lock")
+    private boolean appendPut(K key, FileEntry fileEntry) {
+        try {
+            DataOutputStream journal = openJournal();
+            writeKey(journal, OP_PUT, key);
+            journal.writeLong(fileEntry.fileId);
+            journal.writeLong(fileEntry.timestamp);
+            journal.writeLong(fileEntry.length);
+            commitJournalRecord();
+            if (index.containsKey(key)) {
+                redundantRecordCount++;
+            }
+        } catch (IOException ex) {
+            Log.w(TAG, "Error writing journal", ex);
+            abortJournalRecord();
+            return false;
+        }
+        compactJournalIfNeeded();
+        return true;
+    }
+
+    @GuardedBy("lock")
+    private void appendRemove(K key) {
+        try {
+            DataOutputStream journal = openJournal();
+            writeKey(journal, OP_REMOVE, key);
+            commitJournalRecord();
+            redundantRecordCount += 2;
+        } catch (IOException ex) {
+            // the file is deleted anyway, the entry will be dropped on load
+            Log.w(TAG, "Error writing journal", ex);
+            abortJournalRecord();
+        }
+        compactJournalIfNeeded();
+    }
+
+    @GuardedBy("lock")
+    private void compactJournalIfNeeded() {
+        if (redundantRecordCount >= MIN_COMPACTION_RECORDS && redundantRecordCount >= index.size()) {
+            compactJournal();
+        }
+    }
+
+    /**
+     * Writes the journal with actual entries in LRU order and atomically replaces the current one
+     */
+    @GuardedBy("lock")
+    private void compactJournal() {
+        closeJournal();
+        File tempFile = new File(directory, JOURNAL_FILE_TEMP);
+        FileOutputStream fileOutput = null;
+        try {
+            fileOutput = new FileOutputStream(tempFile);
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+            output.writeInt(MAGIC);
+            for (Map.Entry<K, FileEntry> entry : index.entrySet()) {
+                FileEntry fileEntry = entry.getValue();
+                writeKey(output, OP_PUT, entry.getKey());
+                output.writeLong(fileEntry.fileId);
+                output.writeLong(fileEntry.timestamp);
+                output.writeLong(fileEntry.length);
+            }
+            output.flush();
+            fileOutput.getFD().sync();
+            output.close();
+            fileOutput = null;
+            if (!tempFile.renameTo(new File(directory, JOURNAL_FILE))) {
+                throw new IOException("Can't rename " + tempFile);
+            }
+            redundantRecordCount = 0;
+        } catch (IOException ex) {
+            Log.w(TAG, "Error compacting journal", ex);
+            closeQuietly(fileOutput);
+            tempFile.delete();
+        }
+    }
+
+    @GuardedBy("lock")
+    private DataOutputStream openJournal() throws IOException {
+        if (journal == null) {
+            File journalFile = new File(directory, JOURNAL_FILE);
+            long length = journalFile.length();
+            boolean exists = length > 0;
+            journalOffset = length;
+            journalLength = length;
+            journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, exists)));
+            if (!exists) {
+                journal.writeInt(MAGIC);
+            }
+        }
+        return journal;
+    }
+
+    @GuardedBy("lock")
+    private void commitJournalRecord() throws IOException {
+        journal.flush();
+        journalLength = journalOffset + journal.size();
+    }
+
+    /**
+     * Closes the journal and truncates a partially written record, so records appended later are readable.
+     * If the journal can't be truncated, it is rebuilt from the index.
+     */
+    @GuardedBy("lock")
+    private void abortJournalRecord() {
+        closeJournal();
+        boolean truncated = false;
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(new File(directory, JOURNAL_FILE), "rw");
+            file.setLength(journalLength);
+            truncated = true;
+        } catch (IOException ex) {
+            Log.w(TAG, "Error truncating journal", ex);
+        } finally {
+            closeQuietly(file);
+        }
+        if (!truncated) {
+            compactJournal();
+        }
+    }
+
+    @GuardedBy("lock")
+    private void closeJournal() {
+        closeQuietly(journal);
+        journal = null;
+    }
+
+    private void writeKey(DataOutputStream output, byte op, K key) throws IOException {
+        byte[] data = keyCodec.encode(key);
+        output.writeByte(op);
+        output.writeInt(data.length);
+        output.write(data);
+    }
+
+    private K readKey(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0 || length > MAX_KEY_LENGTH) {
+            throw new IOException("Wrong key length: " + length);
+        }
+        byte[] data = new byte[length];
+        input.readFully(data);
+        return keyCodec.decode(data, 0, length);
+    }
+
+    private File getFile(long fileId) {
+        return new File(directory, String.valueOf(fileId));
+    }
+
+    private static byte[] readFile(File file, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("File is too large: " + file);
+        }
+        byte[] data = new byte[(int) length];
+        FileInputStream input = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                int count = input.read(data, offset, data.length - offset);
+                if (count < 0) {
+                    throw new EOFException("Unexpected end of " + file);
+                }
+                offset += count;
+            }
+        } finally {
+            input.close();
+        }
+        return data;
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(data);
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+    }
+
+    private static void deleteFiles(@Nullable List<File> files) {
+        if (files != null) {
+            for (int i = 0, count = files.size(); i < count; i++) {
+                File file = files.get(i);
+                if (!file.delete() && file.exists()) {
+                    Log.w(TAG, "Can't delete " + file);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "DiskCache[directory=%s,maxBytes=%d]", directory, maxBytes);
+    }
+}
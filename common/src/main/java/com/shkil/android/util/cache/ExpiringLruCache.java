@@ -0,0 +1,521 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LRU cache with expire-after-write and expire-after-access. Write and access times are kept in the entry node,
+ * so the cache supports cache control without {@link ControllableCache} wrapping.
+ * <p/>
+ * <p>Expiration deadlines are tracked by a hierarchical {@link TimerWheel} which is advanced on every operation,
+ * so expired entries are released in amortized O(1) even if their keys are never read again.
+ * {@link #cleanUp} may be called to release them while the cache is idle.
+ */
+public class ExpiringLruCache<K, V> extends AbstractCache<K, V> implements TrimmableCache {
+
+    private static final class Node<K, V> extends TimerWheel.Timer {
+        final K key;
+        V value;
+        long writeTime;
+        long accessTime;
+        Node<K, V> previous;
+        Node<K, V> next;
+
+        Node(K key) {
+            this.key = key;
+        }
+    }
+
+    private final HashMap<K, Node<K, V>> map = new HashMap<>();
+    private final Node<K, V> head = new Node<>(null); // sentinel, head.next is the least recently used
+    private final TimerWheel<Node<K, V>> timerWheel;
+    private final List<Node<K, V>> expiredNodes = new ArrayList<>();
+    private final long expireAfterWriteMillis;
+    private final long expireAfterAccessMillis;
+
+    private int size;
+    private int maxSize;
+
+    private volatile StatsCounter statsCounter = new ConcurrentStatsCounter();
+
+    public static <K, V> ExpiringLruCache<K, V> newCache(int maxSize, long expireAfterWrite, TimeUnit unit) {
+        return new ExpiringLruCache<>(maxSize, expireAfterWrite, 0, unit);
+    }
+
+    /**
+     * @param expireAfterWrite  time after put to expire an entry, 0 to disable
+     * @param expireAfterAccess time after the last read or put to expire an entry, 0 to disable
+     */
+    public ExpiringLruCache(int maxSize, long expireAfterWrite, long expireAfterAccess, TimeUnit unit) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (expireAfterWrite < 0 || expireAfterAccess < 0) {
+            throw new IllegalArgumentException("expireAfterWrite < 0 || expireAfterAccess < 0");
+        }
+        this.maxSize = maxSize;
+        this.expireAfterWriteMillis = unit.toMillis(expireAfterWrite);
+        this.expireAfterAccessMillis = unit.toMillis(expireAfterAccess);
+        this.timerWheel = new TimerWheel<>(currentTimeMillis());
+        head.previous = head;
+        head.next = head;
+    }
+
+    @Override
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        V value = null;
+        List<Node<K, V>> expired;
+        synchronized (this) {
+            long now = currentTimeMillis();
+            Node<K, V> node = access(key, now);
+            if (node != null) {
+                value = node.value;
+            }
+            expired = advance(now);
+        }
+        recordRequest(value != null);
+        notifyExpired(expired);
+        return value;
+    }
+
+    /**
+     * Returns the value with its write time, expired values are not returned
+     */
+    @Nullable
+    @Override
+    public final Entry<V> getEntry(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Entry<V> entry = null;
+        List<Node<K, V>> expired;
+        synchronized (this) {
+            long now = currentTimeMillis();
+            Node<K, V> node = access(key, now);
+            if (node != null) {
+                entry = new Entry<>(node.value, node.writeTime);
+            }
+            expired = advance(now);
+        }
+        recordRequest(entry != null);
+        notifyExpired(expired);
+        return entry;
+    }
+
+    /**
+     * Returns the write time of the value of {@code key} unless it is expired, without counting a request
+     */
+    @Override
+    public synchronized final long getTimestamp(K key) {
+        Node<K, V> node = map.get(key);
+        return node != null && node.expirationTime > currentTimeMillis() ? node.writeTime : NO_TIMESTAMP;
+    }
+
+    /**
+     * Returns the node of {@code key} moved to the tail, or null if it is missing or has expired
+     */
+    private Node<K, V> access(K key, long now) {
+        Node<K, V> node = map.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (node.expirationTime <= now) {
+            expire(node);
+            return null;
+        }
+        moveToTail(node);
+        if (expireAfterAccessMillis > 0) {
+            node.accessTime = now;
+            schedule(node);
+        }
+        return node;
+    }
+
+    private void recordRequest(boolean hit) {
+        if (hit) {
+            statsCounter.recordHit();
+        } else {
+            statsCounter.recordMiss();
+        }
+    }
+
+    /**
+     * Caches {@code value} for {@code key} with the current write time.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    @Override
+    public final V put(K key, V value) {
+        return put(key, value, currentTimeMillis());
+    }
+
+    /**
+     * Caches the value with the write time of {@code entry}, so an entry that is already old expires earlier.
+     * An entry that has already expired is not stored, but still replaces the previous value.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    @Override
+    public final V put(K key, @NonNull Entry<V> entry) {
+        return put(key, entry.getValue(), entry.getTimestamp());
+    }
+
+    private V put(K key, V value, long writeTime) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        V previous = null;
+        List<Node<K, V>> expired;
+        statsCounter.recordPut();
+        synchronized (this) {
+            long now = currentTimeMillis();
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                previous = node.value;
+                size -= safeSizeOf(key, previous);
+            } else {
+                node = new Node<>(key);
+            }
+            node.value = value;
+            node.writeTime = writeTime;
+            node.accessTime = now;
+            if (computeExpirationTime(node) <= now) {
+                if (previous != null) {
+                    unlink(node);
+                }
+            } else {
+                if (previous == null) {
+                    map.put(key, node);
+                } else {
+                    node.previous.next = node.next;
+                    node.next.previous = node.previous;
+                }
+                linkLast(node);
+                size += safeSizeOf(key, value);
+                schedule(node);
+            }
+            expired = advance(now);
+        }
+        notifyExpired(expired);
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+        trimToSize(maxSize);
+        return previous;
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return the previous value mapped by {@code key}, even if it has expired.
+     */
+    @Override
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        V previous = null;
+        synchronized (this) {
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                previous = node.value;
+                unlink(node);
+                size -= safeSizeOf(key, previous);
+            }
+        }
+        if (previous != null) {
+            entryRemoved(false, key, previous, null);
+        }
+        return previous;
+    }
+
+    /**
+     * Removes expired entries
+     */
+    public final void cleanUp() {
+        List<Node<K, V>> expired;
+        synchronized (this) {
+            expired = advance(currentTimeMillis());
+        }
+        notifyExpired(expired);
+    }
+
+    @Override
+    public final void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        synchronized (this) {
+            this.maxSize = maxSize;
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * @param maxSize the maximum size of the cache before returning. May be -1
+     *                to evict even 0-sized elements.
+     */
+    @Override
+    public final void trimToSize(int maxSize) {
+        while (true) {
+            K key;
+            V value;
+            int weight;
+            synchronized (this) {
+                if (size < 0 || (map.isEmpty() && size != 0)) {
+                    throw new IllegalStateException(getClass().getName()
+                            + ".sizeOf() is reporting inconsistent results!");
+                }
+                if (size <= maxSize || map.isEmpty()) {
+                    break;
+                }
+                Node<K, V> toEvict = head.next;
+                key = toEvict.key;
+                value = toEvict.value;
+                unlink(toEvict);
+                weight = safeSizeOf(key, value);
+                size -= weight;
+            }
+            statsCounter.recordEviction(weight);
+            entryRemoved(true, key, value, null);
+        }
+    }
+
+    private long computeExpirationTime(Node<K, V> node) {
+        long expirationTime = Long.MAX_VALUE;
+        if (expireAfterWriteMillis > 0) {
+            expirationTime = node.writeTime + expireAfterWriteMillis;
+        }
+        if (expireAfterAccessMillis > 0) {
+            expirationTime = Math.min(expirationTime, node.accessTime + expireAfterAccessMillis);
+        }
+        return expirationTime;
+    }
+
+    private void schedule(Node<K, V> node) {
+        node.expirationTime = computeExpirationTime(node);
+        if (node.expirationTime != Long.MAX_VALUE) {
+            timerWheel.schedule(node);
+        }
+    }
+
+    private List<Node<K, V>> advance(long now) {
+        timerWheel.advance(now, expiredNodes);
+        if (expiredNodes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Node<K, V>> expired = new ArrayList<>(expiredNodes);
+        expiredNodes.clear();
+        for (Node<K, V> node : expired) {
+            removeExpired(node);
+        }
+        return expired;
+    }
+
+    private void expire(Node<K, V> node) {
+        timerWheel.cancel(node);
+        expiredNodes.add(node); // removed by the following advance()
+    }
+
+    private void removeExpired(Node<K, V> node) {
+        map.remove(node.key);
+        node.previous.next = node.next;
+        node.next.previous = node.previous;
+        size -= safeSizeOf(node.key, node.value);
+    }
+
+    private void notifyExpired(List<Node<K, V>> expired) {
+        for (int i = 0, count = expired.size(); i < count; i++) {
+            Node<K, V> node = expired.get(i);
+            statsCounter.recordEviction(safeSizeOf(node.key, node.value));
+            statsCounter.recordExpiration();
+            entryRemoved(true, node.key, node.value, null);
+        }
+    }
+
+    private void unlink(Node<K, V> node) {
+        map.remove(node.key);
+        node.previous.next = node.next;
+        node.next.previous = node.previous;
+        timerWheel.cancel(node);
+    }
+
+    private void linkLast(Node<K, V> node) {
+        node.previous = head.previous;
+        node.next = head;
+        head.previous.next = node;
+        head.previous = node;
+    }
+
+    private void moveToTail(Node<K, V> node) {
+        node.previous.next = node.next;
+        node.next.previous = node.previous;
+        linkLast(node);
+    }
+
+    /**
+     * Returns the current time in milliseconds, used for write and access times
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Called for entries that have been evicted, expired or removed.
+     *
+     * @see LruCache#entryRemoved
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * @see LruCache#sizeOf
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1); // -1 will evict 0-sized elements
+    }
+
+    @Override
+    public synchronized final int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized final int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned a value, truncated to int.
+     * Returns 0 if statistics are {@link StatsCounter#DISABLED}, see {@link #stats()}.
+     */
+    public final int hitCount() {
+        return (int) stats().hitCount();
+    }
+
+    public final int missCount() {
+        return (int) stats().missCount();
+    }
+
+    public final int putCount() {
+        return (int) stats().putCount();
+    }
+
+    /**
+     * Returns the number of values that have been evicted to make space, truncated to int.
+     * Returns 0 if statistics are {@link StatsCounter#DISABLED}.
+     */
+    public final int evictionCount() {
+        CacheStats stats = stats();
+        return (int) (stats.evictionCount() - stats.expirationCount());
+    }
+
+    /**
+     * Returns the number of values that have expired, truncated to int.
+     * Returns 0 if statistics are {@link StatsCounter#DISABLED}.
+     */
+    public final int expirationCount() {
+        return (int) stats().expirationCount();
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache, ordered from least
+     * recently accessed to most recently accessed. May contain expired values that are not released yet.
+     */
+    public synchronized final Map<K, V> snapshot() {
+        Map<K, V> snapshot = new LinkedHashMap<>();
+        for (Node<K, V> node = head.next; node != head; node = node.next) {
+            snapshot.put(node.key, node.value);
+        }
+        return snapshot;
+    }
+
+    @Override
+    public synchronized final String toString() {
+        CacheStats stats = stats();
+        long accesses = stats.requestCount();
+        int hitPercent = accesses != 0 ? (int) (100 * stats.hitCount() / accesses) : 0;
+        return String.format(Locale.US, "ExpiringLruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%,expired=%d]",
+                maxSize, stats.hitCount(), stats.missCount(), hitPercent, stats.expirationCount());
+    }
+
+    @Override
+    public Object getSyncLock() {
+        return this;
+    }
+
+    /**
+     * Returns a snapshot of statistics, expired entries are counted as evicted and expired. Counters are recorded
+     * outside of the cache lock by {@link ConcurrentStatsCounter} unless another counter is set.
+     */
+    @NonNull
+    @Override
+    public final CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    /**
+     * Set a counter to record statistics to, {@link StatsCounter#DISABLED} removes statistics overhead
+     */
+    public final ExpiringLruCache<K, V> setStatsCounter(@NonNull StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+        return this;
+    }
+
+    @Override
+    public boolean isQuick() {
+        return true;
+    }
+
+    @Override
+    public boolean isCacheControlSupported() {
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        evictAll();
+    }
+}
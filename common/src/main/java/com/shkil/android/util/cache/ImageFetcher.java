@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.annotation.TargetApi;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.shkil.android.util.ValueFetcher;
+import com.shkil.android.util.concurrent.QueueFetcher;
+import com.shkil.android.util.concurrent.ResultFuture;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Fetcher decoding images no larger than needed for their target dimensions. Bounds of an image are
+ * decoded first to choose the largest power of two {@link BitmapFactory.Options#inSampleSize} keeping
+ * the image at least as large as the target, JPEG images are decoded to {@link Bitmap.Config#RGB_565}
+ * since they have no alpha. Decoded bitmaps are cached by {@link ImageKey}s including target dimensions,
+ * and bitmaps of the {@link BitmapPool} of a {@link MemoryImageCache} are reused for decoding, so images
+ * are decoded mutable. Bitmaps scaled while decoding get the display density and draw like unscaled ones.
+ * <p/>
+ * <p>Images are decoded from files, or from data fetched by a data fetcher, e.g. reading a {@link DiskCache}.
+ */
+public class ImageFetcher extends QueueFetcher<ImageKey, Bitmap> {
+
+    private static final String MIME_TYPE_JPEG = "image/jpeg";
+
+    @Nullable
+    private final ValueFetcher<String, byte[]> dataFetcher;
+
+    private volatile boolean preferRgb565 = true;
+    private volatile boolean scaleToTargetSize;
+
+    /**
+     * @param dataFetcher fetcher of image data by sources of keys, or null to decode files by paths
+     */
+    public static ImageFetcher create(Executor executor, @NonNull MemoryImageCache<ImageKey> cache,
+                                      @Nullable ValueFetcher<String, byte[]> dataFetcher) {
+        ImageFetcher fetcher = new ImageFetcher(executor, dataFetcher);
+        fetcher.setCache(cache);
+        return fetcher;
+    }
+
+    public ImageFetcher(Executor executor, @Nullable ValueFetcher<String, byte[]> dataFetcher) {
+        super(executor, false);
+        this.dataFetcher = dataFetcher;
+    }
+
+    public ResultFuture<Bitmap> fetch(String source, int targetWidth, int targetHeight) {
+        return fetch(ImageKey.create(source, targetWidth, targetHeight));
+    }
+
+    /**
+     * Set whether images without alpha are decoded to {@link Bitmap.Config#RGB_565}, true by default
+     */
+    public ImageFetcher setPreferRgb565(boolean preferRgb565) {
+        this.preferRgb565 = preferRgb565;
+        return this;
+    }
+
+    /**
+     * Set whether sampled images larger than the target are scaled down to its dimensions while decoding,
+     * false by default. Scaling costs more than sampling but saves memory of cached bitmaps
+     */
+    public ImageFetcher setScaleToTargetSize(boolean scaleToTargetSize) {
+        this.scaleToTargetSize = scaleToTargetSize;
+        return this;
+    }
+
+    @Override
+    protected Bitmap fetchValue(ImageKey key) throws Exception {
+        String source = key.source();
+        byte[] data = null;
+        if (dataFetcher != null) {
+            data = dataFetcher.fetchValue(source);
+            if (data == null) {
+                return null;
+            }
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(source, data, options, null, 0, 0);
+        int width = options.outWidth;
+        int height = options.outHeight;
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Can't decode bounds of " + source);
+        }
+        options.inJustDecodeBounds = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            setMutable(options);
+        }
+        options.inSampleSize = calculateInSampleSize(width, height, key.targetWidth(), key.targetHeight());
+        if (preferRgb565 && MIME_TYPE_JPEG.equals(options.outMimeType)) {
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+        }
+        if (scaleToTargetSize) {
+            setTargetDensity(options, key.targetWidth(), key.targetHeight());
+        }
+        Bitmap bitmap = decode(source, data, options, getBitmapPool(), width, height);
+        if (bitmap == null) {
+            throw new IOException("Can't decode " + source);
+        }
+        if (options.inScaled && options.inDensity > 0) {
+            // the decoder stamps the pseudo density used for scaling
+            bitmap.setDensity(Resources.getSystem().getDisplayMetrics().densityDpi);
+        }
+        return bitmap;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void setMutable(BitmapFactory.Options options) {
+        options.inMutable = true;
+    }
+
+    @Nullable
+    private BitmapPool getBitmapPool() {
+        Cache<ImageKey, Bitmap> cache = getCache();
+        return cache instanceof MemoryImageCache ? ((MemoryImageCache<?>) cache).getBitmapPool() : null;
+    }
+
+    private static Bitmap decode(String source, @Nullable byte[] data, BitmapFactory.Options options,
+                                 @Nullable BitmapPool bitmapPool, int width, int height) {
+        if (data != null) {
+            return bitmapPool != null
+                    ? bitmapPool.decodeByteArray(data, 0, data.length, options, width, height)
+                    : BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        return bitmapPool != null
+                ? bitmapPool.decodeFile(source, options, width, height)
+                : BitmapFactory.decodeFile(source, options);
+    }
+
+    /**
+     * Returns the largest power of two sample size keeping the image at least as large as the target
+     *
+     * @param targetWidth  target width, 0 if it is not limited
+     * @param targetHeight target height, 0 if it is not limited
+     */
+    public static int calculateInSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        if (targetWidth <= 0 && targetHeight <= 0) {
+            return 1;
+        }
+        int sampleSize = 1;
+        while (true) {
+            int sampledWidth = width / (sampleSize * 2);
+            int sampledHeight = height / (sampleSize * 2);
+            if (sampledWidth == 0 || sampledHeight == 0
+                    || sampledWidth < targetWidth || sampledHeight < targetHeight) {
+                return sampleSize;
+            }
+            sampleSize *= 2;
+        }
+    }
+
+    /**
+     * Makes the decoder scale the sampled image down to the smallest size still covering the target,
+     * keeping its aspect ratio
+     */
+    private static void setTargetDensity(BitmapFactory.Options options, int targetWidth, int targetHeight) {
+        int sampleSize = options.inSampleSize;
+        int sampledWidth = (options.outWidth + sampleSize - 1) / sampleSize;
+        int sampledHeight = (options.outHeight + sampleSize - 1) / sampleSize;
+        double scale = 0;
+        if (targetWidth > 0) {
+            scale = (double) targetWidth / sampledWidth;
+        }
+        if (targetHeight > 0) {
+            scale = Math.max(scale, (double) targetHeight / sampledHeight);
+        }
+        if (scale > 0 && scale < 1) {
+            options.inScaled = true;
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = (int) Math.ceil(sampledWidth * scale);
+        }
+    }
+}
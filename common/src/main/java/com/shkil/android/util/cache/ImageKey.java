@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * Key of an image decoded by {@link ImageFetcher}, the same image decoded for different target
+ * dimensions is cached separately
+ */
+@AutoValue
+public abstract class ImageKey {
+
+    /**
+     * Returns the file path or the key of image data
+     */
+    public abstract String source();
+
+    /**
+     * Returns the width the image is decoded for, 0 if it is not limited
+     */
+    public abstract int targetWidth();
+
+    /**
+     * Returns the height the image is decoded for, 0 if it is not limited
+     */
+    public abstract int targetHeight();
+
+    public static ImageKey create(String source, int targetWidth, int targetHeight) {
+        if (targetWidth < 0 || targetHeight < 0) {
+            throw new IllegalArgumentException("targetWidth < 0 || targetHeight < 0");
+        }
+        return new AutoValue_ImageKey(source, targetWidth, targetHeight);
+    }
+
+    public static ImageKey create(String source) {
+        return create(source, 0, 0);
+    }
+}
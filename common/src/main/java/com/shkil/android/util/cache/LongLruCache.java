@@ -0,0 +1,551 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.support.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * {@link LruCache} for primitive {@code long} keys, e.g. database row ids. Entries are kept in an
+ * open-addressing table of parallel arrays, and the LRU list is linked through positions of the table,
+ * so no key is boxed and no object is allocated per entry. {@link #get} of a cached key does not allocate.
+ * <p/>
+ * <p>A table position costs 20 bytes and the table is at most 3/4 full, while {@code LruCache<Long, V>}
+ * costs a boxed key, a map entry and a bucket reference per entry. Use {@link #asCache} where a
+ * {@link Cache} is expected, keys are unboxed there.
+ */
+public class LongLruCache<V> implements TrimmableCache {
+
+    private static final int NONE = -1;
+    private static final int MIN_CAPACITY = 16;
+
+    // open-addressing table, null values mark free positions
+    private long[] keys;
+    private Object[] values;
+    // LRU list of positions
+    private int[] prev;
+    private int[] next;
+    private int head = NONE; // least recently used
+    private int tail = NONE;
+    private int count;
+
+    /**
+     * Size of this cache in units. Not necessarily the number of elements.
+     */
+    private int size;
+    private int maxSize;
+
+    private volatile StatsCounter statsCounter = new ConcurrentStatsCounter();
+    private Cache<Long, V> cache;
+
+    public static <V> LongLruCache<V> newCache(int maxSize) {
+        return new LongLruCache<>(maxSize);
+    }
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *                the maximum number of entries in the cache. For all other caches,
+     *                this is the maximum sum of the sizes of the entries in this cache.
+     */
+    public LongLruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache or can be
+     * created by {@code #create}. If a value was returned, it is moved to the
+     * head of the queue. This returns null if a value is not cached and cannot
+     * be created.
+     */
+    @SuppressWarnings("unchecked")
+    public final V get(long key) {
+        V value = null;
+        synchronized (this) {
+            int position = indexOf(key);
+            if (position != NONE) {
+                value = (V) values[position];
+                moveToTail(position);
+            }
+        }
+        StatsCounter statsCounter = this.statsCounter;
+        if (value != null) {
+            statsCounter.recordHit();
+            return value;
+        }
+        statsCounter.recordMiss();
+
+        long startTime = statsCounter != StatsCounter.DISABLED ? System.nanoTime() : 0;
+        V createdValue = create(key);
+        if (createdValue == null) {
+            return null;
+        }
+        if (statsCounter != StatsCounter.DISABLED) {
+            statsCounter.recordLoadSuccess(System.nanoTime() - startTime);
+        }
+
+        synchronized (this) {
+            int position = indexOf(key);
+            if (position != NONE) {
+                // There was a conflict, keep the cached value
+                value = (V) values[position];
+            } else {
+                insert(key, createdValue);
+                size += safeSizeOf(key, createdValue);
+            }
+        }
+
+        if (value != null) {
+            entryRemoved(false, key, createdValue, value);
+            return value;
+        }
+        trimToSize(maxSize);
+        return createdValue;
+    }
+
+    /**
+     * Caches {@code value} for {@code key}. The value is moved to the head of
+     * the queue.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    @SuppressWarnings("unchecked")
+    public final V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+
+        statsCounter.recordPut();
+        V previous = null;
+        synchronized (this) {
+            size += safeSizeOf(key, value);
+            int position = indexOf(key);
+            if (position != NONE) {
+                previous = (V) values[position];
+                values[position] = value;
+                moveToTail(position);
+                size -= safeSizeOf(key, previous);
+            } else {
+                insert(key, value);
+            }
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+
+        trimToSize(maxSize);
+        return previous;
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    @SuppressWarnings("unchecked")
+    public final V remove(long key) {
+        V previous = null;
+        synchronized (this) {
+            int position = indexOf(key);
+            if (position != NONE) {
+                previous = (V) values[position];
+                removeAt(position);
+                size -= safeSizeOf(key, previous);
+            }
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, null);
+        }
+
+        return previous;
+    }
+
+    public synchronized final boolean containsKey(long key) {
+        return indexOf(key) != NONE;
+    }
+
+    /**
+     * Sets the size of the cache.
+     *
+     * @param maxSize The new maximum size.
+     */
+    @Override
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+
+        synchronized (this) {
+            this.maxSize = maxSize;
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Remove the eldest entries until the total of remaining entries is at or
+     * below the requested size.
+     *
+     * @param maxSize the maximum size of the cache before returning. May be -1
+     *                to evict even 0-sized elements.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public final void trimToSize(int maxSize) {
+        while (true) {
+            long key;
+            V value;
+            int weight;
+            synchronized (this) {
+                if (size < 0 || (count == 0 && size != 0)) {
+                    throw new IllegalStateException(getClass().getName()
+                            + ".sizeOf() is reporting inconsistent results!");
+                }
+
+                if (size <= maxSize || count == 0) {
+                    break;
+                }
+
+                int position = head;
+                key = keys[position];
+                value = (V) values[position];
+                removeAt(position);
+                weight = safeSizeOf(key, value);
+                size -= weight;
+            }
+
+            statsCounter.recordEviction(weight);
+            entryRemoved(true, key, value, null);
+        }
+    }
+
+    /**
+     * Called for entries that have been evicted or removed, without synchronization.
+     *
+     * @see LruCache#entryRemoved
+     */
+    protected void entryRemoved(boolean evicted, long key, V oldValue, V newValue) {
+    }
+
+    /**
+     * Called after a cache miss to compute a value for the corresponding key, without synchronization.
+     * The default implementation returns null.
+     *
+     * @see LruCache#create
+     */
+    protected V create(long key) {
+        return null;
+    }
+
+    private int safeSizeOf(long key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the size of the entry for {@code key} and {@code value} in
+     * user-defined units.  The default implementation returns 1 so that size
+     * is the number of entries and max size is the maximum number of entries.
+     * <p/>
+     * <p>An entry's size must not change while it is in the cache.
+     */
+    protected int sizeOf(long key, V value) {
+        return 1;
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1); // -1 will evict 0-sized elements
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the number
+     * of entries in the cache. For all other caches, this returns the sum of
+     * the sizes of the entries in this cache.
+     */
+    public synchronized final int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized final int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of entries
+     */
+    public synchronized final int count() {
+        return count;
+    }
+
+    /**
+     * Returns cached keys ordered from least recently accessed to most recently accessed.
+     */
+    public synchronized final long[] keys() {
+        long[] result = new long[count];
+        int i = 0;
+        for (int position = head; position != NONE; position = next[position]) {
+            result[i++] = keys[position];
+        }
+        return result;
+    }
+
+    @NonNull
+    public final CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    /**
+     * Set a counter to record statistics to, {@link StatsCounter#DISABLED} removes statistics overhead
+     */
+    public final LongLruCache<V> setStatsCounter(@NonNull StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+        return this;
+    }
+
+    /**
+     * Returns a view of this cache with boxed keys
+     */
+    @NonNull
+    public synchronized final Cache<Long, V> asCache() {
+        if (cache == null) {
+            cache = new BoxedKeysCache();
+        }
+        return cache;
+    }
+
+    @Override
+    public synchronized final String toString() {
+        CacheStats stats = stats();
+        long accesses = stats.requestCount();
+        int hitPercent = accesses != 0 ? (int) (100 * stats.hitCount() / accesses) : 0;
+        return String.format(Locale.US, "LongLruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]", maxSize, stats.hitCount(), stats.missCount(), hitPercent);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+        head = NONE;
+        tail = NONE;
+        count = 0;
+    }
+
+    private int indexOf(long key) {
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        int mask = keys.length - 1;
+        int i = spread(key) & mask;
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return NONE;
+    }
+
+    private void insert(long key, Object value) {
+        if ((count + 1) * 4 > keys.length * 3) {
+            grow();
+        }
+        int mask = keys.length - 1;
+        int i = spread(key) & mask;
+        while (values[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        linkLast(i);
+        count++;
+    }
+
+    /**
+     * Doubles the table, reinserting entries in the LRU order
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldNext = next;
+        int position = head;
+        allocate(oldKeys.length * 2);
+        for (; position != NONE; position = oldNext[position]) {
+            insert(oldKeys[position], oldValues[position]);
+        }
+    }
+
+    /**
+     * Removes the entry with backward shift of following entries of the probe sequence
+     */
+    private void removeAt(int i) {
+        unlink(i);
+        values[i] = null;
+        count--;
+        int mask = keys.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (values[j] == null) {
+                return;
+            }
+            int home = spread(keys[j]) & mask;
+            if (j > i ? (home <= i || home > j) : (home <= i && home > j)) {
+                move(j, i);
+                i = j;
+            }
+        }
+    }
+
+    /**
+     * Moves the entry to a free position keeping its place in the LRU list
+     */
+    private void move(int from, int to) {
+        keys[to] = keys[from];
+        values[to] = values[from];
+        values[from] = null;
+        int p = prev[from];
+        int n = next[from];
+        prev[to] = p;
+        next[to] = n;
+        if (p != NONE) {
+            next[p] = to;
+        } else {
+            head = to;
+        }
+        if (n != NONE) {
+            prev[n] = to;
+        } else {
+            tail = to;
+        }
+    }
+
+    private void moveToTail(int position) {
+        if (tail != position) {
+            unlink(position);
+            linkLast(position);
+        }
+    }
+
+    private void linkLast(int position) {
+        prev[position] = tail;
+        next[position] = NONE;
+        if (tail != NONE) {
+            next[tail] = position;
+        } else {
+            head = position;
+        }
+        tail = position;
+    }
+
+    private void unlink(int position) {
+        int p = prev[position];
+        int n = next[position];
+        if (p != NONE) {
+            next[p] = n;
+        } else {
+            head = n;
+        }
+        if (n != NONE) {
+            prev[n] = p;
+        } else {
+            tail = p;
+        }
+    }
+
+    private static int spread(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private class BoxedKeysCache extends AbstractCache<Long, V> {
+
+        @Override
+        public V get(Long key) {
+            return LongLruCache.this.get(key);
+        }
+
+        @Override
+        public Entry<V> getEntry(Long key) {
+            return Entry.of(LongLruCache.this.get(key), 0);
+        }
+
+        /**
+         * Returns 0 for cached keys, values of this cache have no timestamps
+         */
+        @Override
+        public long getTimestamp(Long key) {
+            return containsKey(key) ? 0 : NO_TIMESTAMP;
+        }
+
+        @Override
+        public boolean isCacheControlSupported() {
+            return false;
+        }
+
+        @Override
+        public V put(Long key, V value) {
+            return LongLruCache.this.put(key, value);
+        }
+
+        @Override
+        public V put(Long key, @NonNull Entry<V> entry) {
+            return LongLruCache.this.put(key, entry.getValue());
+        }
+
+        @Override
+        public V remove(Long key) {
+            return LongLruCache.this.remove(key);
+        }
+
+        @Override
+        public int size() {
+            return LongLruCache.this.size();
+        }
+
+        @Override
+        public void clear() {
+            evictAll();
+        }
+
+        @Override
+        public Object getSyncLock() {
+            return LongLruCache.this;
+        }
+
+        @Override
+        public boolean isQuick() {
+            return true;
+        }
+
+        @NonNull
+        @Override
+        public CacheStats stats() {
+            return LongLruCache.this.stats();
+        }
+    }
+}
@@ -18,10 +18,25 @@
 package com.shkil.android.util.cache;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
+import com.shkil.android.util.ValueFetcher;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * Static library version of {@link android.util.LruCache}. Used to write apps
@@ -30,7 +45,7 @@ import java.util.Map;
  * framework's implementation. See the framework SDK documentation for a class
  * overview.
  */
-public class LruCache<K, V> implements Cache<K, V> {
+public class LruCache<K, V> extends AbstractCache<K, V> implements TrimmableCache, PeekableCache<K, V> {
 
     private final LinkedHashMap<K, V> map;
 
@@ -40,18 +55,99 @@ public class LruCache<K, V> implements Cache<K, V> {
     private int size;
     private int maxSize;
 
-    private int putCount;
-    private int createCount;
-    private int evictionCount;
-    private int hitCount;
-    private int missCount;
+    /**
+     * Loads in progress by key, created on first use.
+     */
+    private HashMap<K, Load<V>> loads;
+    private volatile boolean singleFlightLoading;
+
+    /**
+     * Weakly referenced evicted values, null unless enabled by {@link #setWeakEvictedValues}
+     */
+    private HashMap<K, WeakValue<K, V>> evictedValues;
+    private ReferenceQueue<V> evictedValuesQueue;
+
+    private volatile StatsCounter statsCounter = new ConcurrentStatsCounter();
+    private volatile AccessObserver<? super K> accessObserver;
+
+    /**
+     * Observes keys requested from the cache, e.g. by {@link CacheSizeTuner}
+     */
+    public interface AccessObserver<K> {
+        /**
+         * Called without synchronization for every requested key
+         */
+        void onAccess(K key);
+    }
 
     public static <K, V> LruCache<K, V> newCache(int maxSize) {
         return new LruCache<>(maxSize);
     }
 
     public static <K, V> Cache<K, V> newControllableCache(int maxSize) {
-        return new ControllableCache<>(new LruCache<K, Entry<V>>(maxSize));
+        return new ControllableCache.Trimmable<>(new LruCache<K, Entry<V>>(maxSize));
+    }
+
+    /**
+     * Returns a cache limited by the sum of entry sizes calculated by {@code weigher},
+     * e.g. in bytes by {@link ObjectGraphWeigher}
+     */
+    public static <K, V> LruCache<K, V> newWeighedCache(int maxSize, Weigher<? super K, ? super V> weigher) {
+        return new WeighedCache<>(maxSize, weigher);
+    }
+
+    /**
+     * Keeps the weight of each cached entry, so entries are weighed once when they are put rather than again
+     * when they are removed, replaced or evicted under the cache lock
+     */
+    private static class WeighedCache<K, V> extends LruCache<K, V> {
+        private final Weigher<? super K, ? super V> weigher;
+
+        /**
+         * Weights by cached values, a value cached for several keys keeps the weight of one of them
+         */
+        @GuardedBy("weights")
+        private final IdentityHashMap<V, Weight<K>> weights = new IdentityHashMap<>();
+
+        WeighedCache(int maxSize, Weigher<? super K, ? super V> weigher) {
+            super(maxSize);
+            this.weigher = weigher;
+        }
+
+        @Override
+        protected int sizeOf(K key, V value) {
+            synchronized (weights) {
+                Weight<K> weight = weights.get(value);
+                if (weight != null && weight.key.equals(key)) {
+                    return weight.weight;
+                }
+            }
+            int weight = weigher.weigh(key, value);
+            synchronized (weights) {
+                weights.put(value, new Weight<>(key, weight));
+            }
+            return weight;
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+            synchronized (weights) {
+                Weight<K> weight = weights.get(oldValue);
+                if (weight != null && weight.key.equals(key)) {
+                    weights.remove(oldValue);
+                }
+            }
+        }
+    }
+
+    private static class Weight<K> {
+        final K key;
+        final int weight;
+
+        Weight(K key, int weight) {
+            this.key = key;
+            this.weight = weight;
+        }
     }
 
     /**
@@ -80,13 +176,50 @@ public class LruCache<K, V> implements Cache<K, V> {
         }
 
         V mapValue;
+        boolean resurrected = false;
         synchronized (this) {
             mapValue = map.get(key);
-            if (mapValue != null) {
-                hitCount++;
-                return mapValue;
+            if (mapValue == null && evictedValues != null) {
+                mapValue = resurrect(key);
+                resurrected = mapValue != null;
+            }
+        }
+        AccessObserver<? super K> accessObserver = this.accessObserver;
+        if (accessObserver != null) {
+            accessObserver.onAccess(key);
+        }
+        StatsCounter statsCounter = this.statsCounter;
+        if (mapValue != null) {
+            statsCounter.recordHit();
+            if (resurrected) {
+                statsCounter.recordResurrection();
+                trimToSize(maxSize);
+            }
+            return mapValue;
+        }
+        statsCounter.recordMiss();
+        return createValue(key, statsCounter);
+    }
+
+    private V createValue(final K key, StatsCounter statsCounter) {
+        if (singleFlightLoading) {
+            try {
+                return loadOnce(key, new Callable<V>() {
+                    @Override
+                    public V call() {
+                        return create(key);
+                    }
+                });
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
             }
-            missCount++;
         }
 
         /*
@@ -96,13 +229,17 @@ public class LruCache<K, V> implements Cache<K, V> {
          * the map and release the created value.
          */
 
+        long startTime = statsCounter != StatsCounter.DISABLED ? System.nanoTime() : 0;
         V createdValue = create(key);
         if (createdValue == null) {
             return null;
         }
+        if (statsCounter != StatsCounter.DISABLED) {
+            statsCounter.recordLoadSuccess(System.nanoTime() - startTime);
+        }
 
+        V mapValue;
         synchronized (this) {
-            createCount++;
             mapValue = map.put(key, createdValue);
 
             if (mapValue != null) {
@@ -110,6 +247,9 @@ public class LruCache<K, V> implements Cache<K, V> {
                 map.put(key, mapValue);
             } else {
                 size += safeSizeOf(key, createdValue);
+                if (evictedValues != null) {
+                    evictedValues.remove(key);
+                }
             }
         }
 
@@ -122,11 +262,266 @@ public class LruCache<K, V> implements Cache<K, V> {
         }
     }
 
+    /**
+     * Returns the value for {@code key} if it exists in the cache, otherwise loads it by {@code loader}
+     * and caches the result. Concurrent callers missing the same key wait for a single load instead of
+     * starting their own, loads of other keys are not blocked. If the load fails, nothing is cached
+     * and every waiting caller gets the failure. A load of the same key by {@code loader} itself fails
+     * with {@link IllegalStateException} instead of waiting for its own result.
+     *
+     * @return the cached or loaded value, or null if {@code loader} returned null
+     * @throws ExecutionException   if {@code loader} threw an exception, it is the cause
+     * @throws InterruptedException if the thread was interrupted while waiting for another thread's load
+     */
+    public final V computeIfAbsent(final K key, @NonNull final ValueFetcher<? super K, ? extends V> loader)
+            throws InterruptedException, ExecutionException {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        V mapValue;
+        boolean resurrected = false;
+        synchronized (this) {
+            mapValue = map.get(key);
+            if (mapValue == null && evictedValues != null) {
+                mapValue = resurrect(key);
+                resurrected = mapValue != null;
+            }
+        }
+        AccessObserver<? super K> accessObserver = this.accessObserver;
+        if (accessObserver != null) {
+            accessObserver.onAccess(key);
+        }
+        if (mapValue != null) {
+            statsCounter.recordHit();
+            if (resurrected) {
+                statsCounter.recordResurrection();
+                trimToSize(maxSize);
+            }
+            return mapValue;
+        }
+        statsCounter.recordMiss();
+        return loadOnce(key, new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                return loader.fetchValue(key);
+            }
+        });
+    }
+
+    private V loadOnce(K key, Callable<V> loader) throws InterruptedException, ExecutionException {
+        Load<V> load;
+        boolean loading = false;
+        synchronized (this) {
+            V mapValue = map.get(key);
+            if (mapValue != null) {
+                return mapValue; // loaded while this thread was recording the miss
+            }
+            if (loads == null) {
+                loads = new HashMap<>();
+            }
+            load = loads.get(key);
+            if (load == null) {
+                load = new Load<>(loader);
+                loads.put(key, load);
+                loading = true;
+            } else if (load.owner == Thread.currentThread()) {
+                // Waiting for the load this thread is running would never return
+                throw new IllegalStateException("recursive load of " + key);
+            }
+        }
+        if (!loading) {
+            // Another thread is loading the key, wait for its result outside of the lock
+            return load.get();
+        }
+
+        StatsCounter statsCounter = this.statsCounter;
+        long startTime = statsCounter != StatsCounter.DISABLED ? System.nanoTime() : 0;
+        load.run();
+        V loadedValue;
+        try {
+            loadedValue = load.get();
+        } catch (ExecutionException ex) {
+            synchronized (this) {
+                loads.remove(key);
+            }
+            if (statsCounter != StatsCounter.DISABLED) {
+                statsCounter.recordLoadFailure(System.nanoTime() - startTime);
+            }
+            throw ex;
+        }
+        if (loadedValue == null) {
+            synchronized (this) {
+                loads.remove(key);
+            }
+            return null;
+        }
+        if (statsCounter != StatsCounter.DISABLED) {
+            statsCounter.recordLoadSuccess(System.nanoTime() - startTime);
+        }
+
+        // The load is published and removed under one lock, so a caller sees either of them
+        V mapValue;
+        synchronized (this) {
+            loads.remove(key);
+            mapValue = map.get(key);
+            if (mapValue == null) {
+                map.put(key, loadedValue);
+                size += safeSizeOf(key, loadedValue);
+                if (evictedValues != null) {
+                    evictedValues.remove(key);
+                }
+            }
+        }
+
+        if (mapValue != null) {
+            // A value was put while loading, keep it as create() does
+            entryRemoved(false, key, loadedValue, mapValue);
+            return mapValue;
+        } else {
+            trimToSize(maxSize);
+            return loadedValue;
+        }
+    }
+
+    /**
+     * Makes misses of {@link #get} and {@link #getAll} share a single {@link #create} call per key
+     * between concurrent callers, like {@link #computeIfAbsent} does. A caller interrupted while waiting
+     * for another thread's {@link #create} gets null with its interrupt status set.
+     */
+    public final LruCache<K, V> setSingleFlightLoading(boolean singleFlightLoading) {
+        this.singleFlightLoading = singleFlightLoading;
+        return this;
+    }
+
     @Override
-    public Entry getEntry(K key) {
+    public Entry<V> getEntry(K key) {
         return Entry.of(get(key), 0);
     }
 
+    /**
+     * Returns 0 for cached keys, values of this cache have no timestamps
+     */
+    @Override
+    public synchronized final long getTimestamp(K key) {
+        return map.containsKey(key) ? 0 : NO_TIMESTAMP;
+    }
+
+    /**
+     * Returns values of cached keys looked up under one lock, missing values are created by {@link #create}
+     * one by one.
+     */
+    @NonNull
+    @Override
+    public final Map<K, V> getAll(@NonNull Collection<? extends K> keys) {
+        Map<K, V> result = new HashMap<>(keys.size() * 4 / 3 + 1);
+        List<K> missedKeys = null;
+        int resurrectedCount = 0;
+        synchronized (this) {
+            for (K key : keys) {
+                if (key == null) {
+                    throw new NullPointerException("key == null");
+                }
+                V value = map.get(key);
+                if (value == null && evictedValues != null) {
+                    value = resurrect(key);
+                    if (value != null) {
+                        resurrectedCount++;
+                    }
+                }
+                if (value != null) {
+                    result.put(key, value);
+                } else {
+                    if (missedKeys == null) {
+                        missedKeys = new ArrayList<>();
+                    }
+                    missedKeys.add(key);
+                }
+            }
+        }
+        AccessObserver<? super K> accessObserver = this.accessObserver;
+        if (accessObserver != null) {
+            for (K key : keys) {
+                accessObserver.onAccess(key);
+            }
+        }
+        StatsCounter statsCounter = this.statsCounter;
+        for (int i = result.size(); i > 0; i--) {
+            statsCounter.recordHit();
+        }
+        if (resurrectedCount > 0) {
+            for (int i = resurrectedCount; i > 0; i--) {
+                statsCounter.recordResurrection();
+            }
+            trimToSize(maxSize);
+        }
+        if (missedKeys != null) {
+            for (K key : missedKeys) {
+                statsCounter.recordMiss();
+                V value = createValue(key, statsCounter);
+                if (value != null) {
+                    result.put(key, value);
+                }
+            }
+        }
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public Map<K, Entry<V>> getEntries(@NonNull Collection<? extends K> keys) {
+        Map<K, V> values = getAll(keys);
+        Map<K, Entry<V>> result = new HashMap<>(values.size() * 4 / 3 + 1);
+        for (Map.Entry<K, V> entry : values.entrySet()) {
+            result.put(entry.getKey(), new Entry<>(entry.getValue(), 0));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value of {@code key} without creating or resurrecting it, moving it or counting a request
+     */
+    @Override
+    public synchronized final V peek(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        return map.get(key);
+    }
+
+    /**
+     * Returns values of cached keys looked up under one lock, missing values are neither created
+     * nor resurrected, and neither hits nor misses are recorded
+     */
+    @NonNull
+    @Override
+    public final Map<K, V> peekAll(@NonNull Collection<? extends K> keys) {
+        Map<K, V> result = new HashMap<>(keys.size() * 4 / 3 + 1);
+        synchronized (this) {
+            for (K key : keys) {
+                if (key == null) {
+                    throw new NullPointerException("key == null");
+                }
+                V value = map.get(key);
+                if (value != null) {
+                    result.put(key, value);
+                }
+            }
+        }
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public Map<K, Entry<V>> peekEntries(@NonNull Collection<? extends K> keys) {
+        Map<K, V> values = peekAll(keys);
+        Map<K, Entry<V>> result = new HashMap<>(values.size() * 4 / 3 + 1);
+        for (Map.Entry<K, V> entry : values.entrySet()) {
+            result.put(entry.getKey(), new Entry<>(entry.getValue(), 0));
+        }
+        return result;
+    }
+
     /**
      * Caches {@code value} for {@code key}. The value is moved to the head of
      * the queue.
@@ -139,14 +534,18 @@ public class LruCache<K, V> implements Cache<K, V> {
             throw new NullPointerException("key == null || value == null");
         }
 
+        statsCounter.recordPut();
+        int weight = safeSizeOf(key, value); // outside the lock, sizes may be expensive to compute
         V previous;
         synchronized (this) {
-            putCount++;
-            size += safeSizeOf(key, value);
+            size += weight;
             previous = map.put(key, value);
             if (previous != null) {
                 size -= safeSizeOf(key, previous);
             }
+            if (evictedValues != null) {
+                evictedValues.remove(key);
+            }
         }
 
         if (previous != null) {
@@ -163,13 +562,183 @@ public class LruCache<K, V> implements Cache<K, V> {
     }
 
     /**
+     * Caches all {@code values} under one lock, then trims the cache once.
+     * Nothing is cached if any key or value is null.
+     */
+    @Override
+    public final void putAll(@NonNull Map<? extends K, ? extends V> values) {
+        for (Map.Entry<? extends K, ? extends V> entry : values.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                throw new NullPointerException("key == null || value == null");
+            }
+        }
+        List<Removal<K, V>> replaced = null;
+        synchronized (this) {
+            for (Map.Entry<? extends K, ? extends V> entry : values.entrySet()) {
+                K key = entry.getKey();
+                V value = entry.getValue();
+                size += safeSizeOf(key, value);
+                V previous = map.put(key, value);
+                if (evictedValues != null) {
+                    evictedValues.remove(key);
+                }
+                if (previous != null) {
+                    size -= safeSizeOf(key, previous);
+                    if (replaced == null) {
+                        replaced = new ArrayList<>();
+                    }
+                    replaced.add(new Removal<K, V>(key, previous, value));
+                }
+            }
+        }
+        StatsCounter statsCounter = this.statsCounter;
+        for (int i = values.size(); i > 0; i--) {
+            statsCounter.recordPut();
+        }
+        if (replaced != null) {
+            notifyRemoved(replaced);
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Removes entries of all {@code keys} under one lock.
+     */
+    @Override
+    public final void removeAll(@NonNull Collection<? extends K> keys) {
+        List<Removal<K, V>> removed = null;
+        synchronized (this) {
+            for (K key : keys) {
+                if (key == null) {
+                    throw new NullPointerException("key == null");
+                }
+                V previous = map.remove(key);
+                if (evictedValues != null) {
+                    evictedValues.remove(key);
+                }
+                if (previous != null) {
+                    size -= safeSizeOf(key, previous);
+                    if (removed == null) {
+                        removed = new ArrayList<>();
+                    }
+                    removed.add(new Removal<K, V>(key, previous, null));
+                }
+            }
+        }
+        if (removed != null) {
+            notifyRemoved(removed);
+        }
+    }
+
+    private void notifyRemoved(List<Removal<K, V>> removed) {
+        for (int i = 0, count = removed.size(); i < count; i++) {
+            Removal<K, V> removal = removed.get(i);
+            entryRemoved(false, removal.key, removal.oldValue, removal.newValue);
+        }
+    }
+
+    private static class Removal<K, V> {
+        final K key;
+        final V oldValue;
+        final V newValue;
+
+        Removal(K key, V oldValue, V newValue) {
+            this.key = key;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+    }
+
+    private static class Load<V> extends FutureTask<V> {
+        final Thread owner = Thread.currentThread();
+
+        Load(Callable<V> loader) {
+            super(loader);
+        }
+    }
+
+    private static class WeakValue<K, V> extends WeakReference<V> {
+        final K key;
+
+        WeakValue(K key, V value, ReferenceQueue<? super V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+
+    /**
+     * Keeps evicted values weakly referenced and brings them back on a miss while they are still
+     * reachable, e.g. shown by the UI, instead of creating them again. Resurrected values are counted
+     * as hits and also by {@link #resurrectionCount}.
+     * <p/>
+     * <p>Do not enable it if {@link #entryRemoved} releases evicted values, they could be resurrected.
+     */
+    public final LruCache<K, V> setWeakEvictedValues(boolean enabled) {
+        synchronized (this) {
+            if (enabled && evictedValues == null) {
+                evictedValues = new HashMap<>();
+                evictedValuesQueue = new ReferenceQueue<>();
+            } else if (!enabled) {
+                evictedValues = null;
+                evictedValuesQueue = null;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Moves a reachable evicted value back to the cache, the caller trims the cache then
+     */
+    private V resurrect(K key) {
+        WeakValue<K, V> weakValue = evictedValues.remove(key);
+        V value = weakValue != null ? weakValue.get() : null;
+        if (value != null) {
+            map.put(key, value);
+            size += safeSizeOf(key, value);
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expungeEvictedValues() {
+        WeakValue<K, V> weakValue;
+        while ((weakValue = (WeakValue<K, V>) evictedValuesQueue.poll()) != null) {
+            if (evictedValues.get(weakValue.key) == weakValue) {
+                evictedValues.remove(weakValue.key);
+            }
+        }
+    }
+
+    /**
+     * Sets the size of the cache.
+     *
+     * @param maxSize The new maximum size.
+     */
+    @Override
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+
+        synchronized (this) {
+            this.maxSize = maxSize;
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Remove the eldest entries until the total of remaining entries is at or
+     * below the requested size.
+     *
      * @param maxSize the maximum size of the cache before returning. May be -1
      *                to evict even 0-sized elements.
      */
-    private void trimToSize(int maxSize) {
+    @Override
+    public final void trimToSize(int maxSize) {
         while (true) {
             K key;
             V value;
+            int weight;
             synchronized (this) {
                 if (size < 0 || (map.isEmpty() && size != 0)) {
                     throw new IllegalStateException(getClass().getName()
@@ -184,10 +753,15 @@ public class LruCache<K, V> implements Cache<K, V> {
                 key = toEvict.getKey();
                 value = toEvict.getValue();
                 map.remove(key);
-                size -= safeSizeOf(key, value);
-                evictionCount++;
+                weight = safeSizeOf(key, value);
+                size -= weight;
+                if (evictedValues != null) {
+                    expungeEvictedValues();
+                    evictedValues.put(key, new WeakValue<>(key, value, evictedValuesQueue));
+                }
             }
 
+            statsCounter.recordEviction(weight);
             entryRemoved(true, key, value, null);
         }
     }
@@ -209,6 +783,9 @@ public class LruCache<K, V> implements Cache<K, V> {
             if (previous != null) {
                 size -= safeSizeOf(key, previous);
             }
+            if (evictedValues != null) {
+                evictedValues.remove(key);
+            }
         }
 
         if (previous != null) {
@@ -249,7 +826,7 @@ public class LruCache<K, V> implements Cache<K, V> {
      * and discarded. This can occur when multiple threads request the same key
      * at the same time (causing multiple values to be created), or when one
      * thread calls {@link #put} while another is creating a value for the same
-     * key.
+     * key, the former is avoided by {@link #setSingleFlightLoading}.
      */
     protected V create(K key) {
         return null;
@@ -268,7 +845,8 @@ public class LruCache<K, V> implements Cache<K, V> {
      * user-defined units.  The default implementation returns 1 so that size
      * is the number of entries and max size is the maximum number of entries.
      * <p/>
-     * <p>An entry's size must not change while it is in the cache.
+     * <p>An entry's size must not change while it is in the cache. Entries
+     * being put are sized without synchronization.
      */
     protected int sizeOf(K key, V value) {
         return 1;
@@ -296,44 +874,79 @@ public class LruCache<K, V> implements Cache<K, V> {
      * number of entries in the cache. For all other caches, this returns the
      * maximum sum of the sizes of the entries in this cache.
      */
+    @Override
     public synchronized final int maxSize() {
         return maxSize;
     }
 
     /**
-     * Returns the number of times {@link #get} returned a value.
+     * Returns the number of times {@link #get} returned a value. Like the other int counters it is read
+     * from {@link #stats()} and truncated to int, and it is 0 if statistics are {@link StatsCounter#DISABLED}.
      */
-    public synchronized final int hitCount() {
-        return hitCount;
+    public final int hitCount() {
+        return (int) stats().hitCount();
     }
 
     /**
      * Returns the number of times {@link #get} returned null or required a new
      * value to be created.
      */
-    public synchronized final int missCount() {
-        return missCount;
+    public final int missCount() {
+        return (int) stats().missCount();
     }
 
     /**
      * Returns the number of times {@link #create(Object)} returned a value.
      */
-    public synchronized final int createCount() {
-        return createCount;
+    public final int createCount() {
+        return (int) stats().loadSuccessCount();
     }
 
     /**
      * Returns the number of times {@link #put} was called.
      */
-    public synchronized final int putCount() {
-        return putCount;
+    public final int putCount() {
+        return (int) stats().putCount();
     }
 
     /**
      * Returns the number of values that have been evicted.
      */
-    public synchronized final int evictionCount() {
-        return evictionCount;
+    public final int evictionCount() {
+        return (int) stats().evictionCount();
+    }
+
+    /**
+     * Returns the number of hits served by evicted values that were still reachable, truncated to int.
+     * Returns 0 if statistics are {@link StatsCounter#DISABLED}.
+     *
+     * @see #setWeakEvictedValues
+     */
+    public final int resurrectionCount() {
+        return (int) stats().resurrectionCount();
+    }
+
+    /**
+     * Returns a snapshot of statistics. Counters are recorded outside of the cache lock
+     * by {@link ConcurrentStatsCounter} unless another counter is set.
+     */
+    @NonNull
+    @Override
+    public final CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    /**
+     * Set a counter to record statistics to, {@link StatsCounter#DISABLED} removes statistics overhead
+     */
+    public final LruCache<K, V> setStatsCounter(@NonNull StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+        return this;
+    }
+
+    public final LruCache<K, V> setAccessObserver(@Nullable AccessObserver<? super K> accessObserver) {
+        this.accessObserver = accessObserver;
+        return this;
     }
 
     /**
@@ -346,9 +959,10 @@ public class LruCache<K, V> implements Cache<K, V> {
 
     @Override
     public synchronized final String toString() {
-        int accesses = hitCount + missCount;
-        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
-        return String.format(Locale.US, "LruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]", maxSize, hitCount, missCount, hitPercent);
+        CacheStats stats = stats();
+        long accesses = stats.requestCount();
+        int hitPercent = accesses != 0 ? (int) (100 * stats.hitCount() / accesses) : 0;
+        return String.format(Locale.US, "LruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]", maxSize, stats.hitCount(), stats.missCount(), hitPercent);
     }
 
     @Override
@@ -369,6 +983,11 @@ public class LruCache<K, V> implements Cache<K, V> {
     @Override
     public void clear() {
         evictAll();
+        synchronized (this) {
+            if (evictedValues != null) {
+                evictedValues.clear();
+            }
+        }
     }
 
 }
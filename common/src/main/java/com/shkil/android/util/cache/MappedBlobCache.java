@@ -0,0 +1,753 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.os.AsyncTask;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.shkil.android.util.io.Codec;
+import com.shkil.android.util.io.Codecs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import static com.shkil.android.util.io.IoUtils.closeQuietly;
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Persistent store of small and medium binary values. Values are appended to memory-mapped segment files
+ * of fixed size, an in-memory hash index points to the latest record of every key.
+ * Segments with mostly dead records are compacted in background by copying live records to the active segment.
+ * When the number of segments exceeds the limit, the oldest segment is dropped with all its entries.
+ * <p/>
+ * <p>Records are never overwritten, so {@link #getView} returns zero-copy read-only views which stay valid
+ * after the entry is replaced or removed. The index is saved by {@link #flush()} and after compaction,
+ * so at startup only records appended after the last save are scanned.
+ * {@link #put} and {@link #remove} always return {@code null}. A value whose removal record can not be written
+ * stays cached, since it would reappear after restart otherwise.
+ */
+public class MappedBlobCache<K> extends AbstractCache<K, byte[]> {
+
+    private static final String TAG = "MappedBlobCache";
+
+    static final String INDEX_FILE = "index";
+    private static final String INDEX_FILE_TEMP = "index.tmp";
+    private static final String SEGMENT_FILE_PREFIX = "segment-";
+
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final int INDEX_MAGIC = 0x4d424931; // MBI1
+    private static final int RECORD_MAGIC = 0x4d425231; // MBR1
+    // magic, key length, value length (-1 for removal), timestamp, crc
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 4 + 8 + 4;
+    private static final int MAX_KEY_LENGTH = 64 * 1024;
+
+    private static final int COMPACTION_LIVE_PERCENT = 50;
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final Codec<K> keyCodec;
+    private final Executor compactionExecutor;
+
+    private final Object lock = new Object();
+
+    @GuardedBy("lock")
+    private final HashMap<K, Location> index = new HashMap<>();
+
+    @GuardedBy("lock")
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+
+    @GuardedBy("lock")
+    private Segment activeSegment;
+
+    @GuardedBy("lock")
+    private boolean loaded;
+
+    @GuardedBy("lock")
+    private boolean compactionScheduled;
+
+    @GuardedBy("lock")
+    private Segment compactingSegment;
+
+    private volatile StatsCounter statsCounter = new ConcurrentStatsCounter();
+
+    private static final class Segment {
+        final int id;
+        final File file;
+        final MappedByteBuffer buffer;
+        int writeOffset;
+        int liveBytes;
+
+        Segment(int id, File file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class Location {
+        final Segment segment;
+        final int recordOffset;
+        final int recordSize;
+        final int valueLength;
+        final long timestamp;
+
+        Location(Segment segment, int recordOffset, int recordSize, int valueLength, long timestamp) {
+            this.segment = segment;
+            this.recordOffset = recordOffset;
+            this.recordSize = recordSize;
+            this.valueLength = valueLength;
+            this.timestamp = timestamp;
+        }
+
+        int valueOffset() {
+            return recordOffset + recordSize - valueLength;
+        }
+    }
+
+    public static MappedBlobCache<String> open(File directory, int maxSegments) {
+        return new MappedBlobCache<>(directory, DEFAULT_SEGMENT_SIZE, maxSegments, Codecs.STRING, AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * @param segmentSize size of every segment file, also the maximum size of a record
+     * @param maxSegments maximum number of segment files
+     */
+    public MappedBlobCache(File directory, int segmentSize, int maxSegments, Codec<K> keyCodec, Executor compactionExecutor) {
+        if (segmentSize <= RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize is too small");
+        }
+        if (maxSegments < 2) {
+            throw new IllegalArgumentException("maxSegments < 2");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.keyCodec = keyCodec;
+        this.compactionExecutor = compactionExecutor;
+    }
+
+    /**
+     * Returns read-only view of the value without copying
+     */
+    @Nullable
+    public ByteBuffer getView(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        ByteBuffer view = null;
+        synchronized (lock) {
+            ensureLoaded();
+            Location location = index.get(key);
+            if (location != null) {
+                view = view(location);
+            }
+        }
+        if (view != null) {
+            statsCounter.recordHit();
+        } else {
+            statsCounter.recordMiss();
+        }
+        return view;
+    }
+
+    @Override
+    public byte[] get(K key) {
+        ByteBuffer view = getView(key);
+        if (view == null) {
+            return null;
+        }
+        byte[] result = new byte[view.remaining()];
+        view.get(result);
+        return result;
+    }
+
+    @Nullable
+    @Override
+    public Entry<byte[]> getEntry(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        ByteBuffer view;
+        long timestamp;
+        synchronized (lock) {
+            ensureLoaded();
+            Location location = index.get(key);
+            if (location == null) {
+                statsCounter.recordMiss();
+                return null;
+            }
+            view = view(location);
+            timestamp = location.timestamp;
+        }
+        statsCounter.recordHit();
+        byte[] value = new byte[view.remaining()];
+        view.get(value);
+        return new Entry<>(value, timestamp);
+    }
+
+    @Override
+    public byte[] put(K key, byte[] value) {
+        return put(key, new Entry<>(value, currentTimeMillis()));
+    }
+
+    @Override
+    public byte[] put(K key, @NonNull Entry<byte[]> entry) {
+        byte[] value = entry.getValue();
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        byte[] keyData = encodeKey(key);
+        if (keyData == null) {
+            return null;
+        }
+        if (RECORD_HEADER_SIZE + keyData.length + value.length > segmentSize) {
+            Log.w(TAG, "Value is too large to be cached: " + key);
+            remove(key);
+            return null;
+        }
+        statsCounter.recordPut();
+        synchronized (lock) {
+            ensureLoaded();
+            try {
+                Location location = appendRecord(keyData, value, 0, value.length, entry.getTimestamp());
+                replaceLocation(key, location);
+            } catch (IOException ex) {
+                Log.w(TAG, "Error writing " + key, ex);
+            }
+            scheduleCompactionIfNeeded();
+        }
+        return null;
+    }
+
+    @Override
+    public byte[] remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        byte[] keyData = encodeKey(key);
+        if (keyData == null) {
+            return null;
+        }
+        synchronized (lock) {
+            ensureLoaded();
+            if (index.containsKey(key)) {
+                try {
+                    appendRecord(keyData, null, 0, -1, 0);
+                } catch (IOException ex) {
+                    // Without the removal record the value would reappear after restart, so it stays cached
+                    Log.w(TAG, "Error writing removal of " + key, ex);
+                    return null;
+                }
+                replaceLocation(key, null);
+                scheduleCompactionIfNeeded();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of entries
+     */
+    @Override
+    public int size() {
+        synchronized (lock) {
+            ensureLoaded();
+            return index.size();
+        }
+    }
+
+    /**
+     * Forces written records to the storage and saves the index to speed up the next start
+     */
+    public void flush() {
+        synchronized (lock) {
+            if (!loaded) {
+                return;
+            }
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+            }
+            saveIndex();
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (lock) {
+            index.clear();
+            segments.clear();
+            activeSegment = null;
+            loaded = true;
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    @Override
+    public Object getSyncLock() {
+        return lock;
+    }
+
+    /**
+     * Returns a snapshot of statistics recorded by {@link ConcurrentStatsCounter} unless another counter is set,
+     * entries of dropped segments are counted as evicted
+     */
+    @NonNull
+    @Override
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    /**
+     * Set a counter to record statistics to, {@link StatsCounter#DISABLED} removes statistics overhead
+     */
+    public MappedBlobCache<K> setStatsCounter(@NonNull StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+        return this;
+    }
+
+    @Override
+    public boolean isQuick() {
+        return false;
+    }
+
+    @Override
+    public boolean isCacheControlSupported() {
+        return true;
+    }
+
+    @GuardedBy("lock")
+    private ByteBuffer view(Location location) {
+        ByteBuffer view = location.segment.buffer.asReadOnlyBuffer();
+        int valueOffset = location.valueOffset();
+        view.limit(valueOffset + location.valueLength);
+        view.position(valueOffset);
+        return view.slice();
+    }
+
+    @GuardedBy("lock")
+    private void replaceLocation(K key, @Nullable Location location) {
+        Location previous = location != null ? index.put(key, location) : index.remove(key);
+        if (previous != null) {
+            previous.segment.liveBytes -= previous.recordSize;
+        }
+        if (location != null) {
+            location.segment.liveBytes += location.recordSize;
+        }
+    }
+
+    /**
+     * @param valueLength -1 for removal record
+     */
+    @GuardedBy("lock")
+    private Location appendRecord(byte[] keyData, @Nullable byte[] value, int valueOffset, int valueLength, long timestamp) throws IOException {
+        int recordSize = RECORD_HEADER_SIZE + keyData.length + Math.max(valueLength, 0);
+        Segment segment = activeSegment;
+        if (segment == null || segment.writeOffset + recordSize > segmentSize) {
+            segment = rollSegment();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(keyData);
+        if (valueLength > 0) {
+            crc.update(value, valueOffset, valueLength);
+        }
+        int recordOffset = segment.writeOffset;
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(recordOffset);
+        buffer.putInt(RECORD_MAGIC);
+        buffer.putInt(keyData.length);
+        buffer.putInt(valueLength);
+        buffer.putLong(timestamp);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(keyData);
+        if (valueLength > 0) {
+            buffer.put(value, valueOffset, valueLength);
+        }
+        segment.writeOffset += recordSize;
+        return new Location(segment, recordOffset, recordSize, Math.max(valueLength, 0), timestamp);
+    }
+
+    @GuardedBy("lock")
+    private Segment rollSegment() throws IOException {
+        // The segment being compacted is deleted after compaction, so it is neither counted nor dropped
+        int compactingCount = compactingSegment != null && isMapped(compactingSegment) ? 1 : 0;
+        while (segments.size() - compactingCount >= maxSegments) {
+            Segment oldest = segments.firstEntry().getValue();
+            if (oldest == compactingSegment) {
+                oldest = segments.higherEntry(oldest.id).getValue();
+            }
+            dropSegment(oldest);
+        }
+        int id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        Segment segment = mapSegment(id, new File(directory, SEGMENT_FILE_PREFIX + id));
+        segments.put(id, segment);
+        activeSegment = segment;
+        return segment;
+    }
+
+    @GuardedBy("lock")
+    private void dropSegment(Segment segment) {
+        Iterator<Location> iterator = index.values().iterator();
+        while (iterator.hasNext()) {
+            Location location = iterator.next();
+            if (location.segment == segment) {
+                iterator.remove();
+                statsCounter.recordEviction(location.valueLength);
+            }
+        }
+        segments.remove(segment.id);
+        if (segment == activeSegment) {
+            activeSegment = null;
+        }
+        saveIndex();
+        if (!segment.file.delete()) {
+            Log.w(TAG, "Can't delete " + segment.file);
+        }
+    }
+
+    private Segment mapSegment(int id, File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (randomAccessFile.length() != segmentSize) {
+                randomAccessFile.setLength(segmentSize);
+            }
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            return new Segment(id, file, buffer);
+        } finally {
+            randomAccessFile.close(); // mapping stays valid
+        }
+    }
+
+    @GuardedBy("lock")
+    private void scheduleCompactionIfNeeded() {
+        if (compactionScheduled || findCompactionCandidate() == null) {
+            return;
+        }
+        compactionScheduled = true;
+        compactionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    Segment segment;
+                    List<Map.Entry<K, Location>> liveEntries;
+                    synchronized (lock) {
+                        segment = findCompactionCandidate();
+                        if (segment == null) {
+                            compactionScheduled = false;
+                            return;
+                        }
+                        compactingSegment = segment;
+                        liveEntries = new ArrayList<>();
+                        for (Map.Entry<K, Location> entry : index.entrySet()) {
+                            if (entry.getValue().segment == segment) {
+                                liveEntries.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+                            }
+                        }
+                    }
+                    try {
+                        compactSegment(segment, liveEntries);
+                    } catch (IOException ex) {
+                        Log.w(TAG, "Error compacting " + segment.file, ex);
+                        synchronized (lock) {
+                            compactingSegment = null;
+                            compactionScheduled = false;
+                        }
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    @GuardedBy("lock")
+    private boolean isMapped(Segment segment) {
+        return segments.get(segment.id) == segment;
+    }
+
+    @GuardedBy("lock")
+    private Segment findCompactionCandidate() {
+        for (Segment segment : segments.values()) {
+            if (segment != activeSegment && segment.liveBytes * 100L < (long) segmentSize * COMPACTION_LIVE_PERCENT) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copies live records of the segment to the active segment and deletes the segment file.
+     * Records are never overwritten, so they are read without the lock, which is only taken to append
+     * every record that is still the latest one of its key.
+     */
+    private void compactSegment(Segment segment, List<Map.Entry<K, Location>> liveEntries) throws IOException {
+        for (Map.Entry<K, Location> entry : liveEntries) {
+            Location location = entry.getValue();
+            ByteBuffer source = segment.buffer.duplicate();
+            source.position(location.recordOffset + RECORD_HEADER_SIZE);
+            int keyLength = location.recordSize - RECORD_HEADER_SIZE - location.valueLength;
+            byte[] keyData = new byte[keyLength];
+            source.get(keyData);
+            byte[] value = new byte[location.valueLength];
+            source.get(value);
+            synchronized (lock) {
+                if (!isMapped(segment)) {
+                    compactingSegment = null;
+                    return; // cleared
+                }
+                if (index.get(entry.getKey()) == location) {
+                    replaceLocation(entry.getKey(), appendRecord(keyData, value, 0, value.length, location.timestamp));
+                }
+            }
+        }
+        synchronized (lock) {
+            compactingSegment = null;
+            if (!isMapped(segment)) {
+                return;
+            }
+            segments.remove(segment.id);
+            saveIndex();
+            if (!segment.file.delete()) {
+                Log.w(TAG, "Can't delete " + segment.file);
+            }
+        }
+    }
+
+    @GuardedBy("lock")
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Can't create " + directory);
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_FILE_PREFIX)) {
+                    try {
+                        int id = Integer.parseInt(name.substring(SEGMENT_FILE_PREFIX.length()));
+                        segments.put(id, mapSegment(id, file));
+                    } catch (NumberFormatException | IOException ex) {
+                        Log.w(TAG, "Deleting unexpected segment " + file, ex);
+                        file.delete();
+                    }
+                }
+            }
+        }
+        Map<Integer, Integer> indexedOffsets = loadIndex();
+        for (Segment segment : segments.values()) {
+            Integer offset = indexedOffsets.get(segment.id);
+            scanSegment(segment, offset != null ? offset : 0);
+        }
+        for (Segment segment : segments.values()) {
+            segment.liveBytes = 0;
+        }
+        for (Location location : index.values()) {
+            location.segment.liveBytes += location.recordSize;
+        }
+        activeSegment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+    }
+
+    /**
+     * @return indexed length of every segment
+     */
+    @GuardedBy("lock")
+    private Map<Integer, Integer> loadIndex() {
+        Map<Integer, Integer> offsets = new HashMap<>();
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(directory, INDEX_FILE))));
+            if (input.readInt() != INDEX_MAGIC) {
+                throw new IOException("Wrong index header");
+            }
+            int segmentCount = input.readInt();
+            for (int i = 0; i < segmentCount; i++) {
+                offsets.put(input.readInt(), input.readInt());
+            }
+            int entryCount = input.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                int keyLength = input.readInt();
+                if (keyLength < 0 || keyLength > MAX_KEY_LENGTH) {
+                    throw new IOException("Wrong key length: " + keyLength);
+                }
+                byte[] keyData = new byte[keyLength];
+                input.readFully(keyData);
+                int segmentId = input.readInt();
+                int recordOffset = input.readInt();
+                int recordSize = input.readInt();
+                int valueLength = input.readInt();
+                long timestamp = input.readLong();
+                Segment segment = segments.get(segmentId);
+                if (segment == null || !offsets.containsKey(segmentId)) {
+                    throw new IOException("Unknown segment: " + segmentId);
+                }
+                index.put(keyCodec.decode(keyData, 0, keyLength), new Location(segment, recordOffset, recordSize, valueLength, timestamp));
+            }
+        } catch (FileNotFoundException ex) {
+            // all segments will be scanned
+        } catch (IOException ex) {
+            Log.w(TAG, "Error reading index, all segments will be scanned", ex);
+            index.clear();
+            offsets.clear();
+        } finally {
+            closeQuietly(input);
+        }
+        return offsets;
+    }
+
+    @GuardedBy("lock")
+    private void saveIndex() {
+        File tempFile = new File(directory, INDEX_FILE_TEMP);
+        FileOutputStream fileOutput = null;
+        try {
+            fileOutput = new FileOutputStream(tempFile);
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+            output.writeInt(INDEX_MAGIC);
+            output.writeInt(segments.size());
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+                output.writeInt(segment.id);
+                output.writeInt(segment.writeOffset);
+            }
+            output.writeInt(index.size());
+            for (Map.Entry<K, Location> entry : index.entrySet()) {
+                Location location = entry.getValue();
+                byte[] keyData = keyCodec.encode(entry.getKey());
+                output.writeInt(keyData.length);
+                output.write(keyData);
+                output.writeInt(location.segment.id);
+                output.writeInt(location.recordOffset);
+                output.writeInt(location.recordSize);
+                output.writeInt(location.valueLength);
+                output.writeLong(location.timestamp);
+            }
+            output.flush();
+            fileOutput.getFD().sync();
+            output.close();
+            fileOutput = null;
+            if (!tempFile.renameTo(new File(directory, INDEX_FILE))) {
+                throw new IOException("Can't rename " + tempFile);
+            }
+        } catch (IOException ex) {
+            Log.w(TAG, "Error saving index", ex);
+            closeQuietly(fileOutput);
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Reads records appended after {@code offset} until the first incomplete or corrupted one
+     */
+    @GuardedBy("lock")
+    private void scanSegment(Segment segment, int offset) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        CRC32 crc = new CRC32();
+        while (offset + RECORD_HEADER_SIZE <= segmentSize) {
+            buffer.position(offset);
+            if (buffer.getInt() != RECORD_MAGIC) {
+                break;
+            }
+            int keyLength = buffer.getInt();
+            int valueLength = buffer.getInt();
+            long timestamp = buffer.getLong();
+            int checksum = buffer.getInt();
+            if (keyLength < 0 || keyLength > MAX_KEY_LENGTH || valueLength < -1) {
+                break;
+            }
+            int recordSize = RECORD_HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+            if (recordSize < 0 || offset + recordSize > segmentSize) {
+                break;
+            }
+            byte[] keyData = new byte[keyLength];
+            buffer.get(keyData);
+            crc.reset();
+            crc.update(keyData);
+            if (valueLength > 0) {
+                byte[] value = new byte[valueLength];
+                buffer.get(value);
+                crc.update(value);
+            }
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            K key;
+            try {
+                key = keyCodec.decode(keyData, 0, keyLength);
+            } catch (IOException ex) {
+                break;
+            }
+            if (valueLength >= 0) {
+                index.put(key, new Location(segment, offset, recordSize, valueLength, timestamp));
+            } else {
+                index.remove(key);
+            }
+            offset += recordSize;
+        }
+        segment.writeOffset = offset;
+    }
+
+    @Nullable
+    private byte[] encodeKey(K key) {
+        try {
+            byte[] keyData = keyCodec.encode(key);
+            if (keyData.length > MAX_KEY_LENGTH) {
+                throw new IOException("Key is too long");
+            }
+            return keyData;
+        } catch (IOException ex) {
+            Log.w(TAG, "Can't encode key " + key, ex);
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "MappedBlobCache[directory=%s,segmentSize=%d,maxSegments=%d]", directory, segmentSize, maxSegments);
+    }
+}
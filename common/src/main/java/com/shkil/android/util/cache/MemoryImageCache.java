@@ -18,9 +18,12 @@ package com.shkil.android.util.cache;
 import android.annotation.TargetApi;
 import android.graphics.Bitmap;
 import android.os.Build;
+import android.support.annotation.Nullable;
 
 public class MemoryImageCache<K> extends LruCache<K,Bitmap> {
 
+    private volatile BitmapPool bitmapPool;
+
     public static final int DEFAULT_MAX_CACHE_SIZE = (int) (Runtime.getRuntime().maxMemory() / 6);
 
     public static <K> MemoryImageCache<K> newInstance() {
@@ -39,12 +42,37 @@ public class MemoryImageCache<K> extends LruCache<K,Bitmap> {
         super(maxSize);
     }
 
+    /**
+     * Set a pool to put evicted bitmaps to. Use it only if evicted bitmaps are not displayed anymore,
+     * e.g. views get bitmaps from the cache each time they are bound.
+     */
+    public MemoryImageCache<K> setBitmapPool(@Nullable BitmapPool bitmapPool) {
+        this.bitmapPool = bitmapPool;
+        return this;
+    }
+
+    @Nullable
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
     @Override
-    @TargetApi(12)
+    protected void entryRemoved(boolean evicted, K key, Bitmap oldValue, Bitmap newValue) {
+        BitmapPool bitmapPool = this.bitmapPool;
+        if (evicted && bitmapPool != null) {
+            bitmapPool.put(oldValue);
+        }
+    }
+
+    @Override
+    @TargetApi(19)
     protected int sizeOf(K key, Bitmap value) {
         if (value == null) {
             return 0;
         }
+        if (Build.VERSION.SDK_INT >= 19) {
+            return value.getAllocationByteCount(); // a reused bitmap may be larger than its image
+        }
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR1) {
             return value.getByteCount();
         }
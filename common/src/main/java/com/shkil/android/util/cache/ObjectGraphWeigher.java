@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Weigher estimating the retained size of values in bytes by walking the graph of their fields, arrays,
+ * Strings, collections and maps. Objects reachable twice are counted once. Field layouts are computed by
+ * reflection once per class. To cap the cost, only some elements of large arrays and collections are
+ * walked and their size is extrapolated, and the walk stops after a number of objects. Objects reached
+ * more than once, e.g. from several sampled elements, are not extrapolated.
+ * <p/>
+ * <p>Sizes assume 8-byte object headers, 4-byte references and 8-byte alignment like ART does. Classes,
+ * class loaders, threads and enum constants are treated as shared and not counted.
+ */
+public class ObjectGraphWeigher<K, V> implements Weigher<K, V> {
+
+    private static final int OBJECT_HEADER = 8;
+    private static final int ARRAY_HEADER = 12;
+    private static final int REFERENCE = 4;
+    private static final int ALIGNMENT = 8;
+    private static final int COLLECTION_SHALLOW = 24; // object with a size and an array
+    private static final int MAP_ENTRY_SHALLOW = 32; // key, value, next and a hash
+
+    public static final int DEFAULT_SAMPLE_SIZE = 32;
+    public static final int DEFAULT_MAX_OBJECTS = 10000;
+
+    private static final ConcurrentHashMap<Class<?>, ClassLayout> LAYOUTS = new ConcurrentHashMap<>();
+
+    private final boolean weighKeys;
+    private final int sampleSize;
+    private final int maxObjects;
+
+    private static class ClassLayout {
+        final int shallowSize;
+        final Field[] referenceFields;
+
+        ClassLayout(int shallowSize, Field[] referenceFields) {
+            this.shallowSize = shallowSize;
+            this.referenceFields = referenceFields;
+        }
+    }
+
+    private static class Node {
+        final Object object;
+        final Visit parent;
+        final double scale;
+
+        /**
+         * @param scale number of objects the object stands for relative to its parent
+         */
+        Node(Object object, Visit parent, double scale) {
+            this.object = object;
+            this.parent = parent;
+            this.scale = scale;
+        }
+    }
+
+    private static class Visit {
+        final Visit parent;
+        final double relativeScale;
+        long shallowSize;
+        double scale;
+        /**
+         * Reached from outside its subgraph more than once, so it exists once whatever number of sampled
+         * objects reach it
+         */
+        boolean shared;
+
+        Visit(Visit parent, double relativeScale) {
+            this.parent = parent;
+            this.relativeScale = relativeScale;
+        }
+    }
+
+    public static <K, V> ObjectGraphWeigher<K, V> newWeigher() {
+        return new ObjectGraphWeigher<>(false, DEFAULT_SAMPLE_SIZE, DEFAULT_MAX_OBJECTS);
+    }
+
+    /**
+     * @param weighKeys  true to add sizes of keys to sizes of values
+     * @param sampleSize number of elements walked in larger arrays and collections
+     * @param maxObjects number of objects after which the walk stops
+     */
+    public ObjectGraphWeigher(boolean weighKeys, int sampleSize, int maxObjects) {
+        if (sampleSize <= 0 || maxObjects <= 0) {
+            throw new IllegalArgumentException("sampleSize <= 0 || maxObjects <= 0");
+        }
+        this.weighKeys = weighKeys;
+        this.sampleSize = sampleSize;
+        this.maxObjects = maxObjects;
+    }
+
+    @Override
+    public int weigh(K key, V value) {
+        long size = weighObject(value);
+        if (weighKeys) {
+            size += weighObject(key);
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the estimated size of the object and all objects reachable from it
+     */
+    public long weighObject(Object root) {
+        if (root == null) {
+            return 0;
+        }
+        IdentityHashMap<Object, Visit> visited = new IdentityHashMap<>();
+        List<Visit> visits = new ArrayList<>();
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(new Node(root, null, 1));
+        while (!stack.isEmpty() && visits.size() < maxObjects) {
+            Node node = stack.pop();
+            Object object = node.object;
+            Visit visit = visited.get(object);
+            if (visit != null) {
+                if (!visit.shared && !isWithin(node.parent, visit)) {
+                    visit.shared = true; // references back from its own subgraph do not make it shared
+                }
+                continue;
+            }
+            if (isShared(object)) {
+                continue;
+            }
+            visit = new Visit(node.parent, node.scale);
+            visited.put(object, visit);
+            visits.add(visit);
+            visit.shallowSize = visit(object, visit, stack);
+        }
+        // Scales are multiplied down from the root once sharing is known, parents are visited before children
+        double size = 0;
+        for (int i = 0, count = visits.size(); i < count; i++) {
+            Visit visit = visits.get(i);
+            visit.scale = visit.shared || visit.parent == null ? 1 : visit.parent.scale * visit.relativeScale;
+            size += visit.scale * visit.shallowSize;
+        }
+        return (long) size;
+    }
+
+    private static boolean isWithin(Visit visit, Visit root) {
+        for (Visit v = visit; v != null; v = v.parent) {
+            if (v == root) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the shallow size of the object and pushes objects it references
+     */
+    private long visit(Object object, Visit visit, ArrayDeque<Node> stack) {
+        Class<?> type = object.getClass();
+        if (object instanceof String) {
+            return align(OBJECT_HEADER + 8 + 2L * ((String) object).length());
+        }
+        if (type.isArray()) {
+            return visitArray(object, type.getComponentType(), visit, stack);
+        }
+        if (object instanceof Collection) {
+            Collection<?> collection = (Collection<?>) object;
+            int size = collection.size();
+            pushSampled(collection.iterator(), size, visit, stack);
+            return COLLECTION_SHALLOW + align(ARRAY_HEADER + (long) size * REFERENCE);
+        }
+        if (object instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) object;
+            int size = map.size();
+            pushSampled(map.keySet().iterator(), size, visit, stack);
+            pushSampled(map.values().iterator(), size, visit, stack);
+            return COLLECTION_SHALLOW + (long) size * MAP_ENTRY_SHALLOW
+                    + align(ARRAY_HEADER + (long) Integer.highestOneBit(size * 2 + 1) * REFERENCE);
+        }
+        ClassLayout layout = getLayout(type);
+        for (Field field : layout.referenceFields) {
+            try {
+                Object child = field.get(object);
+                if (child != null) {
+                    stack.push(new Node(child, visit, 1));
+                }
+            } catch (IllegalAccessException ex) {
+                // not counted
+            }
+        }
+        return layout.shallowSize;
+    }
+
+    private long visitArray(Object array, Class<?> componentType, Visit visit, ArrayDeque<Node> stack) {
+        int length = Array.getLength(array);
+        if (componentType.isPrimitive()) {
+            return align(ARRAY_HEADER + (long) length * primitiveSize(componentType));
+        }
+        Object[] elements = (Object[]) array;
+        if (length <= sampleSize) {
+            for (Object element : elements) {
+                if (element != null) {
+                    stack.push(new Node(element, visit, 1));
+                }
+            }
+        } else {
+            // walk evenly spaced elements, each of them stands for step elements
+            int step = length / sampleSize;
+            double elementScale = (double) length / ((length + step - 1) / step);
+            for (int i = 0; i < length; i += step) {
+                if (elements[i] != null) {
+                    stack.push(new Node(elements[i], visit, elementScale));
+                }
+            }
+        }
+        return align(ARRAY_HEADER + (long) length * REFERENCE);
+    }
+
+    private void pushSampled(Iterator<?> iterator, int size, Visit visit, ArrayDeque<Node> stack) {
+        List<Object> sample = new ArrayList<>(Math.min(size, sampleSize));
+        for (int i = 0; i < sampleSize && iterator.hasNext(); i++) {
+            sample.add(iterator.next());
+        }
+        double elementScale = sample.isEmpty() ? 0 : (double) size / sample.size();
+        for (Object element : sample) {
+            if (element != null) {
+                stack.push(new Node(element, visit, elementScale));
+            }
+        }
+    }
+
+    private static boolean isShared(Object object) {
+        return object instanceof Class || object instanceof ClassLoader || object instanceof Thread
+                || object instanceof Enum;
+    }
+
+    private static ClassLayout getLayout(Class<?> type) {
+        ClassLayout layout = LAYOUTS.get(type);
+        if (layout == null) {
+            layout = computeLayout(type);
+            LAYOUTS.put(type, layout);
+        }
+        return layout;
+    }
+
+    private static ClassLayout computeLayout(Class<?> type) {
+        long size = OBJECT_HEADER;
+        List<Field> referenceFields = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                Class<?> fieldType = field.getType();
+                if (fieldType.isPrimitive()) {
+                    size += primitiveSize(fieldType);
+                    continue;
+                }
+                size += REFERENCE;
+                try {
+                    field.setAccessible(true);
+                    referenceFields.add(field);
+                } catch (RuntimeException ex) {
+                    // inaccessible fields of platform classes are not walked
+                }
+            }
+        }
+        return new ClassLayout((int) align(size), referenceFields.toArray(new Field[referenceFields.size()]));
+    }
+
+    private static int primitiveSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private static long align(long size) {
+        return (size + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+}
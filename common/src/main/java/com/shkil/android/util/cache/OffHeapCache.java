@@ -0,0 +1,614 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.shkil.android.util.io.Codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Cache keeping encoded values outside of the Java heap in slabs of direct {@link ByteBuffer}s.
+ * Every slab is split into chunks of one size class, a value is stored in a chunk of the smallest fitting class.
+ * Memory is allocated slab by slab up to {@code maxBytes} and is never returned, when a class has no free
+ * chunks and no more slabs can be allocated, the least recently used entry of that class is evicted.
+ * A class that has no chunks at all, or has evicted a slab worth of entries while other classes evicted nothing,
+ * takes the slab holding the least recently used entry of another class, so memory follows the value sizes
+ * in use instead of staying with the classes filled first.
+ * <p/>
+ * <p>Chunk metadata is kept in a header of the chunk, and keys are kept only in an open-addressing table,
+ * so besides the key itself an entry costs a few bytes of heap.
+ * Values are decoded on every {@link #get}, {@link #put} and {@link #remove} always return {@code null}.
+ */
+public class OffHeapCache<K, V> extends AbstractCache<K, V> {
+
+    private static final String TAG = "OffHeapCache";
+
+    public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+    private static final int MIN_CHUNK_SIZE = 64;
+    private static final float CHUNK_SIZE_FACTOR = 1.25f;
+
+    // chunk header: previous and next chunks, value length (-1 for free chunks), key hash, timestamp
+    private static final int PREV_OFFSET = 0;
+    private static final int NEXT_OFFSET = 4;
+    private static final int LENGTH_OFFSET = 8;
+    private static final int HASH_OFFSET = 12;
+    private static final int TIMESTAMP_OFFSET = 16;
+    private static final int HEADER_SIZE = 24;
+
+    private static final int CLASS_SHIFT = 26;
+    private static final int CHUNK_MASK = (1 << CLASS_SHIFT) - 1;
+    private static final int MAX_CLASSES = 1 << (32 - CLASS_SHIFT);
+    private static final int NONE = -1;
+
+    private final Codec<V> codec;
+    private final long maxBytes;
+    private final int slabSize;
+    private final SlabClass[] classes;
+
+    private long allocatedBytes;
+
+    // open-addressing table of keys and chunk handles
+    private Object[] tableKeys = new Object[16];
+    private int[] tableHandles = new int[16];
+    private int count;
+
+    private volatile StatsCounter statsCounter = new ConcurrentStatsCounter();
+
+    private static final class SlabClass {
+        final int index;
+        final int chunkSize;
+        final int chunksPerSlab;
+        final List<ByteBuffer> slabs = new ArrayList<>(); // null for slabs moved to other classes
+        int freeHead = NONE;
+        int lruHead = NONE; // least recently used
+        int lruTail = NONE;
+        int evictionsSinceRebalance;
+
+        SlabClass(int index, int chunkSize, int slabSize) {
+            this.index = index;
+            this.chunkSize = chunkSize;
+            this.chunksPerSlab = slabSize / chunkSize;
+        }
+
+        ByteBuffer slab(int chunk) {
+            return slabs.get(chunk / chunksPerSlab);
+        }
+
+        int offset(int chunk) {
+            return (chunk % chunksPerSlab) * chunkSize;
+        }
+
+        int getInt(int chunk, int field) {
+            return slab(chunk).getInt(offset(chunk) + field);
+        }
+
+        void putInt(int chunk, int field, int value) {
+            slab(chunk).putInt(offset(chunk) + field, value);
+        }
+
+        ByteBuffer value(int chunk, int length) {
+            ByteBuffer buffer = slab(chunk).duplicate();
+            int offset = offset(chunk) + HEADER_SIZE;
+            buffer.limit(offset + length);
+            buffer.position(offset);
+            return buffer;
+        }
+
+        /**
+         * Adds the slab in place of a moved one or after the last one, its chunks become free
+         *
+         * @return false if chunk indices of the class are exhausted
+         */
+        boolean addSlab(ByteBuffer slab) {
+            int slabIndex = slabs.indexOf(null);
+            if (slabIndex < 0) {
+                if ((long) (slabs.size() + 1) * chunksPerSlab > CHUNK_MASK) {
+                    return false;
+                }
+                slabIndex = slabs.size();
+                slabs.add(slab);
+            } else {
+                slabs.set(slabIndex, slab);
+            }
+            int firstChunk = slabIndex * chunksPerSlab;
+            for (int chunk = firstChunk + chunksPerSlab - 1; chunk >= firstChunk; chunk--) {
+                release(chunk);
+            }
+            return true;
+        }
+
+        /**
+         * Rebuilds the free list from chunks of remaining slabs, e.g. after a slab was moved
+         */
+        void rebuildFreeList() {
+            freeHead = NONE;
+            for (int chunk = slabs.size() * chunksPerSlab - 1; chunk >= 0; chunk--) {
+                if (slabs.get(chunk / chunksPerSlab) != null && getInt(chunk, LENGTH_OFFSET) < 0) {
+                    putInt(chunk, NEXT_OFFSET, freeHead);
+                    freeHead = chunk;
+                }
+            }
+        }
+
+        int liveSlabCount() {
+            int result = 0;
+            for (ByteBuffer slab : slabs) {
+                if (slab != null) {
+                    result++;
+                }
+            }
+            return result;
+        }
+
+        void release(int chunk) {
+            putInt(chunk, LENGTH_OFFSET, -1);
+            putInt(chunk, NEXT_OFFSET, freeHead);
+            freeHead = chunk;
+        }
+
+        void linkLast(int chunk) {
+            putInt(chunk, PREV_OFFSET, lruTail);
+            putInt(chunk, NEXT_OFFSET, NONE);
+            if (lruTail != NONE) {
+                putInt(lruTail, NEXT_OFFSET, chunk);
+            } else {
+                lruHead = chunk;
+            }
+            lruTail = chunk;
+        }
+
+        void unlink(int chunk) {
+            int p = getInt(chunk, PREV_OFFSET);
+            int n = getInt(chunk, NEXT_OFFSET);
+            if (p != NONE) {
+                putInt(p, NEXT_OFFSET, n);
+            } else {
+                lruHead = n;
+            }
+            if (n != NONE) {
+                putInt(n, PREV_OFFSET, p);
+            } else {
+                lruTail = p;
+            }
+        }
+    }
+
+    public OffHeapCache(long maxBytes, Codec<V> codec) {
+        this(maxBytes, DEFAULT_SLAB_SIZE, codec);
+    }
+
+    /**
+     * @param slabSize size of memory blocks allocated at once, also the maximum size of an encoded value
+     *                 with a chunk header of 24 bytes
+     */
+    public OffHeapCache(long maxBytes, int slabSize, Codec<V> codec) {
+        if (slabSize < MIN_CHUNK_SIZE) {
+            throw new IllegalArgumentException("slabSize < " + MIN_CHUNK_SIZE);
+        }
+        if (maxBytes < slabSize) {
+            throw new IllegalArgumentException("maxBytes < slabSize");
+        }
+        this.maxBytes = maxBytes;
+        this.slabSize = slabSize;
+        this.codec = codec;
+        List<SlabClass> classes = new ArrayList<>();
+        int chunkSize = MIN_CHUNK_SIZE;
+        while (true) {
+            if (classes.size() == MAX_CLASSES) {
+                throw new IllegalArgumentException("slabSize is too large for " + MAX_CLASSES + " size classes");
+            }
+            classes.add(new SlabClass(classes.size(), chunkSize, slabSize));
+            if (chunkSize >= slabSize) {
+                break;
+            }
+            chunkSize = Math.min(slabSize, ((int) (chunkSize * CHUNK_SIZE_FACTOR) + 7) & ~7);
+        }
+        this.classes = classes.toArray(new SlabClass[classes.size()]);
+    }
+
+    @Override
+    public V get(K key) {
+        Entry<V> entry = getEntry(key);
+        return entry != null ? entry.getValue() : null;
+    }
+
+    @Nullable
+    @Override
+    public Entry<V> getEntry(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        byte[] data;
+        long timestamp;
+        synchronized (this) {
+            int position = indexOf(key);
+            if (position < 0) {
+                statsCounter.recordMiss();
+                return null;
+            }
+            statsCounter.recordHit();
+            int handle = tableHandles[position];
+            SlabClass slabClass = classes[handle >>> CLASS_SHIFT];
+            int chunk = handle & CHUNK_MASK;
+            data = new byte[slabClass.getInt(chunk, LENGTH_OFFSET)];
+            slabClass.value(chunk, data.length).get(data);
+            timestamp = slabClass.slab(chunk).getLong(slabClass.offset(chunk) + TIMESTAMP_OFFSET);
+            if (slabClass.lruTail != chunk) {
+                slabClass.unlink(chunk);
+                slabClass.linkLast(chunk);
+            }
+        }
+        try {
+            return new Entry<>(codec.decode(data, 0, data.length), timestamp);
+        } catch (IOException ex) {
+            Log.w(TAG, "Error decoding value of " + key, ex);
+            remove(key);
+            return null;
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return put(key, new Entry<>(value, currentTimeMillis()));
+    }
+
+    @Override
+    public V put(K key, @NonNull Entry<V> entry) {
+        if (key == null || entry.getValue() == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        byte[] data;
+        try {
+            data = codec.encode(entry.getValue());
+        } catch (IOException ex) {
+            Log.w(TAG, "Error encoding value of " + key, ex);
+            remove(key);
+            return null;
+        }
+        statsCounter.recordPut();
+        SlabClass slabClass = findClass(data.length);
+        synchronized (this) {
+            removeEntry(key);
+            if (slabClass == null) {
+                return null; // too large
+            }
+            int chunk = allocate(slabClass);
+            if (chunk == NONE) {
+                Log.w(TAG, "No memory for a value of " + data.length + " bytes");
+                return null;
+            }
+            int hash = key.hashCode();
+            slabClass.value(chunk, data.length).put(data);
+            slabClass.putInt(chunk, LENGTH_OFFSET, data.length);
+            slabClass.putInt(chunk, HASH_OFFSET, hash);
+            slabClass.slab(chunk).putLong(slabClass.offset(chunk) + TIMESTAMP_OFFSET, entry.getTimestamp());
+            slabClass.linkLast(chunk);
+            insertKey(key, hash, (slabClass.index << CLASS_SHIFT) | chunk);
+        }
+        return null;
+    }
+
+    @Override
+    public V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        synchronized (this) {
+            removeEntry(key);
+        }
+        return null;
+    }
+
+    private void removeEntry(K key) {
+        int position = indexOf(key);
+        if (position >= 0) {
+            int handle = tableHandles[position];
+            removeAt(position);
+            SlabClass slabClass = classes[handle >>> CLASS_SHIFT];
+            int chunk = handle & CHUNK_MASK;
+            slabClass.unlink(chunk);
+            slabClass.release(chunk);
+        }
+    }
+
+    /**
+     * @return chunk index or {@link #NONE} if no chunk can be allocated
+     */
+    private int allocate(SlabClass slabClass) {
+        if (slabClass.freeHead != NONE) {
+            return takeFreeChunk(slabClass);
+        }
+        if (allocatedBytes + slabSize <= maxBytes && slabClass.addSlab(ByteBuffer.allocateDirect(slabSize))) {
+            allocatedBytes += slabSize;
+            return takeFreeChunk(slabClass);
+        }
+        if (slabClass.lruHead == NONE || slabClass.evictionsSinceRebalance >= slabClass.chunksPerSlab) {
+            SlabClass donor = findDonor(slabClass);
+            for (SlabClass other : classes) {
+                other.evictionsSinceRebalance = 0;
+            }
+            if (donor != null && moveSlab(donor, slabClass)) {
+                return takeFreeChunk(slabClass);
+            }
+        }
+        if (slabClass.lruHead != NONE) {
+            int chunk = slabClass.lruHead;
+            evict(slabClass, chunk);
+            slabClass.evictionsSinceRebalance++;
+            return chunk;
+        }
+        return NONE;
+    }
+
+    private static int takeFreeChunk(SlabClass slabClass) {
+        int chunk = slabClass.freeHead;
+        slabClass.freeHead = slabClass.getInt(chunk, NEXT_OFFSET);
+        return chunk;
+    }
+
+    /**
+     * Returns a class to take a slab from: the class with most slabs, of those that have not evicted entries
+     * since the last rebalancing unless {@code recipient} has no entries to evict at all
+     */
+    @Nullable
+    private SlabClass findDonor(SlabClass recipient) {
+        boolean anyClass = recipient.lruHead == NONE;
+        SlabClass donor = null;
+        int donorSlabCount = 0;
+        for (SlabClass slabClass : classes) {
+            if (slabClass == recipient || (!anyClass && slabClass.evictionsSinceRebalance > 0)) {
+                continue;
+            }
+            int slabCount = slabClass.liveSlabCount();
+            if (slabCount > donorSlabCount) {
+                donor = slabClass;
+                donorSlabCount = slabCount;
+            }
+        }
+        return donor;
+    }
+
+    /**
+     * Evicts entries of the donor slab holding its least recently used entry and gives the slab to the recipient
+     */
+    private boolean moveSlab(SlabClass donor, SlabClass recipient) {
+        int slabIndex;
+        if (donor.lruHead != NONE) {
+            slabIndex = donor.lruHead / donor.chunksPerSlab;
+        } else {
+            slabIndex = donor.slabs.size() - 1;
+            while (donor.slabs.get(slabIndex) == null) {
+                slabIndex--;
+            }
+        }
+        ByteBuffer slab = donor.slabs.get(slabIndex);
+        if (recipient.slabs.indexOf(null) < 0
+                && (long) (recipient.slabs.size() + 1) * recipient.chunksPerSlab > CHUNK_MASK) {
+            return false;
+        }
+        int firstChunk = slabIndex * donor.chunksPerSlab;
+        for (int chunk = firstChunk; chunk < firstChunk + donor.chunksPerSlab; chunk++) {
+            if (donor.getInt(chunk, LENGTH_OFFSET) >= 0) {
+                evict(donor, chunk);
+                donor.putInt(chunk, LENGTH_OFFSET, -1);
+            }
+        }
+        donor.slabs.set(slabIndex, null);
+        donor.rebuildFreeList();
+        recipient.addSlab(slab);
+        return true;
+    }
+
+    private void evict(SlabClass slabClass, int chunk) {
+        removeHandle(slabClass.getInt(chunk, HASH_OFFSET), (slabClass.index << CLASS_SHIFT) | chunk);
+        slabClass.unlink(chunk);
+        statsCounter.recordEviction(slabClass.getInt(chunk, LENGTH_OFFSET));
+    }
+
+    @Nullable
+    private SlabClass findClass(int length) {
+        length += HEADER_SIZE;
+        for (SlabClass slabClass : classes) {
+            if (slabClass.chunkSize >= length) {
+                return slabClass;
+            }
+        }
+        return null;
+    }
+
+    private int indexOf(Object key) {
+        Object[] keys = tableKeys;
+        int mask = keys.length - 1;
+        int i = spread(key.hashCode()) & mask;
+        while (true) {
+            Object k = keys[i];
+            if (k == null) {
+                return -1;
+            }
+            if (k.equals(key)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void insertKey(Object key, int hash, int handle) {
+        if ((count + 1) * 4 > tableKeys.length * 3) {
+            resizeTable(tableKeys.length * 2);
+        }
+        int mask = tableKeys.length - 1;
+        int i = spread(hash) & mask;
+        while (tableKeys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        tableKeys[i] = key;
+        tableHandles[i] = handle;
+        count++;
+    }
+
+    /**
+     * Removes the key of an evicted chunk, found by its hash and handle without keeping the key off the table
+     */
+    private void removeHandle(int hash, int handle) {
+        int mask = tableKeys.length - 1;
+        for (int i = spread(hash) & mask; tableKeys[i] != null; i = (i + 1) & mask) {
+            if (tableHandles[i] == handle) {
+                removeAt(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes the key with backward shift of following keys of the probe sequence
+     */
+    private void removeAt(int i) {
+        Object[] keys = tableKeys;
+        int mask = keys.length - 1;
+        keys[i] = null;
+        count--;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            Object k = keys[j];
+            if (k == null) {
+                return;
+            }
+            int home = spread(k.hashCode()) & mask;
+            if (j > i ? (home <= i || home > j) : (home <= i && home > j)) {
+                keys[i] = k;
+                tableHandles[i] = tableHandles[j];
+                keys[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    private void resizeTable(int capacity) {
+        Object[] oldKeys = tableKeys;
+        int[] oldHandles = tableHandles;
+        tableKeys = new Object[capacity];
+        tableHandles = new int[capacity];
+        count = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                insertKey(oldKeys[i], oldKeys[i].hashCode(), oldHandles[i]);
+            }
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Returns the number of entries
+     */
+    @Override
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Returns the size of allocated off-heap memory
+     */
+    public synchronized long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the number of evicted entries, truncated to int, or 0 if statistics are {@link StatsCounter#DISABLED}
+     */
+    public int evictionCount() {
+        return (int) stats().evictionCount();
+    }
+
+    /**
+     * Removes all entries, allocated memory is kept for reuse
+     */
+    @Override
+    public synchronized void clear() {
+        for (SlabClass slabClass : classes) {
+            for (int chunk = slabClass.lruHead; chunk != NONE; ) {
+                int nextChunk = slabClass.getInt(chunk, NEXT_OFFSET);
+                slabClass.release(chunk);
+                chunk = nextChunk;
+            }
+            slabClass.lruHead = NONE;
+            slabClass.lruTail = NONE;
+        }
+        Arrays.fill(tableKeys, null);
+        count = 0;
+    }
+
+    @Override
+    public Object getSyncLock() {
+        return this;
+    }
+
+    /**
+     * Returns a snapshot of statistics recorded by {@link ConcurrentStatsCounter} unless another counter is set,
+     * eviction weights are sizes of encoded values
+     */
+    @NonNull
+    @Override
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    /**
+     * Set a counter to record statistics to, {@link StatsCounter#DISABLED} removes statistics overhead
+     */
+    public OffHeapCache<K, V> setStatsCounter(@NonNull StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+        return this;
+    }
+
+    @Override
+    public boolean isQuick() {
+        return true;
+    }
+
+    @Override
+    public boolean isCacheControlSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        CacheStats stats = stats();
+        long accesses = stats.requestCount();
+        int hitPercent = accesses != 0 ? (int) (100 * stats.hitCount() / accesses) : 0;
+        return String.format(Locale.US, "OffHeapCache[maxBytes=%d,allocated=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxBytes, allocatedBytes, stats.hitCount(), stats.missCount(), hitPercent);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Cache looking up values without creating missing ones or recording statistics,
+ * e.g. to check which keys are already cached
+ */
+public interface PeekableCache<K, V> {
+
+    @Nullable
+    V peek(K key);
+
+    /**
+     * Returns values of cached keys, keys of missing values are absent in the result
+     */
+    @NonNull
+    Map<K, V> peekAll(@NonNull Collection<? extends K> keys);
+
+    /**
+     * Returns entries of cached keys, keys of missing values are absent in the result
+     */
+    @NonNull
+    Map<K, Cache.Entry<V>> peekEntries(@NonNull Collection<? extends K> keys);
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Cache of a few latest key-value pairs, for keys that alternate like the current and previous page where
+ * {@link SingleValueCache} would thrash. Entries are kept in an immutable array which writers replace with
+ * compare-and-set, so reads take no lock. A full cache evicts by CLOCK: the hand skips entries read since
+ * it passed them last time.
+ */
+public class RecentValuesCache<K, V> extends AbstractCache<K, V> {
+
+    public static final int MIN_CAPACITY = 2;
+    public static final int MAX_CAPACITY = 16;
+
+    private static final class Slot<K, V> {
+        final K key;
+        final V value;
+        final long timestamp;
+
+        Slot(K key, V value, long timestamp) {
+            this.key = key;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private static final class State<K, V> {
+        final Slot<K, V>[] slots;
+        final int hand;
+
+        State(Slot<K, V>[] slots, int hand) {
+            this.slots = slots;
+            this.hand = hand;
+        }
+    }
+
+    private final int capacity;
+    private final AtomicReference<State<K, V>> state;
+    /**
+     * Reference bits of slots, set by reads and cleared by the CLOCK hand. They are not published with
+     * the slots, so a bit may be given to the next entry of a slot, which is fine for an approximation.
+     */
+    private final AtomicInteger referencedSlots = new AtomicInteger();
+    private volatile StatsCounter statsCounter = new ConcurrentStatsCounter();
+
+    public static <K, V> RecentValuesCache<K, V> newCache(int capacity) {
+        return new RecentValuesCache<>(capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    public RecentValuesCache(int capacity) {
+        if (capacity < MIN_CAPACITY || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be from " + MIN_CAPACITY + " to " + MAX_CAPACITY);
+        }
+        this.capacity = capacity;
+        this.state = new AtomicReference<>(new State<>((Slot<K, V>[]) new Slot<?, ?>[capacity], 0));
+    }
+
+    @Override
+    public V get(K key) {
+        Slot<K, V> slot = findSlot(key);
+        return slot != null ? slot.value : null;
+    }
+
+    @Nullable
+    @Override
+    public Entry<V> getEntry(K key) {
+        Slot<K, V> slot = findSlot(key);
+        return slot != null ? new Entry<>(slot.value, slot.timestamp) : null;
+    }
+
+    /**
+     * Returns the timestamp of the value of {@code key} without counting a request and marking it referenced
+     */
+    @Override
+    public long getTimestamp(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        for (Slot<K, V> slot : state.get().slots) {
+            if (slot != null && key.equals(slot.key)) {
+                return slot.timestamp;
+            }
+        }
+        return NO_TIMESTAMP;
+    }
+
+    private Slot<K, V> findSlot(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Slot<K, V>[] slots = state.get().slots;
+        for (int i = 0; i < slots.length; i++) {
+            Slot<K, V> slot = slots[i];
+            if (slot != null && key.equals(slot.key)) {
+                markReferenced(1 << i);
+                statsCounter.recordHit();
+                return slot;
+            }
+        }
+        statsCounter.recordMiss();
+        return null;
+    }
+
+    private void markReferenced(int bit) {
+        while (true) {
+            int bits = referencedSlots.get();
+            if ((bits & bit) != 0 || referencedSlots.compareAndSet(bits, bits | bit)) {
+                return;
+            }
+        }
+    }
+
+    private void clearReferenced(int mask) {
+        while (true) {
+            int bits = referencedSlots.get();
+            if ((bits & mask) == 0 || referencedSlots.compareAndSet(bits, bits & ~mask)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return put(key, new Entry<>(value, currentTimeMillis()));
+    }
+
+    @Override
+    public V put(K key, @NonNull Entry<V> entry) {
+        if (key == null || entry.getValue() == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        Slot<K, V> newSlot = new Slot<>(key, entry.getValue(), entry.getTimestamp());
+        while (true) {
+            State<K, V> current = state.get();
+            Slot<K, V>[] slots = current.slots;
+            int index = -1;
+            int hand = current.hand;
+            int skippedBits = 0;
+            for (int i = 0; i < capacity; i++) {
+                Slot<K, V> slot = slots[i];
+                if (slot != null && key.equals(slot.key)) {
+                    index = i;
+                    break;
+                }
+                if (slot == null && index < 0) {
+                    index = i;
+                }
+            }
+            if (index < 0) {
+                // CLOCK: skip referenced slots clearing their bits, at most one full turn
+                int bits = referencedSlots.get();
+                for (int i = 0; i < capacity; i++) {
+                    int bit = 1 << hand;
+                    if ((bits & bit) == 0) {
+                        break;
+                    }
+                    skippedBits |= bit;
+                    hand = (hand + 1) % capacity;
+                }
+                index = hand;
+                hand = (hand + 1) % capacity;
+            }
+            Slot<K, V>[] newSlots = slots.clone();
+            newSlots[index] = newSlot;
+            if (state.compareAndSet(current, new State<>(newSlots, hand))) {
+                statsCounter.recordPut();
+                Slot<K, V> oldSlot = slots[index];
+                if (oldSlot != null && key.equals(oldSlot.key)) {
+                    entryRemoved(false, key, oldSlot.value, newSlot.value);
+                    return oldSlot.value;
+                }
+                clearReferenced(skippedBits | (1 << index)); // a new key starts unreferenced
+                if (oldSlot == null) {
+                    return null;
+                }
+                statsCounter.recordEviction(1);
+                entryRemoved(true, oldSlot.key, oldSlot.value, null);
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        while (true) {
+            State<K, V> current = state.get();
+            Slot<K, V>[] slots = current.slots;
+            int index = -1;
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] != null && key.equals(slots[i].key)) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return null;
+            }
+            Slot<K, V>[] newSlots = slots.clone();
+            newSlots[index] = null;
+            if (state.compareAndSet(current, new State<>(newSlots, current.hand))) {
+                Slot<K, V> oldSlot = slots[index];
+                entryRemoved(false, key, oldSlot.value, null);
+                return oldSlot.value;
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void clear() {
+        State<K, V> previous = state.getAndSet(new State<>((Slot<K, V>[]) new Slot<?, ?>[capacity], 0));
+        referencedSlots.set(0);
+        for (Slot<K, V> slot : previous.slots) {
+            if (slot != null) {
+                entryRemoved(true, slot.key, slot.value, null);
+            }
+        }
+    }
+
+    /**
+     * Called without synchronization for entries that have been evicted, removed or replaced
+     *
+     * @see LruCache#entryRemoved
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Slot<K, V> slot : state.get().slots) {
+            if (slot != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    @NonNull
+    @Override
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    /**
+     * Set a counter to record statistics to, {@link StatsCounter#DISABLED} removes statistics overhead
+     */
+    public RecentValuesCache<K, V> setStatsCounter(@NonNull StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+        return this;
+    }
+
+    /**
+     * Operations of this cache are not synchronized on the returned object, writers use compare-and-set
+     */
+    @Override
+    public Object getSyncLock() {
+        return this;
+    }
+
+    @Override
+    public boolean isQuick() {
+        return true;
+    }
+
+    @Override
+    public boolean isCacheControlSupported() {
+        return true;
+    }
+}
@@ -18,17 +18,23 @@ package com.shkil.android.util.cache;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
 import static java.lang.System.currentTimeMillis;
 
 /**
  * Implementation of cache to keep one latest pair of key-value
  */
-public class SingleValueCache<K, V> implements Cache<K, V> {
+public class SingleValueCache<K, V> extends AbstractCache<K, V> {
 
     private volatile K key;
     private volatile V value;
     private volatile long timestamp;
 
+    private volatile StatsCounter statsCounter = new ConcurrentStatsCounter();
+
     public static <K, V> SingleValueCache<K, V> newCache() {
         return new SingleValueCache<>();
     }
@@ -38,19 +44,46 @@ public class SingleValueCache<K, V> implements Cache<K, V> {
         if (key == null) {
             throw new NullPointerException("key == null");
         }
+        V value;
         synchronized (getSyncLock()) {
-            return key.equals(this.key) ? this.value : null;
+            value = key.equals(this.key) ? this.value : null;
+        }
+        if (value != null) {
+            statsCounter.recordHit();
+        } else {
+            statsCounter.recordMiss();
         }
+        return value;
     }
 
     @Override
     @Nullable
     public Entry<V> getEntry(K key) {
-        V value = get(key);
-        if (value != null) {
-            return new Entry<>(value, timestamp);
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Entry<V> entry = null;
+        synchronized (getSyncLock()) {
+            if (key.equals(this.key) && this.value != null) {
+                entry = new Entry<>(this.value, timestamp);
+            }
+        }
+        if (entry != null) {
+            statsCounter.recordHit();
+        } else {
+            statsCounter.recordMiss();
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the timestamp of the value of {@code key} without counting a request
+     */
+    @Override
+    public long getTimestamp(K key) {
+        synchronized (getSyncLock()) {
+            return key.equals(this.key) && this.value != null ? timestamp : NO_TIMESTAMP;
         }
-        return null;
     }
 
     @Override
@@ -62,6 +95,7 @@ public class SingleValueCache<K, V> implements Cache<K, V> {
         K removedKey;
         V removedValue;
         boolean evicted;
+        statsCounter.recordPut();
         synchronized (getSyncLock()) {
             this.timestamp = currentTimeMillis();
             if (key.equals(this.key)) {
@@ -82,6 +116,9 @@ public class SingleValueCache<K, V> implements Cache<K, V> {
             this.value = value;
         }
         if (removedKey != null) {
+            if (evicted && removedValue != null) {
+                statsCounter.recordEviction(1);
+            }
             entryRemoved(evicted, removedKey, removedValue, null);
         }
         return oldValue;
@@ -96,6 +133,62 @@ public class SingleValueCache<K, V> implements Cache<K, V> {
         }
     }
 
+    @NonNull
+    @Override
+    public Map<K, V> getAll(@NonNull Collection<? extends K> keys) {
+        synchronized (getSyncLock()) {
+            K key = this.key;
+            V value = this.value;
+            if (key != null && value != null && keys.contains(key)) {
+                return Collections.singletonMap(key, value);
+            }
+        }
+        return Collections.emptyMap();
+    }
+
+    @NonNull
+    @Override
+    public Map<K, Entry<V>> getEntries(@NonNull Collection<? extends K> keys) {
+        synchronized (getSyncLock()) {
+            K key = this.key;
+            V value = this.value;
+            if (key != null && value != null && keys.contains(key)) {
+                return Collections.singletonMap(key, new Entry<>(value, timestamp));
+            }
+        }
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Only the last of {@code values} is kept, the others would replace each other
+     */
+    @Override
+    public void putAll(@NonNull Map<? extends K, ? extends V> values) {
+        Map.Entry<? extends K, ? extends V> last = null;
+        for (Map.Entry<? extends K, ? extends V> entry : values.entrySet()) {
+            last = entry;
+        }
+        if (last != null) {
+            put(last.getKey(), last.getValue());
+        }
+    }
+
+    @Override
+    public void removeAll(@NonNull Collection<? extends K> keys) {
+        K removedKey = null;
+        V removedValue = null;
+        synchronized (getSyncLock()) {
+            if (this.key != null && keys.contains(this.key)) {
+                removedKey = this.key;
+                removedValue = this.value;
+                this.value = null;
+            }
+        }
+        if (removedValue != null) {
+            entryRemoved(false, removedKey, removedValue, null);
+        }
+    }
+
     @Override
     public void clear() {
         K oldKey;
@@ -116,6 +209,23 @@ public class SingleValueCache<K, V> implements Cache<K, V> {
         return this;
     }
 
+    /**
+     * Returns a snapshot of statistics, a value replaced by a value of another key is counted as evicted
+     */
+    @NonNull
+    @Override
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    /**
+     * Set a counter to record statistics to, {@link StatsCounter#DISABLED} removes statistics overhead
+     */
+    public SingleValueCache<K, V> setStatsCounter(@NonNull StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+        return this;
+    }
+
     @Override
     public boolean isQuick() {
         return true;
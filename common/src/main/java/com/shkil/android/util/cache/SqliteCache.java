@@ -0,0 +1,580 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteStatement;
+import android.os.AsyncTask;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.shkil.android.util.io.Codec;
+import com.shkil.android.util.io.Codecs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Persistent LRU cache keeping entries in a table of an SQLite database, for many small values like
+ * rows of structured data. Keys and values are encoded by codecs and stored as blobs with entry
+ * timestamps, so entries can be checked by {@link CacheControl}.
+ * <p/>
+ * <p>Writes are buffered in memory, where reads see them, and written in one transaction per batch on
+ * an executor, or on the writing thread when a batch is full. Access times of read entries are updated
+ * with the next batch, and the least recently accessed entries are evicted by an index on access time.
+ * After a failed transaction, batches are written on the executor only, and a batch failing
+ * {@link #MAX_FLUSH_ATTEMPTS} times in a row is dropped, so a broken database does not keep writes in memory.
+ * Writes use precompiled statements, reads use one SQL string, which SQLite connections keep compiled.
+ * <p/>
+ * <p>Intended to be used as a secondary cache of {@link com.shkil.android.util.concurrent.QueueFetcher},
+ * reads may perform I/O and must not be called on the main thread.
+ * {@link #put} and {@link #remove} do not read previous values and always return {@code null}.
+ */
+public class SqliteCache<K, V> extends AbstractCache<K, V> {
+
+    private static final String TAG = "SqliteCache";
+
+    public static final String DEFAULT_TABLE = "cache";
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    public static final int MAX_FLUSH_ATTEMPTS = 3;
+
+    private static final int EVICTION_BATCH_SIZE = 32;
+
+    private final SQLiteDatabase database;
+    private final String table;
+    private final long maxBytes;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final Executor executor;
+    private final int batchSize;
+    private final StatsCounter statsCounter = new ConcurrentStatsCounter();
+
+    private final Object lock = new Object();
+
+    /**
+     * Writes not committed yet by encoded keys, null values mark removals
+     */
+    @GuardedBy("lock")
+    private final Map<ByteBuffer, PendingWrite> pendingWrites = new LinkedHashMap<>();
+
+    /**
+     * Access times of read entries by encoded keys
+     */
+    @GuardedBy("lock")
+    private Map<ByteBuffer, Long> pendingAccesses = new HashMap<>();
+
+    @GuardedBy("lock")
+    private boolean flushScheduled;
+
+    /**
+     * Number of flushes failed in a row
+     */
+    @GuardedBy("lock")
+    private int failedFlushCount;
+
+    private final Object flushLock = new Object();
+
+    private volatile boolean prepared;
+
+    @GuardedBy("flushLock")
+    private long bytes;
+
+    @GuardedBy("flushLock")
+    private SQLiteStatement insertStatement;
+    @GuardedBy("flushLock")
+    private SQLiteStatement deleteStatement;
+    @GuardedBy("flushLock")
+    private SQLiteStatement touchStatement;
+    @GuardedBy("flushLock")
+    private SQLiteStatement sizeStatement;
+
+    private final String selectSql;
+    private final String eldestSql;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private static final class PendingWrite {
+        @Nullable
+        final byte[] value;
+        final long timestamp;
+
+        PendingWrite(@Nullable byte[] value, long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * Opens a database of the file with write-ahead logging, so reads are not blocked by writes
+     */
+    public static <V> SqliteCache<String, V> open(File file, long maxBytes, Codec<V> valueCodec) {
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(file, null);
+        database.enableWriteAheadLogging();
+        return new SqliteCache<>(database, DEFAULT_TABLE, maxBytes, Codecs.STRING, valueCodec,
+                AsyncTask.SERIAL_EXECUTOR, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param table     name of the table of entries, created if it does not exist
+     * @param maxBytes  maximum total size of values
+     * @param executor  serial executor of batch writes
+     * @param batchSize number of pending writes flushed on the writing thread
+     */
+    public SqliteCache(@NonNull SQLiteDatabase database, @NonNull String table, long maxBytes,
+                       @NonNull Codec<K> keyCodec, @NonNull Codec<V> valueCodec,
+                       @NonNull Executor executor, int batchSize) {
+        if (maxBytes <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("maxBytes <= 0 || batchSize <= 0");
+        }
+        this.database = database;
+        this.table = table;
+        this.maxBytes = maxBytes;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.selectSql = "SELECT value, timestamp FROM " + table + " WHERE key = ?";
+        this.eldestSql = "SELECT key, size FROM " + table + " ORDER BY access_time LIMIT " + EVICTION_BATCH_SIZE;
+    }
+
+    @Override
+    public V get(K key) {
+        Entry<V> entry = getEntry(key);
+        return entry != null ? entry.getValue() : null;
+    }
+
+    @Nullable
+    @Override
+    public Entry<V> getEntry(K key) {
+        ByteBuffer keyData = encodeKey(key);
+        if (keyData == null) {
+            return null;
+        }
+        byte[] data = null;
+        long timestamp = 0;
+        boolean pending = false;
+        synchronized (lock) {
+            PendingWrite write = pendingWrites.get(keyData);
+            if (write != null) {
+                data = write.value;
+                timestamp = write.timestamp;
+                pending = true;
+            }
+        }
+        if (!pending) {
+            ensurePrepared();
+            Cursor cursor = null;
+            try {
+                cursor = database.rawQueryWithFactory(new BlobKeyCursorFactory(keyData.array()), selectSql, null, table);
+                if (cursor.moveToFirst()) {
+                    data = cursor.getBlob(0);
+                    timestamp = cursor.getLong(1);
+                }
+            } catch (SQLiteException ex) {
+                Log.w(TAG, "Error reading entry " + key, ex);
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+        if (data == null) {
+            statsCounter.recordMiss();
+            return null;
+        }
+        V value;
+        try {
+            value = valueCodec.decode(data, 0, data.length);
+        } catch (IOException ex) {
+            Log.w(TAG, "Error decoding entry " + key, ex);
+            remove(key);
+            statsCounter.recordMiss();
+            return null;
+        }
+        statsCounter.recordHit();
+        synchronized (lock) {
+            pendingAccesses.put(keyData, currentTimeMillis());
+        }
+        return new Entry<>(value, timestamp);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return put(key, new Entry<>(value, currentTimeMillis()));
+    }
+
+    @Override
+    public V put(K key, @NonNull Entry<V> entry) {
+        if (key == null || entry.getValue() == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        ByteBuffer keyData = encodeKey(key);
+        if (keyData == null) {
+            return null;
+        }
+        byte[] data;
+        try {
+            data = valueCodec.encode(entry.getValue());
+        } catch (IOException ex) {
+            Log.w(TAG, "Error encoding value of " + key, ex);
+            addPendingWrite(keyData, new PendingWrite(null, 0));
+            return null;
+        }
+        if (data.length > maxBytes) {
+            Log.w(TAG, "Value is too large to be cached: " + key);
+            data = null;
+        }
+        statsCounter.recordPut();
+        addPendingWrite(keyData, new PendingWrite(data, entry.getTimestamp()));
+        return null;
+    }
+
+    @Override
+    public V remove(K key) {
+        ByteBuffer keyData = encodeKey(key);
+        if (keyData != null) {
+            addPendingWrite(keyData, new PendingWrite(null, 0));
+        }
+        return null;
+    }
+
+    /**
+     * Writes all values in one batch
+     */
+    @Override
+    public void putAll(@NonNull Map<? extends K, ? extends V> values) {
+        super.putAll(values);
+        flush();
+    }
+
+    /**
+     * Removes all keys in one batch
+     */
+    @Override
+    public void removeAll(@NonNull Collection<? extends K> keys) {
+        super.removeAll(keys);
+        flush();
+    }
+
+    private void addPendingWrite(ByteBuffer keyData, PendingWrite write) {
+        boolean flushNow = false;
+        boolean schedule = false;
+        synchronized (lock) {
+            pendingWrites.put(keyData, write);
+            if (pendingWrites.size() >= batchSize && failedFlushCount == 0) {
+                flushNow = true;
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                schedule = true;
+            }
+        }
+        if (flushNow) {
+            flush();
+        } else if (schedule) {
+            executor.execute(flushRunnable);
+        }
+    }
+
+    /**
+     * Writes pending writes and access times in one transaction and evicts entries over the size limit.
+     * If the transaction fails, they stay pending and are written by the next flush, unless it is
+     * the {@link #MAX_FLUSH_ATTEMPTS}-th failure in a row, then they are dropped.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<ByteBuffer, PendingWrite> writes;
+            Map<ByteBuffer, Long> accesses;
+            synchronized (lock) {
+                flushScheduled = false;
+                if (pendingWrites.isEmpty() && pendingAccesses.isEmpty()) {
+                    return;
+                }
+                // pending writes stay visible to readers until they are committed
+                writes = new LinkedHashMap<>(pendingWrites);
+                accesses = pendingAccesses;
+                pendingAccesses = new HashMap<>();
+            }
+            ensurePrepared();
+            long now = currentTimeMillis();
+            long newBytes = bytes;
+            boolean committed = false;
+            boolean dropped = false;
+            try {
+                database.beginTransaction();
+                try {
+                    for (Map.Entry<ByteBuffer, PendingWrite> entry : writes.entrySet()) {
+                        byte[] key = entry.getKey().array();
+                        PendingWrite write = entry.getValue();
+                        newBytes -= delete(key);
+                        if (write.value != null) {
+                            insertStatement.bindBlob(1, key);
+                            insertStatement.bindBlob(2, write.value);
+                            insertStatement.bindLong(3, write.timestamp);
+                            insertStatement.bindLong(4, now);
+                            insertStatement.bindLong(5, write.value.length);
+                            insertStatement.executeInsert();
+                            newBytes += write.value.length;
+                        }
+                    }
+                    for (Map.Entry<ByteBuffer, Long> entry : accesses.entrySet()) {
+                        touchStatement.bindLong(1, entry.getValue());
+                        touchStatement.bindBlob(2, entry.getKey().array());
+                        touchStatement.executeUpdateDelete();
+                    }
+                    newBytes = trimToSize(newBytes);
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+                bytes = newBytes;
+                committed = true;
+            } catch (SQLiteException ex) {
+                Log.w(TAG, "Error writing " + writes.size() + " entries", ex);
+            } finally {
+                synchronized (lock) {
+                    failedFlushCount = committed ? 0 : failedFlushCount + 1;
+                    if (failedFlushCount >= MAX_FLUSH_ATTEMPTS) {
+                        failedFlushCount = 0;
+                        dropped = true;
+                    }
+                    if (committed || dropped) {
+                        for (Map.Entry<ByteBuffer, PendingWrite> entry : writes.entrySet()) {
+                            if (pendingWrites.get(entry.getKey()) == entry.getValue()) {
+                                pendingWrites.remove(entry.getKey());
+                            }
+                        }
+                    } else {
+                        // the batch is retried by the next flush, access times recorded since are newer
+                        for (Map.Entry<ByteBuffer, Long> entry : accesses.entrySet()) {
+                            if (!pendingAccesses.containsKey(entry.getKey())) {
+                                pendingAccesses.put(entry.getKey(), entry.getValue());
+                            }
+                        }
+                    }
+                }
+            }
+            if (dropped) {
+                Log.w(TAG, "Dropped " + writes.size() + " entries failed to be written "
+                        + MAX_FLUSH_ATTEMPTS + " times");
+            }
+        }
+    }
+
+    /**
+     * @return size of the deleted value
+     */
+    @GuardedBy("flushLock")
+    private long delete(byte[] key) {
+        long size;
+        try {
+            sizeStatement.bindBlob(1, key);
+            size = sizeStatement.simpleQueryForLong();
+        } catch (SQLiteDoneException ex) {
+            return 0; // no entry
+        }
+        deleteStatement.bindBlob(1, key);
+        deleteStatement.executeUpdateDelete();
+        return size;
+    }
+
+    /**
+     * Deletes the least recently accessed entries until their total size is at most {@code maxBytes}
+     *
+     * @return total size of remaining values
+     */
+    @GuardedBy("flushLock")
+    private long trimToSize(long bytes) {
+        while (bytes > maxBytes) {
+            Cursor cursor = database.rawQuery(eldestSql, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    return 0;
+                }
+                do {
+                    deleteStatement.bindBlob(1, cursor.getBlob(0));
+                    deleteStatement.executeUpdateDelete();
+                    bytes -= cursor.getLong(1);
+                } while (bytes > maxBytes && cursor.moveToNext());
+            } finally {
+                cursor.close();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Creates the table if needed and compiles statements
+     */
+    private void ensurePrepared() {
+        if (prepared) {
+            return;
+        }
+        synchronized (flushLock) {
+            if (prepared) {
+                return;
+            }
+            database.execSQL("CREATE TABLE IF NOT EXISTS " + table + " (key BLOB PRIMARY KEY,"
+                    + " value BLOB NOT NULL, timestamp INTEGER NOT NULL, access_time INTEGER NOT NULL,"
+                    + " size INTEGER NOT NULL)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS " + table + "_access_time ON " + table + " (access_time)");
+            insertStatement = database.compileStatement("INSERT INTO " + table
+                    + " (key, value, timestamp, access_time, size) VALUES (?, ?, ?, ?, ?)");
+            deleteStatement = database.compileStatement("DELETE FROM " + table + " WHERE key = ?");
+            touchStatement = database.compileStatement("UPDATE " + table + " SET access_time = ? WHERE key = ?");
+            sizeStatement = database.compileStatement("SELECT size FROM " + table + " WHERE key = ?");
+            bytes = DatabaseUtils.longForQuery(database, "SELECT COALESCE(SUM(size), 0) FROM " + table, null);
+            prepared = true;
+        }
+    }
+
+    @Nullable
+    private ByteBuffer encodeKey(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        try {
+            return ByteBuffer.wrap(keyCodec.encode(key));
+        } catch (IOException ex) {
+            Log.w(TAG, "Error encoding key " + key, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of entries, pending writes are flushed first
+     */
+    @Override
+    public int size() {
+        flush();
+        ensurePrepared();
+        return (int) DatabaseUtils.queryNumEntries(database, table);
+    }
+
+    /**
+     * Returns the total size of values, pending writes are flushed first
+     */
+    public long sizeBytes() {
+        flush();
+        ensurePrepared();
+        synchronized (flushLock) {
+            return bytes;
+        }
+    }
+
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public void clear() {
+        ensurePrepared();
+        synchronized (flushLock) {
+            synchronized (lock) {
+                pendingWrites.clear();
+                pendingAccesses.clear();
+            }
+            try {
+                database.delete(table, null, null);
+                bytes = 0;
+            } catch (SQLiteException ex) {
+                Log.w(TAG, "Error clearing " + table, ex);
+            }
+        }
+    }
+
+    /**
+     * Flushes pending writes and closes the database
+     */
+    public void close() {
+        flush();
+        synchronized (flushLock) {
+            if (prepared) {
+                insertStatement.close();
+                deleteStatement.close();
+                touchStatement.close();
+                sizeStatement.close();
+                prepared = false;
+            }
+            database.close();
+        }
+    }
+
+    /**
+     * Operations of this cache are not synchronized on the returned object, so holding it while calling
+     * them, which may flush on the calling thread, can't deadlock with flushes on the executor
+     */
+    @Override
+    public Object getSyncLock() {
+        return this;
+    }
+
+    @NonNull
+    @Override
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    @Override
+    public boolean isQuick() {
+        return false;
+    }
+
+    @Override
+    public boolean isCacheControlSupported() {
+        return true;
+    }
+
+    /**
+     * Binds a blob key to the query, selection arguments of {@link SQLiteDatabase#rawQuery} can only be strings
+     */
+    private static class BlobKeyCursorFactory implements SQLiteDatabase.CursorFactory {
+        private final byte[] key;
+
+        BlobKeyCursorFactory(byte[] key) {
+            this.key = key;
+        }
+
+        @Override
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable, SQLiteQuery query) {
+            query.bindBlob(1, key);
+            return new SQLiteCursor(driver, editTable, query);
+        }
+    }
+}
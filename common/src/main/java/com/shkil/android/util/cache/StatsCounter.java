@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Accumulates statistics of a cache. Methods are called without cache synchronization.
+ *
+ * @see ConcurrentStatsCounter
+ */
+public interface StatsCounter {
+
+    /**
+     * Counter that records nothing, to remove statistics overhead
+     */
+    StatsCounter DISABLED = new StatsCounter() {
+        @Override
+        public void recordHit() {
+        }
+
+        @Override
+        public void recordMiss() {
+        }
+
+        @Override
+        public void recordPut() {
+        }
+
+        @Override
+        public void recordLoadSuccess(long loadTimeNanos) {
+        }
+
+        @Override
+        public void recordLoadFailure(long loadTimeNanos) {
+        }
+
+        @Override
+        public void recordEviction(int weight) {
+        }
+
+        @Override
+        public void recordExpiration() {
+        }
+
+        @Override
+        public void recordRejection() {
+        }
+
+        @Override
+        public void recordResurrection() {
+        }
+
+        @NonNull
+        @Override
+        public CacheStats snapshot() {
+            return CacheStats.EMPTY;
+        }
+    };
+
+    void recordHit();
+
+    void recordMiss();
+
+    void recordPut();
+
+    void recordLoadSuccess(long loadTimeNanos);
+
+    void recordLoadFailure(long loadTimeNanos);
+
+    void recordEviction(int weight);
+
+    /**
+     * Records an evicted entry that has expired, it is recorded by {@link #recordEviction} as well
+     */
+    void recordExpiration();
+
+    /**
+     * Records a new entry evicted since the admission policy preferred the entries already cached
+     */
+    void recordRejection();
+
+    /**
+     * Records a hit served by an evicted value that was still reachable
+     */
+    void recordResurrection();
+
+    @NonNull
+    CacheStats snapshot();
+}
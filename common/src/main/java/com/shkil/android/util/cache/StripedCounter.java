@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Long counter spread over padded cells selected by thread, so concurrent updates rarely contend.
+ * Cells are allocated on the first contended update, until then the counter costs a single field
+ */
+final class StripedCounter {
+
+    static final int STRIPES;
+    private static final int STRIPE_MASK;
+    private static final int PADDING = 8; // longs per cache line
+
+    static {
+        int stripes = 1;
+        int target = Math.min(16, 2 * Runtime.getRuntime().availableProcessors());
+        while (stripes < target) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+        STRIPE_MASK = stripes - 1;
+    }
+
+    private static final AtomicLongFieldUpdater<StripedCounter> BASE =
+            AtomicLongFieldUpdater.newUpdater(StripedCounter.class, "base");
+    private static final AtomicReferenceFieldUpdater<StripedCounter, AtomicLongArray> CELLS =
+            AtomicReferenceFieldUpdater.newUpdater(StripedCounter.class, AtomicLongArray.class, "cells");
+
+    private volatile long base;
+    private volatile AtomicLongArray cells;
+
+    static int currentStripe() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9e3779b9;
+        return (hash >>> 16) & STRIPE_MASK;
+    }
+
+    void add(long delta) {
+        AtomicLongArray cells = this.cells;
+        if (cells == null) {
+            long base = this.base;
+            if (BASE.compareAndSet(this, base, base + delta)) {
+                return;
+            }
+            cells = expand();
+        }
+        cells.addAndGet(currentStripe() * PADDING, delta);
+    }
+
+    void increment() {
+        add(1);
+    }
+
+    private AtomicLongArray expand() {
+        AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+        return CELLS.compareAndSet(this, null, cells) ? cells : this.cells;
+    }
+
+    long sum() {
+        long sum = base;
+        AtomicLongArray cells = this.cells;
+        if (cells != null) {
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cells.get(i * PADDING);
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,557 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.os.AsyncTask;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.shkil.android.util.concurrent.MainThreadExecutor;
+import com.shkil.android.util.concurrent.ResultFuture;
+import com.shkil.android.util.concurrent.ResultFutureTask;
+import com.shkil.android.util.concurrent.ResultFutures;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Cache stacking tiers from the fastest to the slowest one. Lookups go down the tiers until a hit,
+ * which is promoted to all tiers above. Writes go to every tier, synchronously for
+ * {@link WritePolicy#WRITE_THROUGH} tiers or in order on the write executor for
+ * {@link WritePolicy#WRITE_BACK} ones.
+ * <p/>
+ * <p>Entries are moved between tiers with their timestamps, so {@link CacheControl} checks give the same
+ * status on any tier. Tiers that do not support cache control lose timestamps, entries read from them
+ * are stamped with the time they are read.
+ * <p/>
+ * <p>Until a removal or clear is applied to a write-back tier, the tier is not read for the removed keys,
+ * so removed values are not promoted back.
+ */
+public class TieredCache<K, V> extends AbstractCache<K, V> {
+
+    private static final String TAG = "TieredCache";
+
+    public enum WritePolicy {
+        /**
+         * Tier is written by the calling thread
+         */
+        WRITE_THROUGH,
+        /**
+         * Tier is written later on the write executor, writes are applied in order
+         */
+        WRITE_BACK
+    }
+
+    private static class Tier<K, V> {
+        final Cache<K, V> cache;
+        final WritePolicy writePolicy;
+        final StatsCounter statsCounter;
+
+        Tier(Cache<K, V> cache, WritePolicy writePolicy, StatsCounter statsCounter) {
+            this.cache = cache;
+            this.writePolicy = writePolicy;
+            this.statsCounter = statsCounter;
+        }
+    }
+
+    private final List<Tier<K, V>> tiers;
+    private final Executor writeExecutor;
+    private final Executor readExecutor;
+    private final StatsCounter statsCounter;
+
+    /**
+     * Keys with removals not yet applied to write-back tiers, and the number of such removals of each
+     */
+    @GuardedBy("this")
+    private final HashMap<K, Integer> pendingRemovals = new HashMap<>();
+
+    @GuardedBy("this")
+    private int pendingClears;
+
+    /**
+     * Sum of pending removals and clears, read without the lock while there are none
+     */
+    private volatile int pendingRemovalCount;
+
+    private TieredCache(Builder<K, V> builder) {
+        this.tiers = new ArrayList<>(builder.tiers);
+        this.writeExecutor = builder.writeExecutor != null ? builder.writeExecutor : AsyncTask.SERIAL_EXECUTOR;
+        this.readExecutor = builder.readExecutor != null ? builder.readExecutor : AsyncTask.THREAD_POOL_EXECUTOR;
+        this.statsCounter = builder.statsCounter != null ? builder.statsCounter : new ConcurrentStatsCounter();
+    }
+
+    public static <K, V> Builder<K, V> builder() {
+        return new Builder<>();
+    }
+
+    public static class Builder<K, V> {
+        private final List<Tier<K, V>> tiers = new ArrayList<>();
+        private Executor writeExecutor;
+        private Executor readExecutor;
+        private StatsCounter statsCounter;
+
+        /**
+         * Adds a {@link WritePolicy#WRITE_THROUGH} tier below the tiers added before
+         */
+        public Builder<K, V> addTier(@NonNull Cache<K, V> cache) {
+            return addTier(cache, WritePolicy.WRITE_THROUGH);
+        }
+
+        /**
+         * Adds a tier below the tiers added before
+         */
+        public Builder<K, V> addTier(@NonNull Cache<K, V> cache, @NonNull WritePolicy writePolicy) {
+            return addTier(cache, writePolicy, new ConcurrentStatsCounter());
+        }
+
+        /**
+         * Adds a tier below the tiers added before, recording its {@link #tierStats} to the counter.
+         * {@link StatsCounter#DISABLED} removes statistics overhead of the tier.
+         */
+        public Builder<K, V> addTier(@NonNull Cache<K, V> cache, @NonNull WritePolicy writePolicy,
+                                     @NonNull StatsCounter statsCounter) {
+            tiers.add(new Tier<>(cache, writePolicy, statsCounter));
+            return this;
+        }
+
+        /**
+         * Sets a serial executor of {@link WritePolicy#WRITE_BACK} writes, {@link AsyncTask#SERIAL_EXECUTOR} by default
+         */
+        public Builder<K, V> setWriteExecutor(@NonNull Executor writeExecutor) {
+            this.writeExecutor = writeExecutor;
+            return this;
+        }
+
+        /**
+         * Sets an executor of lower tier reads by {@link #getEntryAsync}, {@link AsyncTask#THREAD_POOL_EXECUTOR}
+         * by default
+         */
+        public Builder<K, V> setReadExecutor(@NonNull Executor readExecutor) {
+            this.readExecutor = readExecutor;
+            return this;
+        }
+
+        /**
+         * Sets a counter to record {@link #stats} to, {@link StatsCounter#DISABLED} removes statistics overhead
+         */
+        public Builder<K, V> setStatsCounter(@NonNull StatsCounter statsCounter) {
+            this.statsCounter = statsCounter;
+            return this;
+        }
+
+        public TieredCache<K, V> build() {
+            if (tiers.isEmpty()) {
+                throw new IllegalStateException("No tiers added");
+            }
+            return new TieredCache<>(this);
+        }
+    }
+
+    @Override
+    public V get(K key) {
+        Entry<V> entry = getEntry(key);
+        return entry != null ? entry.getValue() : null;
+    }
+
+    @Nullable
+    @Override
+    public Entry<V> getEntry(K key) {
+        return lookup(key, 0);
+    }
+
+    /**
+     * Reads quick tiers on the calling thread and, if they miss, the rest of tiers on the read executor.
+     * The result is null if no tier has the key.
+     */
+    @NonNull
+    public ResultFuture<Entry<V>> getEntryAsync(K key) {
+        return getEntryAsync(key, MainThreadExecutor.getInstance());
+    }
+
+    @NonNull
+    public ResultFuture<Entry<V>> getEntryAsync(final K key, @NonNull Executor resultExecutor) {
+        int tierCount = tiers.size();
+        int quickTierCount = 0;
+        while (quickTierCount < tierCount && tiers.get(quickTierCount).cache.isQuick()) {
+            quickTierCount++;
+        }
+        if (quickTierCount == tierCount) {
+            return ResultFutures.success(lookup(key, 0), resultExecutor);
+        }
+        if (quickTierCount > 0) {
+            Entry<V> entry = lookupTiers(key, 0, quickTierCount);
+            if (entry != null) {
+                statsCounter.recordHit();
+                return ResultFutures.success(entry, resultExecutor);
+            }
+        }
+        final int fromTier = quickTierCount;
+        return ResultFutureTask.execute(new Callable<Entry<V>>() {
+            @Override
+            public Entry<V> call() {
+                return lookup(key, fromTier);
+            }
+        }, readExecutor).getResultFuture(resultExecutor, false);
+    }
+
+    private Entry<V> lookup(K key, int fromTier) {
+        Entry<V> entry = lookupTiers(key, fromTier, tiers.size());
+        if (entry != null) {
+            statsCounter.recordHit();
+        } else {
+            statsCounter.recordMiss();
+        }
+        return entry;
+    }
+
+    /**
+     * Looks up tiers in the range and promotes a hit to all tiers above, including those before the range
+     */
+    private Entry<V> lookupTiers(K key, int fromTier, int toTier) {
+        for (int i = fromTier; i < toTier; i++) {
+            Tier<K, V> tier = tiers.get(i);
+            Entry<V> entry = isRemovalPending(tier, key) ? null : readEntry(tier.cache, key);
+            if (entry != null) {
+                tier.statsCounter.recordHit();
+                for (int j = i - 1; j >= 0; j--) {
+                    write(tiers.get(j), key, entry);
+                }
+                return entry;
+            }
+            tier.statsCounter.recordMiss();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the timestamp of the first tier having the key, without promoting it and counting a request.
+     * Tiers that do not support cache control give the current time, as their entries get when read.
+     */
+    @Override
+    public long getTimestamp(K key) {
+        for (int i = 0, count = tiers.size(); i < count; i++) {
+            Tier<K, V> tier = tiers.get(i);
+            if (isRemovalPending(tier, key)) {
+                continue;
+            }
+            long timestamp = tier.cache.getTimestamp(key);
+            if (timestamp != NO_TIMESTAMP) {
+                return tier.cache.isCacheControlSupported() ? timestamp : currentTimeMillis();
+            }
+        }
+        return NO_TIMESTAMP;
+    }
+
+    private static <K, V> Entry<V> readEntry(Cache<K, V> cache, K key) {
+        if (cache.isCacheControlSupported()) {
+            return cache.getEntry(key);
+        }
+        return Entry.of(cache.get(key), currentTimeMillis());
+    }
+
+    /**
+     * Puts the value with the current timestamp to every tier
+     *
+     * @return the previous value of the first tier
+     */
+    @Override
+    public V put(K key, V value) {
+        return put(key, new Entry<>(value, currentTimeMillis()));
+    }
+
+    @Override
+    public V put(K key, @NonNull Entry<V> entry) {
+        statsCounter.recordPut();
+        V previous = write(tiers.get(0), key, entry);
+        for (int i = 1, count = tiers.size(); i < count; i++) {
+            write(tiers.get(i), key, entry);
+        }
+        return previous;
+    }
+
+    private V write(Tier<K, V> tier, final K key, final Entry<V> entry) {
+        tier.statsCounter.recordPut();
+        final Cache<K, V> cache = tier.cache;
+        if (tier.writePolicy == WritePolicy.WRITE_THROUGH) {
+            return cache.put(key, entry);
+        }
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cache.put(key, entry);
+                } catch (RuntimeException ex) {
+                    Log.e(TAG, "Error writing back value", ex);
+                }
+            }
+        });
+        return null;
+    }
+
+    /**
+     * Removes the key from every tier
+     *
+     * @return the previous value of the first tier
+     */
+    @Override
+    public V remove(final K key) {
+        boolean writeBack = hasWriteBackTiers();
+        if (writeBack) {
+            synchronized (this) {
+                Integer count = pendingRemovals.get(key);
+                pendingRemovals.put(key, count != null ? count + 1 : 1);
+                pendingRemovalCount++;
+            }
+        }
+        V previous = null;
+        for (int i = 0, count = tiers.size(); i < count; i++) {
+            final Cache<K, V> cache = tiers.get(i).cache;
+            if (tiers.get(i).writePolicy == WritePolicy.WRITE_THROUGH) {
+                V value = cache.remove(key);
+                if (i == 0) {
+                    previous = value;
+                }
+            } else {
+                writeExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            cache.remove(key);
+                        } catch (RuntimeException ex) {
+                            Log.e(TAG, "Error removing value", ex);
+                        }
+                    }
+                });
+            }
+        }
+        if (writeBack) {
+            // Queued after the removals, so the key is read again once they are all applied
+            writeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (TieredCache.this) {
+                        Integer count = pendingRemovals.remove(key);
+                        if (count > 1) {
+                            pendingRemovals.put(key, count - 1);
+                        }
+                        pendingRemovalCount--;
+                    }
+                }
+            });
+        }
+        return previous;
+    }
+
+    private boolean hasWriteBackTiers() {
+        for (int i = 0, count = tiers.size(); i < count; i++) {
+            if (tiers.get(i).writePolicy == WritePolicy.WRITE_BACK) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isRemovalPending(Tier<K, V> tier, K key) {
+        if (tier.writePolicy != WritePolicy.WRITE_BACK || pendingRemovalCount == 0) {
+            return false;
+        }
+        synchronized (this) {
+            return pendingClears > 0 || pendingRemovals.containsKey(key);
+        }
+    }
+
+    /**
+     * Looks up keys in batches tier by tier, only keys missed by a tier are looked up in the next one
+     */
+    @NonNull
+    @Override
+    public Map<K, Entry<V>> getEntries(@NonNull Collection<? extends K> keys) {
+        Map<K, Entry<V>> result = new HashMap<>(keys.size() * 4 / 3 + 1);
+        Collection<? extends K> missedKeys = keys;
+        for (int i = 0, count = tiers.size(); i < count && !missedKeys.isEmpty(); i++) {
+            Tier<K, V> tier = tiers.get(i);
+            Map<K, Entry<V>> found;
+            if (tier.cache.isCacheControlSupported()) {
+                found = tier.cache.getEntries(missedKeys);
+            } else {
+                Map<K, V> values = tier.cache.getAll(missedKeys);
+                found = new HashMap<>(values.size() * 4 / 3 + 1);
+                long now = currentTimeMillis();
+                for (Map.Entry<K, V> value : values.entrySet()) {
+                    found.put(value.getKey(), new Entry<>(value.getValue(), now));
+                }
+            }
+            if (!found.isEmpty() && tier.writePolicy == WritePolicy.WRITE_BACK && pendingRemovalCount > 0) {
+                Iterator<K> iterator = found.keySet().iterator();
+                while (iterator.hasNext()) {
+                    if (isRemovalPending(tier, iterator.next())) {
+                        iterator.remove();
+                    }
+                }
+            }
+            for (int j = found.size(); j > 0; j--) {
+                tier.statsCounter.recordHit();
+            }
+            for (int j = missedKeys.size() - found.size(); j > 0; j--) {
+                tier.statsCounter.recordMiss();
+            }
+            if (found.isEmpty()) {
+                continue;
+            }
+            for (Map.Entry<K, Entry<V>> entry : found.entrySet()) {
+                for (int j = i - 1; j >= 0; j--) {
+                    write(tiers.get(j), entry.getKey(), entry.getValue());
+                }
+            }
+            result.putAll(found);
+            List<K> stillMissedKeys = new ArrayList<>(missedKeys.size() - found.size());
+            for (K key : missedKeys) {
+                if (!found.containsKey(key)) {
+                    stillMissedKeys.add(key);
+                }
+            }
+            missedKeys = stillMissedKeys;
+        }
+        for (int i = result.size(); i > 0; i--) {
+            statsCounter.recordHit();
+        }
+        for (int i = missedKeys.size(); i > 0; i--) {
+            statsCounter.recordMiss();
+        }
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public Map<K, V> getAll(@NonNull Collection<? extends K> keys) {
+        Map<K, Entry<V>> entries = getEntries(keys);
+        Map<K, V> result = new HashMap<>(entries.size() * 4 / 3 + 1);
+        for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the size of the first tier
+     */
+    @Override
+    public int size() {
+        return tiers.get(0).cache.size();
+    }
+
+    @Override
+    public void clear() {
+        boolean writeBack = hasWriteBackTiers();
+        if (writeBack) {
+            synchronized (this) {
+                pendingClears++;
+                pendingRemovalCount++;
+            }
+        }
+        for (int i = 0, count = tiers.size(); i < count; i++) {
+            final Cache<K, V> cache = tiers.get(i).cache;
+            if (tiers.get(i).writePolicy == WritePolicy.WRITE_THROUGH) {
+                cache.clear();
+            } else {
+                writeExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            cache.clear();
+                        } catch (RuntimeException ex) {
+                            Log.e(TAG, "Error clearing cache", ex);
+                        }
+                    }
+                });
+            }
+        }
+        if (writeBack) {
+            writeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (TieredCache.this) {
+                        pendingClears--;
+                        pendingRemovalCount--;
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public Object getSyncLock() {
+        return this;
+    }
+
+    /**
+     * Returns true if all tiers are quick, {@link #getEntryAsync} reads non-quick tiers in background
+     */
+    @Override
+    public boolean isQuick() {
+        for (int i = 0, count = tiers.size(); i < count; i++) {
+            if (!tiers.get(i).cache.isQuick()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if all tiers keep timestamps of entries
+     */
+    @Override
+    public boolean isCacheControlSupported() {
+        for (int i = 0, count = tiers.size(); i < count; i++) {
+            if (!tiers.get(i).cache.isCacheControlSupported()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getTierCount() {
+        return tiers.size();
+    }
+
+    /**
+     * Returns statistics of lookups reaching the tier and writes to it including promotions
+     */
+    @NonNull
+    public CacheStats tierStats(int tier) {
+        return tiers.get(tier).statsCounter.snapshot();
+    }
+
+    /**
+     * Returns statistics of lookups hitting any tier
+     */
+    @NonNull
+    @Override
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import java.util.List;
+
+/**
+ * Hierarchical timer wheel of millisecond deadlines. Scheduling and cancelling are O(1),
+ * {@link #advance} visits only buckets whose time has passed and cascades timers of coarser wheels
+ * into finer ones, so every timer is touched a bounded number of times before it expires.
+ * <p/>
+ * <p>Wheels have buckets of about 1 second, 1 minute, 1 hour and 1.5 days, the last level holds
+ * timers that are further than about 6 days away. Not thread-safe.
+ */
+final class TimerWheel<T extends TimerWheel.Timer> {
+
+    private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+    private static final int[] SHIFTS = {10, 16, 22, 27, 29};
+
+    static class Timer {
+        long expirationTime;
+        Timer previousInWheel;
+        Timer nextInWheel;
+    }
+
+    private final Timer[][] wheel;
+    private long time;
+
+    TimerWheel(long time) {
+        this.time = time;
+        wheel = new Timer[BUCKETS.length][];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Timer[BUCKETS[i]];
+            for (int j = 0; j < wheel[i].length; j++) {
+                Timer sentinel = new Timer();
+                sentinel.previousInWheel = sentinel;
+                sentinel.nextInWheel = sentinel;
+                wheel[i][j] = sentinel;
+            }
+        }
+    }
+
+    /**
+     * Schedules the timer at its {@link Timer#expirationTime}, cancelling the previous schedule
+     */
+    void schedule(T timer) {
+        if (timer.nextInWheel != null) {
+            unlink(timer);
+        }
+        Timer sentinel = findBucket(timer.expirationTime);
+        timer.previousInWheel = sentinel.previousInWheel;
+        timer.nextInWheel = sentinel;
+        sentinel.previousInWheel.nextInWheel = timer;
+        sentinel.previousInWheel = timer;
+    }
+
+    void cancel(T timer) {
+        if (timer.nextInWheel != null) {
+            unlink(timer);
+        }
+    }
+
+    /**
+     * Moves the wheel to {@code currentTime} and adds timers that have expired to {@code expired}.
+     * Expired timers are no longer scheduled.
+     */
+    @SuppressWarnings("unchecked")
+    void advance(long currentTime, List<T> expired) {
+        long previousTime = time;
+        if (currentTime <= previousTime) {
+            return;
+        }
+        time = currentTime;
+        for (int i = 0; i < SHIFTS.length; i++) {
+            long previousTicks = previousTime >>> SHIFTS[i];
+            long currentTicks = currentTime >>> SHIFTS[i];
+            if (currentTicks == previousTicks) {
+                break;
+            }
+            Timer[] timerWheel = wheel[i];
+            int mask = timerWheel.length - 1;
+            int steps = (int) Math.min(1 + currentTicks - previousTicks, timerWheel.length);
+            int start = (int) (previousTicks & mask);
+            for (int j = start; j < start + steps; j++) {
+                Timer sentinel = timerWheel[j & mask];
+                Timer timer = sentinel.nextInWheel;
+                sentinel.previousInWheel = sentinel;
+                sentinel.nextInWheel = sentinel;
+                while (timer != sentinel) {
+                    Timer next = timer.nextInWheel;
+                    timer.previousInWheel = null;
+                    timer.nextInWheel = null;
+                    if (timer.expirationTime <= currentTime) {
+                        expired.add((T) timer);
+                    } else {
+                        schedule((T) timer);
+                    }
+                    timer = next;
+                }
+            }
+        }
+    }
+
+    private Timer findBucket(long expirationTime) {
+        long duration = expirationTime - time;
+        long bucketTime = Math.max(expirationTime, time); // overdue timers go to the current bucket
+        int last = wheel.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (duration < (1L << SHIFTS[i + 1])) {
+                long ticks = bucketTime >>> SHIFTS[i];
+                return wheel[i][(int) (ticks & (wheel[i].length - 1))];
+            }
+        }
+        return wheel[last][0];
+    }
+
+    private static void unlink(Timer timer) {
+        timer.previousInWheel.nextInWheel = timer.nextInWheel;
+        timer.nextInWheel.previousInWheel = timer.previousInWheel;
+        timer.previousInWheel = null;
+        timer.nextInWheel = null;
+    }
+}
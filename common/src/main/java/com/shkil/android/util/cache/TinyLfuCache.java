@@ -0,0 +1,561 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Frequency-aware cache with W-TinyLFU policy. New entries get into a small window LRU,
+ * entries leaving the window compete with the eviction victim of the main segmented LRU
+ * (probation and protected segments) and are admitted only if they are more popular
+ * according to a {@link FrequencySketch}. So one-off scans do not flush frequently used entries.
+ * <p/>
+ * <p>{@link #sizeOf} and {@link #entryRemoved} have the same semantics as in {@link LruCache}.
+ */
+public class TinyLfuCache<K, V> extends AbstractCache<K, V> implements TrimmableCache, PeekableCache<K, V> {
+
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int REJECTED = 3; // queue of evicted candidates, to record them outside the lock
+
+    private final HashMap<K, Node<K, V>> map = new HashMap<>();
+    private final FrequencySketch sketch;
+
+    // sentinels of circular lists, head.next is the least recently used node
+    private final Node<K, V> windowHead = newSentinel();
+    private final Node<K, V> probationHead = newSentinel();
+    private final Node<K, V> protectedHead = newSentinel();
+
+    private int size;
+    private int maxSize;
+    private int windowSize;
+    private int windowMaxSize;
+    private int protectedSize;
+    private int protectedMaxSize;
+
+    private volatile StatsCounter statsCounter = new ConcurrentStatsCounter();
+
+    private static final class Node<K, V> {
+        final K key;
+        V value;
+        int weight;
+        int queue;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    public static <K, V> TinyLfuCache<K, V> newCache(int maxSize) {
+        return new TinyLfuCache<>(maxSize);
+    }
+
+    public static <K, V> Cache<K, V> newControllableCache(int maxSize) {
+        return new ControllableCache.Trimmable<>(new TinyLfuCache<K, Entry<V>>(maxSize));
+    }
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *                the maximum number of entries in the cache. For all other caches,
+     *                this is the maximum sum of the sizes of the entries in this cache.
+     */
+    public TinyLfuCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.sketch = new FrequencySketch(Math.min(maxSize, 256));
+        setMaxSize(maxSize);
+    }
+
+    private void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        this.windowMaxSize = Math.max(1, (int) ((long) maxSize * WINDOW_PERCENT / 100));
+        this.protectedMaxSize = (int) ((long) (maxSize - windowMaxSize) * PROTECTED_PERCENT / 100);
+    }
+
+    @Override
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        V value = null;
+        synchronized (this) {
+            sketch.increment(key);
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                onAccess(node);
+                value = node.value;
+            }
+        }
+        if (value != null) {
+            statsCounter.recordHit();
+        } else {
+            statsCounter.recordMiss();
+        }
+        return value;
+    }
+
+    @Override
+    public Entry<V> getEntry(K key) {
+        return Entry.of(get(key), 0);
+    }
+
+    @Override
+    public synchronized final long getTimestamp(K key) {
+        return map.containsKey(key) ? 0 : NO_TIMESTAMP;
+    }
+
+    /**
+     * Returns the value of {@code key} without counting its frequency, moving it or counting a request
+     */
+    @Nullable
+    @Override
+    public synchronized final V peek(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Node<K, V> node = map.get(key);
+        return node != null ? node.value : null;
+    }
+
+    @NonNull
+    @Override
+    public final Map<K, V> peekAll(@NonNull Collection<? extends K> keys) {
+        Map<K, V> result = new HashMap<>(keys.size() * 4 / 3 + 1);
+        synchronized (this) {
+            for (K key : keys) {
+                V value = peek(key);
+                if (value != null) {
+                    result.put(key, value);
+                }
+            }
+        }
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public Map<K, Entry<V>> peekEntries(@NonNull Collection<? extends K> keys) {
+        Map<K, V> values = peekAll(keys);
+        Map<K, Entry<V>> result = new HashMap<>(values.size() * 4 / 3 + 1);
+        for (Map.Entry<K, V> entry : values.entrySet()) {
+            result.put(entry.getKey(), new Entry<>(entry.getValue(), 0));
+        }
+        return result;
+    }
+
+    /**
+     * Caches {@code value} for {@code key}. A new entry starts in the window segment.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    @Override
+    public final V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        V previous;
+        List<Node<K, V>> evicted;
+        statsCounter.recordPut();
+        synchronized (this) {
+            int weight = safeSizeOf(key, value);
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                previous = node.value;
+                node.value = value;
+                changeWeight(node, weight - node.weight);
+                onAccess(node);
+                demoteProtected();
+            } else {
+                previous = null;
+                sketch.increment(key);
+                node = new Node<>(key, value, weight);
+                map.put(key, node);
+                if (map.size() > sketch.capacity()) {
+                    sketch.ensureCapacity(2 * map.size());
+                }
+                node.queue = WINDOW;
+                linkLast(windowHead, node);
+                windowSize += weight;
+                size += weight;
+            }
+            evicted = evict();
+        }
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+        notifyEvicted(evicted);
+        return previous;
+    }
+
+    @Override
+    public V put(K key, @NonNull Entry<V> entry) {
+        return put(key, entry.getValue());
+    }
+
+    @Override
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        V previous = null;
+        synchronized (this) {
+            Node<K, V> node = map.remove(key);
+            if (node != null) {
+                previous = node.value;
+                removeNode(node);
+            }
+        }
+        if (previous != null) {
+            entryRemoved(false, key, previous, null);
+        }
+        return previous;
+    }
+
+    private void onAccess(Node<K, V> node) {
+        switch (node.queue) {
+            case WINDOW:
+                moveToTail(windowHead, node);
+                break;
+            case PROBATION:
+                unlink(node);
+                node.queue = PROTECTED;
+                linkLast(protectedHead, node);
+                protectedSize += node.weight;
+                demoteProtected();
+                break;
+            case PROTECTED:
+                moveToTail(protectedHead, node);
+                break;
+        }
+    }
+
+    private void demoteProtected() {
+        while (protectedSize > protectedMaxSize && protectedHead.next != protectedHead) {
+            Node<K, V> demoted = protectedHead.next;
+            unlink(demoted);
+            protectedSize -= demoted.weight;
+            demoted.queue = PROBATION;
+            linkLast(probationHead, demoted);
+        }
+    }
+
+    private void changeWeight(Node<K, V> node, int delta) {
+        node.weight += delta;
+        size += delta;
+        if (node.queue == WINDOW) {
+            windowSize += delta;
+        } else if (node.queue == PROTECTED) {
+            protectedSize += delta;
+        }
+    }
+
+    private List<Node<K, V>> evict() {
+        List<Node<K, V>> evicted = null;
+        while (windowSize > windowMaxSize && windowHead.next != windowHead) {
+            Node<K, V> candidate = windowHead.next;
+            unlink(candidate);
+            windowSize -= candidate.weight;
+            candidate.queue = PROBATION;
+            linkLast(probationHead, candidate);
+            while (size > maxSize) {
+                Node<K, V> victim = probationHead.next != candidate ? probationHead.next : protectedHead.next;
+                if (victim == protectedHead) {
+                    victim = null;
+                }
+                if (victim != null && admit(candidate.key, victim.key)) {
+                    evicted = evictNode(victim, evicted);
+                } else {
+                    evicted = evictNode(candidate, evicted);
+                    candidate.queue = REJECTED;
+                    break;
+                }
+            }
+        }
+        return trim(maxSize, evicted);
+    }
+
+    private boolean admit(K candidateKey, K victimKey) {
+        return sketch.frequency(candidateKey) > sketch.frequency(victimKey);
+    }
+
+    private List<Node<K, V>> trim(int maxSize, List<Node<K, V>> evicted) {
+        while (size > maxSize) {
+            Node<K, V> victim;
+            if (probationHead.next != probationHead) {
+                victim = probationHead.next;
+            } else if (windowHead.next != windowHead) {
+                victim = windowHead.next;
+            } else if (protectedHead.next != protectedHead) {
+                victim = protectedHead.next;
+            } else {
+                if (size != 0) {
+                    throw new IllegalStateException(getClass().getName()
+                            + ".sizeOf() is reporting inconsistent results!");
+                }
+                break;
+            }
+            evicted = evictNode(victim, evicted);
+        }
+        return evicted;
+    }
+
+    private List<Node<K, V>> evictNode(Node<K, V> node, List<Node<K, V>> evicted) {
+        map.remove(node.key);
+        removeNode(node);
+        if (evicted == null) {
+            evicted = new ArrayList<>(4);
+        }
+        evicted.add(node);
+        return evicted;
+    }
+
+    private void removeNode(Node<K, V> node) {
+        unlink(node);
+        size -= node.weight;
+        if (node.queue == WINDOW) {
+            windowSize -= node.weight;
+        } else if (node.queue == PROTECTED) {
+            protectedSize -= node.weight;
+        }
+    }
+
+    private void notifyEvicted(List<Node<K, V>> evicted) {
+        if (evicted != null) {
+            for (int i = 0, count = evicted.size(); i < count; i++) {
+                Node<K, V> node = evicted.get(i);
+                statsCounter.recordEviction(node.weight);
+                if (node.queue == REJECTED) {
+                    statsCounter.recordRejection();
+                }
+                entryRemoved(true, node.key, node.value, null);
+            }
+        }
+    }
+
+    /**
+     * Sets the maximum size of the cache, the window and protected segments are resized proportionally
+     */
+    @Override
+    public final void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        List<Node<K, V>> evicted;
+        synchronized (this) {
+            setMaxSize(maxSize);
+            demoteProtected();
+            evicted = evict();
+        }
+        notifyEvicted(evicted);
+    }
+
+    /**
+     * Evicts entries until the size of the cache is not greater than {@code maxSize},
+     * probation entries go first. May be -1 to evict even 0-sized elements.
+     */
+    @Override
+    public final void trimToSize(int maxSize) {
+        List<Node<K, V>> evicted;
+        synchronized (this) {
+            evicted = trim(maxSize, null);
+            if (maxSize < 0) {
+                evicted = trimZeroSized(evicted);
+            }
+        }
+        notifyEvicted(evicted);
+    }
+
+    private List<Node<K, V>> trimZeroSized(List<Node<K, V>> evicted) {
+        while (!map.isEmpty()) {
+            evicted = evictNode(map.values().iterator().next(), evicted);
+        }
+        return evicted;
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    /**
+     * @see LruCache#entryRemoved(boolean, Object, Object, Object)
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * @see LruCache#sizeOf(Object, Object)
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    private static <K, V> Node<K, V> newSentinel() {
+        Node<K, V> sentinel = new Node<>(null, null, 0);
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+        return sentinel;
+    }
+
+    private static <K, V> void linkLast(Node<K, V> head, Node<K, V> node) {
+        Node<K, V> last = head.prev;
+        node.prev = last;
+        node.next = head;
+        last.next = node;
+        head.prev = node;
+    }
+
+    private static <K, V> void unlink(Node<K, V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static <K, V> void moveToTail(Node<K, V> head, Node<K, V> node) {
+        if (head.prev != node) {
+            unlink(node);
+            linkLast(head, node);
+        }
+    }
+
+    @Override
+    public synchronized final int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized final int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of hits, truncated to int like the other int counters read from {@link #stats()}.
+     * Returns 0 if statistics are {@link StatsCounter#DISABLED}.
+     */
+    public final int hitCount() {
+        return (int) stats().hitCount();
+    }
+
+    public final int missCount() {
+        return (int) stats().missCount();
+    }
+
+    public final int putCount() {
+        return (int) stats().putCount();
+    }
+
+    public final int evictionCount() {
+        return (int) stats().evictionCount();
+    }
+
+    /**
+     * Returns the number of new entries which were not admitted to the main segment, truncated to int.
+     * Returns 0 if statistics are {@link StatsCounter#DISABLED}.
+     */
+    public final int rejectionCount() {
+        return (int) stats().rejectionCount();
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache: window, probation and protected entries,
+     * each segment is ordered from least recently accessed to most recently accessed.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized final Map<K, V> snapshot() {
+        Map<K, V> result = new LinkedHashMap<>(map.size());
+        for (Node<K, V> head : (Node<K, V>[]) new Node<?, ?>[]{windowHead, probationHead, protectedHead}) {
+            for (Node<K, V> node = head.next; node != head; node = node.next) {
+                result.put(node.key, node.value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized final String toString() {
+        CacheStats stats = stats();
+        long accesses = stats.requestCount();
+        int hitPercent = accesses != 0 ? (int) (100 * stats.hitCount() / accesses) : 0;
+        return String.format(Locale.US, "TinyLfuCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]", maxSize, stats.hitCount(), stats.missCount(), hitPercent);
+    }
+
+    @Override
+    public Object getSyncLock() {
+        return this;
+    }
+
+    /**
+     * Returns a snapshot of statistics. Counters are recorded outside of the cache lock
+     * by {@link ConcurrentStatsCounter} unless another counter is set.
+     */
+    @NonNull
+    @Override
+    public final CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    /**
+     * Set a counter to record statistics to, {@link StatsCounter#DISABLED} removes statistics overhead
+     */
+    public final TinyLfuCache<K, V> setStatsCounter(@NonNull StatsCounter statsCounter) {
+        this.statsCounter = statsCounter;
+        return this;
+    }
+
+    @Override
+    public boolean isQuick() {
+        return true;
+    }
+
+    @Override
+    public boolean isCacheControlSupported() {
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        evictAll();
+    }
+}
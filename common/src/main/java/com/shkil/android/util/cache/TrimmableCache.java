@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+/**
+ * Cache with a size limit that can be trimmed and changed at runtime
+ *
+ * @see CacheRegistry
+ */
+public interface TrimmableCache {
+
+    int maxSize();
+
+    /**
+     * Sets the maximum size of the cache, evicting entries if the current size is greater
+     */
+    void resize(int maxSize);
+
+    /**
+     * Evicts entries until the size of the cache is not greater than {@code maxSize}.
+     * May be -1 to evict even 0-sized elements.
+     */
+    void trimToSize(int maxSize);
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+/**
+ * Calculates the size of cache entries in units of the cache limit, e.g. bytes
+ *
+ * @see ObjectGraphWeigher
+ * @see LruCache#newWeighedCache
+ */
+public interface Weigher<K, V> {
+
+    /**
+     * Returns a non-negative size of the entry, it must not change while the entry is cached
+     */
+    int weigh(K key, V value);
+}
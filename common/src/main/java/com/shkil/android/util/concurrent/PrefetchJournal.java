@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.concurrent;
+
+import android.os.AsyncTask;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.shkil.android.util.io.Codec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import static com.shkil.android.util.io.IoUtils.closeQuietly;
+
+/**
+ * Append-only journal of pending background keys of {@link QueueFetcher}.
+ * Keys are appended when a {@link Priority#BACKGROUND} task is queued and removed when the task is done,
+ * so the keys left in the journal after the process was killed can be fetched again by a new fetcher.
+ * All file operations are performed on the journal executor, the journal is compacted when it grows.
+ *
+ * @see QueueFetcher#setPrefetchJournal(PrefetchJournal)
+ */
+public class PrefetchJournal<K> {
+
+    private static final String TAG = "PrefetchJournal";
+
+    private static final int MAGIC = 0x50464a31; // PFJ1
+
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+
+    private static final int MAX_KEY_LENGTH = 64 * 1024;
+    private static final int MIN_COMPACTION_RECORDS = 256;
+
+    private final File file;
+    private final Codec<K> keyCodec;
+    private final Executor executor;
+
+    @GuardedBy("this")
+    private final LinkedHashSet<K> pendingKeys = new LinkedHashSet<>();
+
+    @GuardedBy("this")
+    private boolean loaded;
+
+    @GuardedBy("this")
+    private int recordCount;
+
+    @GuardedBy("this")
+    private DataOutputStream output;
+
+    public PrefetchJournal(File file, Codec<K> keyCodec) {
+        this(file, keyCodec, AsyncTask.SERIAL_EXECUTOR);
+    }
+
+    /**
+     * @param executor serial executor used for file operations
+     */
+    public PrefetchJournal(File file, Codec<K> keyCodec, Executor executor) {
+        this.file = file;
+        this.keyCodec = keyCodec;
+        this.executor = executor;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void add(final K key) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PrefetchJournal.this) {
+                    ensureLoaded();
+                    if (pendingKeys.add(key)) {
+                        append(OP_ADD, key);
+                    }
+                }
+            }
+        });
+    }
+
+    public void remove(final K key) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PrefetchJournal.this) {
+                    ensureLoaded();
+                    if (pendingKeys.remove(key)) {
+                        append(OP_REMOVE, key);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the journal if it is not read yet. Must not be called on the main thread.
+     *
+     * @return pending keys in the order they were added
+     */
+    @NonNull
+    public synchronized List<K> getPendingKeys() {
+        ensureLoaded();
+        return new ArrayList<>(pendingKeys);
+    }
+
+    public void clear() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PrefetchJournal.this) {
+                    closeOutput();
+                    pendingKeys.clear();
+                    recordCount = 0;
+                    loaded = true;
+                    if (file.exists() && !file.delete()) {
+                        Log.w(TAG, "Can't delete " + file);
+                    }
+                }
+            }
+        });
+    }
+
+    public void close() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PrefetchJournal.this) {
+                    closeOutput();
+                }
+            }
+        });
+    }
+
+    @GuardedBy("this")
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        boolean compact = false;
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Wrong journal header");
+            }
+            while (true) {
+                int op = input.read();
+                if (op < 0) {
+                    break;
+                }
+                int length = input.readInt();
+                if (length < 0 || length > MAX_KEY_LENGTH) {
+                    throw new IOException("Wrong key length: " + length);
+                }
+                byte[] data = new byte[length];
+                input.readFully(data);
+                recordCount++;
+                K key;
+                try {
+                    key = keyCodec.decode(data, 0, length);
+                } catch (IOException ex) {
+                    Log.w(TAG, "Skipping undecodable key", ex);
+                    continue;
+                }
+                if (op == OP_ADD) {
+                    pendingKeys.add(key);
+                } else if (op == OP_REMOVE) {
+                    pendingKeys.remove(key);
+                } else {
+                    throw new IOException("Unknown operation: " + op);
+                }
+            }
+        } catch (FileNotFoundException ex) {
+            // nothing to restore
+        } catch (EOFException ex) {
+            compact = true; // last record was not completely written
+        } catch (IOException ex) {
+            Log.w(TAG, "Error reading " + file, ex);
+            compact = true;
+        } finally {
+            closeQuietly(input);
+        }
+        if (compact) {
+            compact();
+        }
+    }
+
+    @GuardedBy("this")
+    private void append(byte op, K key) {
+        try {
+            if (output == null) {
+                boolean exists = file.exists() && file.length() > 0;
+                output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, exists)));
+                if (!exists) {
+                    output.writeInt(MAGIC);
+                }
+            }
+            writeRecord(output, op, key);
+            output.flush();
+            recordCount++;
+        } catch (IOException ex) {
+            Log.w(TAG, "Error writing " + file, ex);
+            closeOutput();
+            return;
+        }
+        if (recordCount > MIN_COMPACTION_RECORDS && recordCount > pendingKeys.size() * 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the journal with pending keys only. The new journal is written to a temporary file
+     * which then atomically replaces the old one.
+     */
+    @GuardedBy("this")
+    private void compact() {
+        closeOutput();
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOutput = null;
+        try {
+            fileOutput = new FileOutputStream(tempFile);
+            DataOutputStream tempOutput = new DataOutputStream(new BufferedOutputStream(fileOutput));
+            tempOutput.writeInt(MAGIC);
+            for (K key : pendingKeys) {
+                writeRecord(tempOutput, OP_ADD, key);
+            }
+            tempOutput.flush();
+            fileOutput.getFD().sync();
+            tempOutput.close();
+            fileOutput = null;
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Can't rename " + tempFile + " to " + file);
+            }
+            recordCount = pendingKeys.size();
+        } catch (IOException ex) {
+            Log.w(TAG, "Error compacting " + file, ex);
+            closeQuietly(fileOutput);
+            tempFile.delete();
+        }
+    }
+
+    private void writeRecord(DataOutputStream output, byte op, K key) throws IOException {
+        byte[] data = keyCodec.encode(key);
+        output.writeByte(op);
+        output.writeInt(data.length);
+        output.write(data);
+    }
+
+    @GuardedBy("this")
+    private void closeOutput() {
+        closeQuietly(output);
+        output = null;
+    }
+
+    @Override
+    public String toString() {
+        return "PrefetchJournal{" +
+                "file=" + file +
+                '}';
+    }
+}
@@ -28,13 +28,18 @@ import com.shkil.android.util.ResultListener;
 import com.shkil.android.util.ValueFetcher;
 import com.shkil.android.util.cache.Cache;
 import com.shkil.android.util.cache.CacheControl;
+import com.shkil.android.util.cache.PeekableCache;
 import com.shkil.android.util.exception.NotFoundException;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
@@ -76,6 +81,17 @@ public abstract class QueueFetcher<K, V> implements Fetcher<K, V> {
 
     private volatile RequestParams defaultRequestParams = RequestParams.DEFAULT;
 
+    /**
+     * Default request params with each priority, indexed by {@link Priority#ordinal()}
+     */
+    private volatile RequestParams[] defaultParamsByPriority = withPriorities(RequestParams.DEFAULT);
+
+    @GuardedBy("lock")
+    private volatile PrefetchJournal<K> prefetchJournal;
+
+    @GuardedBy("lock")
+    private boolean prefetchJournalRestored;
+
     private static final Executor asyncTaskExecutor = AsyncTask.THREAD_POOL_EXECUTOR;
 
     private interface FetcherListenerWithPriority<K, V> extends FetcherListener<K, V> {
@@ -193,14 +209,67 @@ public abstract class QueueFetcher<K, V> implements Fetcher<K, V> {
         return secondaryCache;
     }
 
+    /**
+     * Set a journal to keep keys of pending {@link Priority#BACKGROUND} requests.
+     * Keys left in the journal by a killed process are fetched again after the first {@link #fetch} call
+     * or {@link #restorePrefetchQueue()}, skipping the keys that are already cached.
+     */
+    public QueueFetcher<K, V> setPrefetchJournal(@Nullable PrefetchJournal<K> journal) {
+        synchronized (lock) {
+            this.prefetchJournal = journal;
+            this.prefetchJournalRestored = false;
+        }
+        return this;
+    }
+
+    public PrefetchJournal<K> getPrefetchJournal() {
+        return prefetchJournal;
+    }
+
+    /**
+     * Re-enqueue background keys left in the prefetch journal. Does nothing if it has already been done.
+     */
+    public void restorePrefetchQueue() {
+        synchronized (lock) {
+            restorePrefetchQueueIfNeeded();
+        }
+    }
+
+    @GuardedBy("lock")
+    private void restorePrefetchQueueIfNeeded() {
+        PrefetchJournal<K> journal = this.prefetchJournal;
+        if (journal != null && !prefetchJournalRestored) {
+            prefetchJournalRestored = true;
+            asyncTaskExecutor.execute(new PrefetchRestoreRunnable(journal));
+        }
+    }
+
     public QueueFetcher<K, V> setDefaultRequestParams(@Nullable RequestParams params) {
-        this.defaultRequestParams = params != null ? params : RequestParams.DEFAULT;
+        if (params == null) {
+            params = RequestParams.DEFAULT;
+        }
+        this.defaultParamsByPriority = withPriorities(params);
+        this.defaultRequestParams = params;
         return this;
     }
 
     public QueueFetcher<K, V> setDefaultRequestParams(@Nullable RequestParams.Builder params) {
-        this.defaultRequestParams = params != null ? params.build() : RequestParams.DEFAULT;
-        return this;
+        return setDefaultRequestParams(params != null ? params.build() : null);
+    }
+
+    private static RequestParams[] withPriorities(RequestParams params) {
+        Priority[] priorities = Priority.values();
+        RequestParams[] result = new RequestParams[priorities.length];
+        for (Priority priority : priorities) {
+            if (params == RequestParams.DEFAULT) {
+                result[priority.ordinal()] = RequestParams.priority(priority);
+            } else if (params.priority() == priority) {
+                result[priority.ordinal()] = params;
+            } else {
+                result[priority.ordinal()] = params.toBuilder().priority(priority).build();
+            }
+        }
+        return result;
     }
 
     public RequestParams getDefaultRequestParams() {
@@ -214,14 +283,7 @@ public abstract class QueueFetcher<K, V> implements Fetcher<K, V> {
 
     @Override
     public ResultFuture<V> fetch(K key, @Nullable Priority priority) {
-        RequestParams params = defaultRequestParams;
-        if (priority != null) {
-            if (params == RequestParams.DEFAULT) {
-                params = RequestParams.priority(priority);
-            } else {
-                params = params.toBuilder().priority(priority).build();
-            }
-        }
+        RequestParams params = priority != null ? defaultParamsByPriority[priority.ordinal()] : defaultRequestParams;
         return fetch(key, params);
     }
 
@@ -234,8 +296,13 @@ public abstract class QueueFetcher<K, V> implements Fetcher<K, V> {
         boolean cacheAllowed = cacheControl.isCacheAllowed();
         V staleResult = null;
         synchronized (lock) {
+            if (prefetchJournal != null && !prefetchJournalRestored) {
+                restorePrefetchQueueIfNeeded();
+            }
             if (quickCache != null && cacheAllowed) {
                 if (quickCache.isCacheControlSupported() && cacheControl.isTimeLimited()) {
+                    // The value and its timestamp are read together without holding the cache lock, which
+                    // loading caches must not be called under. ControllableCache returns its stored entry.
                     Cache.Entry<V> cacheEntry = quickCache.getEntry(key);
                     if (cacheEntry != null) {
                         switch (cacheEntry.check(cacheControl)) {
@@ -253,17 +320,79 @@ public abstract class QueueFetcher<K, V> implements Fetcher<K, V> {
                     }
                 }
             }
-            if (staleResult != null && cacheControl.cacheOnly()) {
-                return ResultFutures.success(staleResult);
-            }
-            if (staleResult == null && secondaryCache != null && cacheAllowed) {
-                LatchFetchingFuture resultFuture = new LatchFetchingFuture();
-                asyncTaskExecutor.execute(new SecondaryCacheRunnable(key, params, resultFuture));
-                return resultFuture;
+            return fetchMissed(key, params, staleResult);
+        }
+    }
+
+    /**
+     * Fetches a value missing in the quick cache, or stale there if {@code staleResult} is not null
+     */
+    @GuardedBy("lock")
+    private ResultFuture<V> fetchMissed(K key, RequestParams params, @Nullable V staleResult) {
+        CacheControl cacheControl = params.cacheControl();
+        if (staleResult != null && cacheControl.cacheOnly()) {
+            return ResultFutures.success(staleResult);
+        }
+        if (staleResult == null && secondaryCache != null && cacheControl.isCacheAllowed()) {
+            LatchFetchingFuture resultFuture = new LatchFetchingFuture();
+            asyncTaskExecutor.execute(new SecondaryCacheRunnable(key, params, resultFuture));
+            return resultFuture;
+        } else {
+            return getTaskResultFuture(key, params, deferredFetchingFutureFactory, staleResult);
+        }
+    }
+
+    /**
+     * Fetches values of several keys. The quick cache is looked up for all the keys at once,
+     * other keys are fetched as by {@link #fetch(Object, RequestParams)} without looking them up again.
+     *
+     * @return futures in the order of {@code keys}
+     */
+    public Map<K, ResultFuture<V>> fetchAll(Collection<? extends K> keys, @Nullable RequestParams params) {
+        if (params == null) {
+            params = defaultRequestParams;
+        }
+        CacheControl cacheControl = params.cacheControl();
+        Map<K, Cache.Entry<V>> entries = null;
+        Map<K, V> values = null;
+        Cache<K, V> quickCache = this.quickCache;
+        if (quickCache != null && cacheControl.isCacheAllowed()) {
+            if (quickCache.isCacheControlSupported() && cacheControl.isTimeLimited()) {
+                entries = quickCache.getEntries(keys);
             } else {
-                return getTaskResultFuture(key, params, deferredFetchingFutureFactory, staleResult);
+                values = quickCache.getAll(keys);
             }
         }
+        Map<K, ResultFuture<V>> result = new LinkedHashMap<>(keys.size() * 4 / 3 + 1);
+        synchronized (lock) {
+            if (prefetchJournal != null && !prefetchJournalRestored) {
+                restorePrefetchQueueIfNeeded();
+            }
+            for (K key : keys) {
+                V staleResult = null;
+                if (entries != null) {
+                    Cache.Entry<V> entry = entries.get(key);
+                    if (entry != null) {
+                        switch (entry.check(cacheControl)) {
+                            case GOOD:
+                                result.put(key, ResultFutures.success(entry.getValue()));
+                                continue;
+                            case STALE:
+                                staleResult = entry.getValue();
+                                break;
+                        }
+                    }
+                } else if (values != null) {
+                    V value = values.get(key);
+                    if (value != null) {
+                        result.put(key, ResultFutures.success(value));
+                        continue;
+                    }
+                }
+                result.put(key, fetchMissed(key, params, staleResult));
+            }
+        }
+        return result;
     }
 
     private abstract class ResultFutureFactory<V> {
@@ -297,6 +426,9 @@ public abstract class QueueFetcher<K, V> implements Fetcher<K, V> {
             }
         }
         task.incrementUseCount();
+        if (priority == Priority.BACKGROUND && prefetchJournal != null) {
+            task.addToJournal(prefetchJournal);
+        }
         if (!cacheControl.noStore()) {
             task.storeToCache(true);
         }
@@ -385,6 +517,8 @@ public abstract class QueueFetcher<K, V> implements Fetcher<K, V> {
         private int useCount;
         @GuardedBy("lock")
         private boolean storeToCache;
+        @GuardedBy("lock")
+        private PrefetchJournal<K> journal;
 
         public FetcherTask(final K key) {
             super(new Callable<Result<V>>() {
@@ -430,6 +564,10 @@ public abstract class QueueFetcher<K, V> implements Fetcher<K, V> {
                 if (storeToCache) {
                     putResultToCache(key, result);
                 }
+                if (journal != null) {
+                    journal.remove(key);
+                    journal = null;
+                }
                 synchronized (globalListeners) {
                     int listenersCount = listeners.size();
                     listenersSnapshot = listeners.toArray(new FetcherListener[listenersCount + globalListeners.size()]);
@@ -483,6 +621,14 @@ public abstract class QueueFetcher<K, V> implements Fetcher<K, V> {
         public void storeToCache(boolean store) {
             this.storeToCache = store;
         }
+
+        @GuardedBy("lock")
+        public void addToJournal(PrefetchJournal<K> journal) {
+            if (this.journal == null && !isDone()) {
+                this.journal = journal;
+                journal.add(key);
+            }
+        }
     }
 
     private long findMaxPriority(List<FetcherListenerWithPriority> futures) {
@@ -775,4 +921,63 @@ public abstract class QueueFetcher<K, V> implements Fetcher<K, V> {
             }
         }
     }
+
+    private class PrefetchRestoreRunnable implements Runnable {
+        private final PrefetchJournal<K> journal;
+
+        public PrefetchRestoreRunnable(PrefetchJournal<K> journal) {
+            this.journal = journal;
+        }
+
+        @Override
+        public void run() {
+            List<K> keys = journal.getPendingKeys();
+            if (keys.isEmpty()) {
+                return;
+            }
+            RequestParams params = defaultParamsByPriority[Priority.BACKGROUND.ordinal()];
+            CacheControl cacheControl = params.cacheControl();
+            Set<K> cachedKeys = new HashSet<>();
+            addCachedKeys(quickCache, keys, cacheControl, cachedKeys);
+            addCachedKeys(secondaryCache, keys, cacheControl, cachedKeys);
+            int restoredCount = 0;
+            for (K key : keys) {
+                if (prefetchJournal != journal) {
+                    return;
+                }
+                if (cachedKeys.contains(key)) {
+                    journal.remove(key);
+                } else {
+                    fetch(key, params);
+                    restoredCount++;
+                }
+            }
+            Log.d(TAG, "Restored " + restoredCount + " of " + keys.size() + " prefetch keys");
+        }
+
+        @SuppressWarnings("unchecked")
+        private void addCachedKeys(@Nullable Cache<K, V> cache, List<K> keys, CacheControl cacheControl, Set<K> cachedKeys) {
+            if (cache == null || cacheControl.isCacheDisallowed()) {
+                return;
+            }
+            try {
+                // Peeking neither creates missing values nor counts the probe as hits and misses
+                PeekableCache<K, V> peekableCache = cache instanceof PeekableCache ? (PeekableCache<K, V>) cache : null;
+                if (cache.isCacheControlSupported() && cacheControl.isTimeLimited()) {
+                    Map<K, Cache.Entry<V>> entries = peekableCache != null
+                            ? peekableCache.peekEntries(keys) : cache.getEntries(keys);
+                    for (Entry<K, Cache.Entry<V>> entry : entries.entrySet()) {
+                        if (entry.getValue().check(cacheControl) == Cache.Entry.Status.GOOD) {
+                            cachedKeys.add(entry.getKey());
+                        }
+                    }
+                } else {
+                    Map<K, V> values = peekableCache != null ? peekableCache.peekAll(keys) : cache.getAll(keys);
+                    cachedKeys.addAll(values.keySet());
+                }
+            } catch (RuntimeException ex) {
+                Log.e(TAG, "Error getting values from cache", ex);
+            }
+        }
+    }
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.io;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Converts values to and from their binary representation
+ *
+ * @see Codecs
+ */
+public interface Codec<T> {
+
+    @NonNull
+    byte[] encode(@NonNull T value) throws IOException;
+
+    @NonNull
+    T decode(@NonNull byte[] data, int offset, int length) throws IOException;
+
+}
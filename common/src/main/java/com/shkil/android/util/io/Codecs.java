@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.io;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class Codecs {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final Codec<String> STRING = new Codec<String>() {
+        @NonNull
+        @Override
+        public byte[] encode(@NonNull String value) {
+            return value.getBytes(UTF_8);
+        }
+
+        @NonNull
+        @Override
+        public String decode(@NonNull byte[] data, int offset, int length) {
+            return new String(data, offset, length, UTF_8);
+        }
+    };
+
+    public static final Codec<Long> LONG = new Codec<Long>() {
+        @NonNull
+        @Override
+        public byte[] encode(@NonNull Long value) {
+            long v = value;
+            byte[] result = new byte[8];
+            for (int i = 7; i >= 0; i--) {
+                result[i] = (byte) v;
+                v >>>= 8;
+            }
+            return result;
+        }
+
+        @NonNull
+        @Override
+        public Long decode(@NonNull byte[] data, int offset, int length) throws IOException {
+            if (length != 8) {
+                throw new IOException("Wrong length of long value: " + length);
+            }
+            long result = 0;
+            for (int i = offset, end = offset + 8; i < end; i++) {
+                result = (result << 8) | (data[i] & 0xFF);
+            }
+            return result;
+        }
+    };
+
+    public static final Codec<byte[]> BYTE_ARRAY = new Codec<byte[]>() {
+        @NonNull
+        @Override
+        public byte[] encode(@NonNull byte[] value) {
+            return value;
+        }
+
+        @NonNull
+        @Override
+        public byte[] decode(@NonNull byte[] data, int offset, int length) {
+            if (offset == 0 && length == data.length) {
+                return data;
+            }
+            return Arrays.copyOfRange(data, offset, offset + length);
+        }
+    };
+
+    public static <T extends Parcelable> Codec<T> parcelable(final Parcelable.Creator<T> creator) {
+        return new Codec<T>() {
+            @NonNull
+            @Override
+            public byte[] encode(@NonNull T value) {
+                return IoUtils.marshallParcelable(value);
+            }
+
+            @NonNull
+            @Override
+            public T decode(@NonNull byte[] data, int offset, int length) {
+                Parcel parcel = Parcel.obtain();
+                try {
+                    parcel.unmarshall(data, offset, length);
+                    parcel.setDataPosition(0);
+                    return creator.createFromParcel(parcel);
+                } finally {
+                    parcel.recycle();
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a codec compressing binary representation of {@code codec} with deflate.
+     * Encoded data starts with 4 bytes of uncompressed length.
+     *
+     * @param level compression level from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+     */
+    public static <T> Codec<T> deflate(final Codec<T> codec, final int level) {
+        return new Codec<T>() {
+            @NonNull
+            @Override
+            public byte[] encode(@NonNull T value) throws IOException {
+                byte[] data = codec.encode(value);
+                Deflater deflater = new Deflater(level);
+                try {
+                    deflater.setInput(data);
+                    deflater.finish();
+                    DirectByteArrayOutputStream out = new DirectByteArrayOutputStream(data.length / 4 + 64);
+                    out.write(data.length >>> 24);
+                    out.write(data.length >>> 16);
+                    out.write(data.length >>> 8);
+                    out.write(data.length);
+                    byte[] buffer = new byte[Math.min(data.length + 64, 8192)];
+                    while (!deflater.finished()) {
+                        int count = deflater.deflate(buffer);
+                        out.write(buffer, 0, count);
+                    }
+                    return out.toByteArray();
+                } finally {
+                    deflater.end();
+                }
+            }
+
+            @NonNull
+            @Override
+            public T decode(@NonNull byte[] data, int offset, int length) throws IOException {
+                if (length < 4) {
+                    throw new IOException("Wrong length of deflated value: " + length);
+                }
+                int dataLength = (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+                        | (data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF);
+                if (dataLength < 0) {
+                    throw new IOException("Wrong length of inflated value: " + dataLength);
+                }
+                byte[] result = new byte[dataLength];
+                Inflater inflater = new Inflater();
+                try {
+                    inflater.setInput(data, offset + 4, length - 4);
+                    int count = 0;
+                    while (count < dataLength && !inflater.finished()) {
+                        int inflated = inflater.inflate(result, count, dataLength - count);
+                        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            break;
+                        }
+                        count += inflated;
+                    }
+                    if (count != dataLength) {
+                        throw new IOException("Truncated deflated value");
+                    }
+                } catch (DataFormatException ex) {
+                    throw new IOException(ex);
+                } finally {
+                    inflater.end();
+                }
+                return codec.decode(result, 0, dataLength);
+            }
+        };
+    }
+
+    private Codecs() {
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowBitmapFactory;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, shadows = {BitmapShadows.DecodingBitmapFactory.class, BitmapShadows.ReusableBitmap.class})
+public class BitmapPoolTest {
+
+    @Test
+    public void testEvictedDecodesAreReused() {
+        ShadowBitmapFactory.provideWidthAndHeightHints("/images/a.png", 100, 100);
+        ShadowBitmapFactory.provideWidthAndHeightHints("/images/b.png", 80, 80);
+        BitmapPool pool = new BitmapPool(1024 * 1024);
+        MemoryImageCache<String> cache = MemoryImageCache.<String>newInstance(50000).setBitmapPool(pool);
+
+        Bitmap a = pool.decodeFile("/images/a.png", null);
+        assertTrue(a.isMutable());
+        cache.put("a", a);
+        cache.put("b", pool.decodeFile("/images/b.png", null)); // evicts a into the pool
+        assertEquals(1, pool.putCount());
+        assertEquals(40000, pool.size());
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        Bitmap reused = pool.decodeFile("/images/b.png", options);
+        assertSame(a, reused);
+        assertEquals(80, reused.getWidth());
+        assertEquals(1, pool.hitCount());
+        assertEquals(0, pool.size());
+
+        // the cache counts the whole allocation of the reused bitmap, so b is evicted
+        cache.put("b2", reused);
+        assertEquals(40000, cache.size());
+        assertEquals(25600, pool.size());
+    }
+}
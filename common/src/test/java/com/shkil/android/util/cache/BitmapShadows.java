@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadow.api.Shadow;
+import org.robolectric.shadows.ShadowBitmap;
+import org.robolectric.shadows.ShadowBitmapFactory;
+
+/**
+ * Robolectric shadows decoding bitmaps as the platform does where it matters for pooling: decoded bitmaps
+ * are mutable if requested, are decoded into {@link BitmapFactory.Options#inBitmap} keeping its allocation,
+ * and are scaled by densities. MIME types are guessed by file extensions and JPEG signatures.
+ */
+public class BitmapShadows {
+
+    @Implements(BitmapFactory.class)
+    public static class DecodingBitmapFactory extends ShadowBitmapFactory {
+
+        static int boundsDecodeCount;
+
+        @Implementation
+        public static Bitmap decodeFile(String pathName, BitmapFactory.Options options) {
+            Bitmap bitmap = ShadowBitmapFactory.decodeFile(pathName, options);
+            String mimeType = pathName.endsWith(".jpg") ? "image/jpeg" : "image/png";
+            return decoded(bitmap, options, mimeType);
+        }
+
+        @Implementation
+        public static Bitmap decodeByteArray(byte[] data, int offset, int length, BitmapFactory.Options options) {
+            Bitmap bitmap = ShadowBitmapFactory.decodeByteArray(data, offset, length, options);
+            boolean jpeg = length >= 2 && data[offset] == (byte) 0xFF && data[offset + 1] == (byte) 0xD8;
+            return decoded(bitmap, options, jpeg ? "image/jpeg" : "image/png");
+        }
+
+        private static Bitmap decoded(Bitmap bitmap, BitmapFactory.Options options, String mimeType) {
+            if (options == null) {
+                return bitmap;
+            }
+            options.outMimeType = mimeType;
+            if (options.inJustDecodeBounds) {
+                boundsDecodeCount++;
+                return null;
+            }
+            if (options.inScaled && options.inDensity > 0 && options.inTargetDensity > 0
+                    && options.inDensity != options.inTargetDensity) {
+                float scale = (float) options.inTargetDensity / options.inDensity;
+                Bitmap.Config config = bitmap.getConfig();
+                bitmap = Bitmap.createScaledBitmap(bitmap, (int) (bitmap.getWidth() * scale + 0.5f),
+                        (int) (bitmap.getHeight() * scale + 0.5f), true);
+                ((ShadowBitmap) Shadow.extract(bitmap)).setConfig(config);
+                bitmap.setDensity(options.inTargetDensity);
+            }
+            Bitmap inBitmap = options.inBitmap;
+            if (inBitmap != null) {
+                if (!inBitmap.isMutable() || inBitmap.getAllocationByteCount() < bitmap.getByteCount()) {
+                    throw new IllegalArgumentException("Problem decoding into existing bitmap");
+                }
+                ReusableBitmap shadow = (ReusableBitmap) Shadow.extract(inBitmap);
+                shadow.reuse(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+                inBitmap.setDensity(bitmap.getDensity());
+                return inBitmap;
+            }
+            ((ShadowBitmap) Shadow.extract(bitmap)).setMutable(options.inMutable);
+            return bitmap;
+        }
+    }
+
+    @Implements(Bitmap.class)
+    public static class ReusableBitmap extends ShadowBitmap {
+
+        private int allocationByteCount;
+
+        @Implementation
+        public int getAllocationByteCount() {
+            return allocationByteCount > 0 ? allocationByteCount : getByteCount();
+        }
+
+        void reuse(int width, int height, Bitmap.Config config) {
+            allocationByteCount = getAllocationByteCount();
+            setWidth(width);
+            setHeight(height);
+            setConfig(config);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class BulkOperationsTest {
+
+    private static Map<String, String> values(String... keys) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String key : keys) {
+            values.put(key, "value " + key);
+        }
+        return values;
+    }
+
+    @Test
+    public void testLruCache() {
+        final List<String> removedKeys = new ArrayList<>();
+        LruCache<String, String> cache = new LruCache<String, String>(3) {
+            @Override
+            protected void entryRemoved(boolean evicted, String key, String oldValue, String newValue) {
+                removedKeys.add(key);
+            }
+        };
+        cache.putAll(values("a", "b", "c", "d"));
+        assertEquals(3, cache.size());
+        assertEquals(Arrays.asList("a"), removedKeys);
+
+        Map<String, String> result = cache.getAll(Arrays.asList("a", "b", "c"));
+        assertEquals(values("b", "c"), result);
+        assertEquals(2, cache.stats().hitCount());
+        assertEquals(1, cache.stats().missCount());
+        assertEquals(4, cache.stats().putCount());
+
+        cache.removeAll(Arrays.asList("b", "d", "x"));
+        assertEquals(1, cache.size());
+        assertEquals(Arrays.asList("a", "b", "d"), removedKeys);
+    }
+
+    @Test
+    public void testPutAllWithNullValueCachesNothing() {
+        LruCache<String, String> cache = new LruCache<>(3);
+        Map<String, String> values = values("a");
+        values.put("b", null);
+        try {
+            cache.putAll(values);
+            fail();
+        } catch (NullPointerException expected) {
+        }
+        assertEquals(0, cache.size());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testControllableCache() {
+        Cache<String, String> cache = LruCache.newControllableCache(10);
+        cache.putAll(values("a", "b"));
+        Map<String, Cache.Entry<String>> entries = cache.getEntries(Arrays.asList("a", "b", "c"));
+        assertEquals(2, entries.size());
+        assertEquals("value a", entries.get("a").getValue());
+        assertTrue(entries.get("b").getTimestamp() > 0);
+        assertEquals(entries.get("b").getTimestamp(), cache.getTimestamp("b"));
+        assertEquals(Cache.NO_TIMESTAMP, cache.getTimestamp("c"));
+        assertEquals(values("a"), cache.getAll(Arrays.asList("a")));
+        cache.removeAll(Arrays.asList("a"));
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.size());
+
+        ((TrimmableCache) cache).trimToSize(0);
+        assertEquals(0, cache.size());
+        assertFalse(new ControllableCache<>(SingleValueCache.<String, Cache.Entry<String>>newCache())
+                instanceof TrimmableCache);
+    }
+
+    @Test
+    public void testPeekDoesNotCreateValues() {
+        LruCache<String, String> cache = new LruCache<String, String>(10) {
+            @Override
+            protected String create(String key) {
+                return "created " + key;
+            }
+        };
+        cache.putAll(values("a"));
+        assertEquals(values("a"), cache.peekAll(Arrays.asList("a", "b")));
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.stats().requestCount());
+
+        ControllableCache<String, String> controllableCache =
+                new ControllableCache<>(new LruCache<String, Cache.Entry<String>>(10));
+        controllableCache.putAll(values("a"));
+        assertEquals(values("a"), controllableCache.peekAll(Arrays.asList("a", "b")));
+        assertTrue(controllableCache.peekEntries(Arrays.asList("a")).get("a").getTimestamp() > 0);
+    }
+
+    @Test
+    public void testTimestampProbesAreNotCounted() {
+        Cache<String, String> concurrentCache = ConcurrentLruCache.newControllableCache(10);
+        Cache<String, String> tinyLfuCache = TinyLfuCache.newControllableCache(10);
+        SingleValueCache<String, String> singleValueCache = SingleValueCache.newCache();
+        for (Cache<String, String> cache : Arrays.asList(concurrentCache, tinyLfuCache, singleValueCache)) {
+            cache.put("a", new Cache.Entry<>("value a", 1000));
+            assertEquals(1000, cache.getTimestamp("a"));
+            assertEquals(Cache.NO_TIMESTAMP, cache.getTimestamp("b"));
+            assertEquals(0, cache.stats().requestCount());
+            assertEquals(1000, cache.getEntry("a").getTimestamp());
+            assertEquals(1, cache.stats().hitCount());
+        }
+    }
+
+    @Test
+    public void testSingleValueCache() {
+        SingleValueCache<String, String> cache = SingleValueCache.newCache();
+        cache.putAll(values("a", "b"));
+        assertEquals(values("b"), cache.getAll(Arrays.asList("a", "b")));
+        assertEquals(0, cache.getEntries(Arrays.asList("a")).size());
+        cache.removeAll(Arrays.asList("a", "b"));
+        assertNull(cache.get("b"));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import com.shkil.android.util.cache.CacheRegistry.TrimPriority;
+
+import org.junit.Test;
+
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE;
+import static junit.framework.Assert.assertEquals;
+
+public class CacheRegistryTest {
+
+    private static LruCache<Integer, String> newFilledCache(int maxSize) {
+        LruCache<Integer, String> cache = LruCache.newCache(maxSize);
+        for (int i = 0; i < maxSize; i++) {
+            cache.put(i, "value" + i);
+        }
+        return cache;
+    }
+
+    @Test
+    public void testTrimsByPriority() {
+        CacheRegistry registry = new CacheRegistry();
+        LruCache<Integer, String> high = registry.register(newFilledCache(100), TrimPriority.HIGH);
+        LruCache<Integer, String> normal = registry.register(newFilledCache(100));
+        LruCache<Integer, String> low = registry.register(newFilledCache(100), TrimPriority.LOW);
+
+        registry.trimMemory(TRIM_MEMORY_RUNNING_MODERATE);
+        assertEquals(75, high.size());
+        assertEquals(100, normal.size());
+        assertEquals(100, low.size());
+
+        registry.trimMemory(TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(50, high.size());
+        assertEquals(50, normal.size());
+        assertEquals(100, low.size());
+
+        registry.trimMemory(TRIM_MEMORY_BACKGROUND);
+        assertEquals(50, low.size());
+        assertEquals(100, low.maxSize());
+
+        registry.onLowMemory();
+        assertEquals(0, high.size());
+        assertEquals(0, normal.size());
+        assertEquals(0, low.size());
+    }
+
+    @Test
+    public void testResize() {
+        LruCache<Integer, String> lruCache = newFilledCache(10);
+        lruCache.resize(4);
+        assertEquals(4, lruCache.size());
+        assertEquals("value9", lruCache.get(9));
+        assertEquals(null, lruCache.get(5));
+
+        TinyLfuCache<Integer, String> tinyLfuCache = TinyLfuCache.newCache(10);
+        for (int i = 0; i < 10; i++) {
+            tinyLfuCache.put(i, "value" + i);
+        }
+        tinyLfuCache.resize(4);
+        assertEquals(4, tinyLfuCache.size());
+        tinyLfuCache.resize(20);
+        for (int i = 10; i < 20; i++) {
+            tinyLfuCache.put(i, "value" + i);
+        }
+        assertEquals(14, tinyLfuCache.size());
+    }
+}
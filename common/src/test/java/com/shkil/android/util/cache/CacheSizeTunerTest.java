@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class CacheSizeTunerTest {
+
+    @Test
+    public void testMovesBudgetToCacheWithHits() {
+        LruCache<Integer, Integer> smallLoopCache = LruCache.newCache(150);
+        LruCache<Integer, Integer> scanCache = LruCache.newCache(150);
+        CacheSizeTuner tuner = new CacheSizeTuner(300, 0);
+        tuner.register(smallLoopCache, 20, 400);
+        tuner.register(scanCache, 20, 400);
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(200); // fits in 200 entries
+            if (smallLoopCache.get(key) == null) {
+                smallLoopCache.put(key, key);
+            }
+            if (scanCache.get(i) == null) { // never requested again
+                scanCache.put(i, i);
+            }
+        }
+        int[] sizes = tuner.tune();
+        assertTrue(sizes[0] >= 200);
+        assertEquals(300, sizes[0] + sizes[1]);
+        assertEquals(sizes[0], smallLoopCache.maxSize());
+        assertEquals(sizes[1], scanCache.maxSize());
+    }
+
+    @Test
+    public void testKeepsSizesWithinBounds() {
+        LruCache<Integer, Integer> cache = LruCache.newCache(10);
+        CacheSizeTuner tuner = new CacheSizeTuner(1000);
+        tuner.register(cache, 5, 50);
+        for (int i = 0; i < 1000; i++) {
+            cache.get(i % 10);
+        }
+        assertEquals(50, tuner.tune()[0]);
+        assertEquals(50, cache.maxSize());
+    }
+
+    @Test
+    public void testRejectsMinSizesOverBudgetAndWeighedCaches() {
+        CacheSizeTuner tuner = new CacheSizeTuner(100);
+        tuner.register(LruCache.newCache(10), 60, 100);
+        try {
+            tuner.register(LruCache.newCache(10), 50, 100);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            tuner.register(LruCache.newWeighedCache(10, ObjectGraphWeigher.newWeigher()), 10, 100);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        tuner.register(LruCache.newCache(10), 40, 100);
+    }
+}
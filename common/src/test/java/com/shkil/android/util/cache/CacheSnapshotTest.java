@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import com.shkil.android.util.io.Codecs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class CacheSnapshotTest {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("snapshot", null);
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testRestoresHottestEntriesWithTimestamps() {
+        ControllableCache<String, String> cache = new ControllableCache<>(new LruCache<String, Cache.Entry<String>>(10));
+        for (int i = 0; i < 5; i++) {
+            cache.put("key" + i, new Cache.Entry<>("value" + i, 1000 + i));
+        }
+        cache.get("key0");
+        CacheSnapshot<String, String> snapshot = new CacheSnapshot<>(file, Codecs.STRING, Codecs.STRING, 3, DIRECT_EXECUTOR);
+        snapshot.save(cache);
+
+        ControllableCache<String, String> restoredCache = new ControllableCache<>(new LruCache<String, Cache.Entry<String>>(10));
+        restoredCache.put("key3", new Cache.Entry<>("newer value", 2000));
+        List<String> keys = snapshot.restore(restoredCache);
+        assertEquals(Arrays.asList("key0", "key4", "key3"), keys);
+        assertEquals(Arrays.asList("key3", "key4", "key0"), new ArrayList<>(restoredCache.snapshot().keySet()));
+        assertEquals(1000, restoredCache.getEntry("key0").getTimestamp());
+        assertEquals("value4", restoredCache.get("key4"));
+        assertEquals("newer value", restoredCache.get("key3"));
+        assertNull(restoredCache.get("key2"));
+    }
+
+    @Test
+    public void testRestoresKeysOnly() {
+        LruCache<String, String> cache = LruCache.newCache(10);
+        cache.put("a", "value a");
+        cache.put("b", "value b");
+        CacheSnapshot<String, String> snapshot = new CacheSnapshot<>(file, Codecs.STRING, null, 10, DIRECT_EXECUTOR);
+        snapshot.save(cache);
+
+        LruCache<String, String> restoredCache = LruCache.newCache(10);
+        assertEquals(Arrays.asList("b", "a"), snapshot.restore(restoredCache));
+        assertEquals(0, restoredCache.size());
+    }
+
+    @Test
+    public void testRestoresLruCacheValuesIfAbsent() {
+        LruCache<String, String> cache = LruCache.newCache(10);
+        cache.put("a", "value a");
+        cache.put("b", "value b");
+        long start = System.currentTimeMillis();
+        CacheSnapshot<String, String> snapshot = new CacheSnapshot<>(file, Codecs.STRING, Codecs.STRING, 10, DIRECT_EXECUTOR);
+        snapshot.save(cache);
+
+        LruCache<String, String> restoredCache = LruCache.newCache(10);
+        restoredCache.put("a", "fetched a");
+        snapshot.restore(restoredCache);
+        assertEquals("fetched a", restoredCache.get("a"));
+        assertEquals("value b", restoredCache.get("b"));
+
+        ControllableCache<String, String> controllableCache = new ControllableCache<>(new LruCache<String, Cache.Entry<String>>(10));
+        snapshot.restore(controllableCache);
+        assertTrue(controllableCache.getEntry("a").getTimestamp() >= start);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class CacheStatsTest {
+
+    @Test
+    public void testLruCacheStats() {
+        LruCache<String, String> cache = new LruCache<String, String>(2) {
+            @Override
+            protected String create(String key) {
+                return key.startsWith("new") ? "created" : null;
+            }
+
+            @Override
+            protected int sizeOf(String key, String value) {
+                return value.length() > 5 ? 2 : 1;
+            }
+        };
+        cache.put("a", "value a");
+        cache.put("b", "b");
+        cache.put("c", "c");
+        cache.get("b");
+        cache.get("x");
+        cache.get("new");
+
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.hitCount());
+        assertEquals(2, stats.missCount());
+        assertEquals(3, stats.putCount());
+        assertEquals(1, stats.loadSuccessCount());
+        assertTrue(stats.totalLoadTimeNanos() > 0);
+        assertEquals(3, stats.evictionCount());
+        assertEquals(4, stats.evictionWeight());
+        assertEquals(1.0 / 3, stats.hitRate(), 1e-9);
+
+        cache.setStatsCounter(StatsCounter.DISABLED);
+        cache.get("b");
+        assertSame(CacheStats.EMPTY, cache.stats());
+    }
+
+    @Test
+    public void testWindowedHitRate() {
+        final long[] second = {0};
+        ConcurrentStatsCounter counter = new ConcurrentStatsCounter(10) {
+            @Override
+            protected long currentSecond() {
+                return second[0];
+            }
+        };
+        for (int i = 0; i < 100; i++) {
+            counter.recordMiss();
+        }
+        second[0] = 5;
+        counter.recordHit();
+        counter.recordMiss();
+        CacheStats stats = counter.snapshot();
+        assertEquals(1, stats.windowHitCount());
+        assertEquals(101, stats.windowMissCount());
+
+        second[0] = 12;
+        counter.recordHit();
+        stats = counter.snapshot();
+        assertEquals(2, stats.windowHitCount());
+        assertEquals(1, stats.windowMissCount());
+        assertEquals(2.0 / 3, stats.windowHitRate(), 1e-9);
+        assertEquals(2, stats.hitCount());
+        assertEquals(101, stats.missCount());
+    }
+
+    @Test
+    public void testStatsOfCachesWithoutLoading() {
+        ExpiringLruCache<String, String> expiring = ExpiringLruCache.newCache(1, 1, TimeUnit.HOURS);
+        TinyLfuCache<String, String> tinyLfu = TinyLfuCache.newCache(1);
+        SingleValueCache<String, String> single = SingleValueCache.newCache();
+        assertRequestStats(expiring);
+        assertRequestStats(tinyLfu);
+        assertRequestStats(single);
+        assertEquals(1, expiring.hitCount());
+        assertEquals(1, expiring.evictionCount());
+        assertEquals(0, expiring.expirationCount());
+        assertEquals(1, tinyLfu.rejectionCount()); // a was evicted from the window without a victim
+        expiring.setStatsCounter(StatsCounter.DISABLED);
+        assertEquals(0, expiring.hitCount());
+        tinyLfu.setStatsCounter(StatsCounter.DISABLED);
+        assertEquals(0, tinyLfu.rejectionCount());
+    }
+
+    private static void assertRequestStats(Cache<String, String> cache) {
+        cache.put("a", "a");
+        cache.put("b", "b"); // evicts a
+        cache.get("b");
+        cache.get("a");
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.hitCount());
+        assertEquals(1, stats.missCount());
+        assertEquals(2, stats.putCount());
+        assertEquals(1, stats.evictionCount());
+    }
+
+    @Test
+    public void testStripedCounterSumsContendedUpdates() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100000; j++) {
+                        counter.increment();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        counter.add(5);
+        assertEquals(400005, counter.sum());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Replays key traces against cache implementations and reports hit ratios.
+ * Besides the synthetic traces, recorded traces are replayed from {@code *.trace} files
+ * (one key per line) of a directory given by the {@code cache.traces.dir} system property.
+ */
+public class CacheTraceReplayTest {
+
+    private static final String TRACES_DIR_PROPERTY = "cache.traces.dir";
+
+    private interface CacheFactory {
+        String getName();
+
+        Cache<String, String> newCache(int maxSize);
+    }
+
+    private static final CacheFactory LRU = new CacheFactory() {
+        @Override
+        public String getName() {
+            return "LruCache";
+        }
+
+        @Override
+        public Cache<String, String> newCache(int maxSize) {
+            return LruCache.newCache(maxSize);
+        }
+    };
+
+    private static final CacheFactory TINY_LFU = new CacheFactory() {
+        @Override
+        public String getName() {
+            return "TinyLfuCache";
+        }
+
+        @Override
+        public Cache<String, String> newCache(int maxSize) {
+            return TinyLfuCache.newCache(maxSize);
+        }
+    };
+
+    @Test
+    public void testScanResistance() {
+        List<String> trace = new ArrayList<>();
+        Random random = new Random(1);
+        int scanKey = 0;
+        for (int round = 0; round < 200; round++) {
+            for (int i = 0; i < 40; i++) {
+                trace.add("avatar" + random.nextInt(60));
+            }
+            for (int i = 0; i < 60; i++) {
+                trace.add("feed" + scanKey++);
+            }
+        }
+        double lru = replay("scan", trace, 100, LRU);
+        double tinyLfu = replay("scan", trace, 100, TINY_LFU);
+        assertTrue(tinyLfu > lru);
+    }
+
+    @Test
+    public void testSkewedDistribution() {
+        List<String> trace = new ArrayList<>();
+        Random random = new Random(2);
+        for (int i = 0; i < 100000; i++) {
+            double x = random.nextDouble();
+            trace.add("key" + (int) (x * x * x * 20000));
+        }
+        double lru = replay("skewed", trace, 500, LRU);
+        double tinyLfu = replay("skewed", trace, 500, TINY_LFU);
+        assertTrue(tinyLfu >= lru);
+    }
+
+    @Test
+    public void testRecordedTraces() throws IOException {
+        String tracesDir = System.getProperty(TRACES_DIR_PROPERTY);
+        if (tracesDir == null) {
+            return;
+        }
+        File[] files = new File(tracesDir).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(".trace")) {
+                List<String> trace = readTrace(file);
+                for (int maxSize : new int[]{100, 1000, 10000}) {
+                    replay(file.getName(), trace, maxSize, LRU);
+                    replay(file.getName(), trace, maxSize, TINY_LFU);
+                }
+            }
+        }
+    }
+
+    private static double replay(String traceName, List<String> trace, int maxSize, CacheFactory factory) {
+        Cache<String, String> cache = factory.newCache(maxSize);
+        int hits = 0;
+        for (String key : trace) {
+            if (cache.get(key) != null) {
+                hits++;
+            } else {
+                cache.put(key, key);
+            }
+        }
+        double hitRatio = (double) hits / trace.size();
+        System.out.println(String.format(Locale.US, "%s[%d] %s: hit ratio %.2f%%",
+                traceName, maxSize, factory.getName(), hitRatio * 100));
+        return hitRatio;
+    }
+
+    private static List<String> readTrace(File file) throws IOException {
+        List<String> result = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0) {
+                    result.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+}
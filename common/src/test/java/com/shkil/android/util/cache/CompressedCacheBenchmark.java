@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import com.shkil.android.util.io.Codecs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a raw {@link LruCache} with {@link CompressedCache} of the same memory budget on JSON values.
+ * A miss costs a simulated reload of the value, the hit ratio of each cache is printed after the run.
+ * Run with {@link #main} from the unit test classpath.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressedCacheBenchmark {
+
+    private static final int KEYS_COUNT = 1 << 12;
+    private static final int KEYS_MASK = KEYS_COUNT - 1;
+    private static final int VALUES_COUNT = 1 << 10;
+    private static final int MAX_BYTES = 256 * 1024;
+
+    @Param({"LruCache", "CompressedCache"})
+    public String cacheType;
+
+    private Cache<Integer, String> cache;
+    private Integer[] keys;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        if ("LruCache".equals(cacheType)) {
+            cache = new LruCache<Integer, String>(MAX_BYTES) {
+                @Override
+                protected int sizeOf(Integer key, String value) {
+                    return value.length() * 2;
+                }
+            };
+        } else {
+            cache = CompressedCache.newCache(MAX_BYTES, 16, Codecs.STRING);
+        }
+        Random random = new Random(1);
+        keys = new Integer[KEYS_COUNT];
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            // skewed distribution: small keys are much more frequent
+            double x = random.nextDouble();
+            keys[i] = (int) (x * x * VALUES_COUNT);
+        }
+    }
+
+    @Benchmark
+    public String read() {
+        Integer key = keys[index++ & KEYS_MASK];
+        String value = cache.get(key);
+        if (value == null) {
+            value = CompressedCacheTest.newJson(key);
+            cache.put(key, value);
+        }
+        return value;
+    }
+
+    @TearDown
+    public void tearDown() {
+        CacheStats stats = cache.stats();
+        System.out.println(String.format(Locale.US, "%n%s: hit ratio %.2f%%", cacheType, stats.hitRate() * 100));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CompressedCacheBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
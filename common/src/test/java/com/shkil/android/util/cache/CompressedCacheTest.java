@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import com.shkil.android.util.io.Codec;
+import com.shkil.android.util.io.Codecs;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.Deflater;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class CompressedCacheTest {
+
+    static String newJson(int id) {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < 50; i++) {
+            builder.append("{\"id\":").append(id * 100 + i)
+                    .append(",\"name\":\"item ").append(i)
+                    .append("\",\"description\":\"description of the item\",\"enabled\":true},");
+        }
+        return builder.append("{}]").toString();
+    }
+
+    @Test
+    public void testDeflateCodec() throws Exception {
+        Codec<String> codec = Codecs.deflate(Codecs.STRING, Deflater.DEFAULT_COMPRESSION);
+        String json = newJson(1);
+        byte[] data = codec.encode(json);
+        assertTrue(data.length * 5 < json.length());
+        assertEquals(json, codec.decode(data, 0, data.length));
+        byte[] empty = codec.encode("");
+        assertEquals("", codec.decode(empty, 0, empty.length));
+    }
+
+    @Test
+    public void testSizesByCompressedBytes() {
+        String json = newJson(1);
+        CompressedCache<Integer, String> cache = CompressedCache.newCache(json.length() * 2, 2, Codecs.STRING);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, newJson(i));
+        }
+        assertTrue(cache.size() <= json.length() * 2);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(newJson(i), cache.get(i));
+        }
+        assertEquals(0, cache.hotHitCount());
+        assertEquals(10, cache.stats().loadSuccessCount());
+        cache.put(20, new Cache.Entry<>(json, 1234));
+        cache.clear();
+        assertNull(cache.get(20));
+    }
+
+    @Test
+    public void testKeepsTimestamps() {
+        CompressedCache<Integer, String> cache = CompressedCache.newCache(1 << 16, 1, Codecs.STRING);
+        cache.put(1, new Cache.Entry<>("value 1", 1234));
+        cache.put(2, new Cache.Entry<>("value 2", 5678));
+        assertEquals(1234, cache.getTimestamp(1)); // compressed
+        assertEquals(5678, cache.getTimestamp(2)); // hot
+        assertEquals(Cache.NO_TIMESTAMP, cache.getTimestamp(3));
+        assertEquals(0, cache.stats().requestCount());
+        assertEquals(0, cache.stats().loadSuccessCount());
+        assertEquals(1234, cache.getEntry(1).getTimestamp()); // decoded
+        assertEquals(1234, cache.getEntry(1).getTimestamp()); // hot
+        assertEquals(1, cache.hotHitCount());
+        assertEquals(5678, cache.getEntry(2).getTimestamp());
+    }
+
+    @Test
+    public void testHotHitsKeepCompressedValuesRecentlyUsed() {
+        CompressedCache<String, String> probe = CompressedCache.newCache(1 << 16, 2, Codecs.STRING);
+        probe.put("a", "value a");
+        CompressedCache<String, String> cache = CompressedCache.newCache(probe.size() * 2, 2, Codecs.STRING);
+        cache.put("a", "value a");
+        cache.put("b", "value b");
+        assertEquals("value a", cache.get("a")); // hot
+        cache.put("c", "value c"); // evicts compressed b rather than a
+        assertEquals(1, cache.hotHitCount());
+        assertNull(cache.get("b"));
+        assertEquals("value a", cache.get("a"));
+    }
+
+    @Test(timeout = 5000)
+    public void testValueReplacedWhileDecodingIsNotPublished() throws Exception {
+        final CountDownLatch decoding = new CountDownLatch(1);
+        final CountDownLatch replaced = new CountDownLatch(1);
+        Codec<String> codec = new Codec<String>() {
+            @Override
+            public byte[] encode(String value) throws IOException {
+                return Codecs.STRING.encode(value);
+            }
+
+            @Override
+            public String decode(byte[] data, int offset, int length) throws IOException {
+                decoding.countDown();
+                try {
+                    replaced.await();
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+                return Codecs.STRING.decode(data, offset, length);
+            }
+        };
+        final CompressedCache<String, String> cache = new CompressedCache<>(1 << 16, 1, codec, Deflater.BEST_SPEED);
+        cache.put("a", "old");
+        cache.put("b", "value b"); // a is not hot anymore
+        final String[] result = new String[1];
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                result[0] = cache.get("a");
+            }
+        };
+        reader.start();
+        decoding.await();
+        cache.put("a", "new");
+        replaced.countDown();
+        reader.join();
+        assertEquals("old", result[0]);
+        assertEquals("new", cache.get("a"));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class ConcurrentLruCacheTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        ConcurrentLruCache<String, String> cache = ConcurrentLruCache.newCache(3);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("c", "C");
+        assertEquals("A", cache.get("a"));
+        cache.put("d", "D");
+        assertNull(cache.get("b"));
+        assertEquals("A", cache.get("a"));
+        assertEquals("C", cache.get("c"));
+        assertEquals("D", cache.get("d"));
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void testSizeOfAndEntryRemoved() {
+        final List<String> removed = new ArrayList<>();
+        ConcurrentLruCache<String, String> cache = new ConcurrentLruCache<String, String>(10) {
+            @Override
+            protected int sizeOf(String key, String value) {
+                return value.length();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, String oldValue, String newValue) {
+                removed.add((evicted ? "evicted:" : "removed:") + key + "=" + oldValue + "->" + newValue);
+            }
+        };
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        cache.put("a", "aa");
+        assertEquals(6, cache.size());
+        cache.put("c", "cccccc");
+        assertEquals(8, cache.size());
+        cache.remove("c");
+        assertEquals(2, cache.size());
+        assertEquals("[removed:a=aaaa->aa, evicted:b=bbbb->null, removed:c=cccccc->null]", removed.toString());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final int threadCount = 8;
+        final int maxSize = 100;
+        final AtomicInteger removedSize = new AtomicInteger();
+        final ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<Integer, Integer>(maxSize) {
+            @Override
+            protected void entryRemoved(boolean evicted, Integer key, Integer oldValue, Integer newValue) {
+                if (newValue == null) {
+                    removedSize.incrementAndGet();
+                }
+            }
+        };
+        final AtomicInteger putCount = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            final int seed = t;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 20000; i++) {
+                            int key = (i * 31 + seed) % 500;
+                            if (cache.get(key) == null && cache.put(key, key) == null) {
+                                putCount.incrementAndGet();
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        assertTrue(cache.size() <= maxSize);
+        assertEquals(cache.snapshot().size(), cache.size());
+        assertEquals(putCount.get() - removedSize.get(), cache.size());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class DedupCacheTest {
+
+    @Test
+    public void testStoresEqualValuesOnce() {
+        DedupCache<String, byte[]> cache = DedupCache.newByteArrayCache(100);
+        byte[] avatar = {1, 2, 3, 4};
+        cache.put("a?size=1", avatar);
+        cache.put("a?size=2", new byte[]{1, 2, 3, 4});
+        cache.put("b", new byte[]{1, 2, 3, 5});
+        assertSame(avatar, cache.get("a?size=2"));
+        assertEquals(3, cache.keyCount());
+        assertEquals(2, cache.valueCount());
+        assertEquals(8, cache.size());
+        assertEquals(1, cache.sharedPutCount());
+
+        cache.put("b", new byte[]{1, 2, 3, 4}); // replaced by the shared value
+        assertEquals(1, cache.valueCount());
+        assertEquals(4, cache.size());
+        cache.remove("a?size=1");
+        assertSame(avatar, cache.get("b"));
+    }
+
+    @Test
+    public void testReleasesValueWhenLastKeyIsEvicted() {
+        final List<byte[]> released = new ArrayList<>();
+        DedupCache<String, byte[]> cache = new DedupCache<String, byte[]>(10, DedupCache.BYTE_ARRAY_CONTENT) {
+            @Override
+            protected void valueRemoved(boolean evicted, byte[] value) {
+                assertTrue(evicted);
+                released.add(value);
+            }
+        };
+        byte[] shared = new byte[6];
+        cache.put("x", shared);
+        cache.put("y", new byte[6]);
+        cache.put("z", new byte[]{1, 2, 3, 4});
+        assertEquals(10, cache.size());
+
+        cache.put("w", new byte[]{5}); // evicts x, but y still maps the shared value, then y
+        assertEquals(1, released.size());
+        assertSame(shared, released.get(0));
+        assertNull(cache.get("x"));
+        assertNull(cache.get("y"));
+        assertEquals(5, cache.size());
+        assertEquals(2, cache.stats().evictionCount());
+    }
+
+    @Test
+    public void testComparesCollidingValuesWithoutLock() {
+        final DedupCache<?, ?>[] holder = new DedupCache<?, ?>[1];
+        DedupCache<String, byte[]> cache = new DedupCache<>(100, new DedupCache.Content<byte[]>() {
+            @Override
+            public int hash(byte[] value) {
+                return 0; // all values collide
+            }
+
+            @Override
+            public int sizeOf(byte[] value) {
+                return value.length;
+            }
+
+            @Override
+            public boolean contentEquals(byte[] value1, byte[] value2) {
+                assertFalse(Thread.holdsLock(holder[0]));
+                return DedupCache.BYTE_ARRAY_CONTENT.contentEquals(value1, value2);
+            }
+        });
+        holder[0] = cache;
+        cache.put("a", new byte[]{1});
+        cache.put("b", new byte[]{2});
+        cache.put("c", new byte[]{2});
+        assertEquals(2, cache.valueCount());
+        assertEquals(1, cache.sharedPutCount());
+        assertSame(cache.get("b"), cache.get("c"));
+        cache.remove("a");
+        assertEquals(1, cache.valueCount());
+        assertEquals(1, cache.size());
+    }
+}
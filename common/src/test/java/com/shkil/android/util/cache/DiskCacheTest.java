@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import com.shkil.android.util.io.Codecs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+
+public class DiskCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testEntriesAndTimestampsArePersisted() throws Exception {
+        File directory = temporaryFolder.newFolder();
+        DiskCache<String, String> cache = DiskCache.open(directory, 1024, Codecs.STRING);
+        cache.put("a", new Cache.Entry<>("value a", 1000));
+        cache.put("b", "value b");
+        cache.put("a", new Cache.Entry<>("value a2", 2000));
+        cache.close();
+
+        cache = DiskCache.open(directory, 1024, Codecs.STRING);
+        Cache.Entry<String> entry = cache.getEntry("a");
+        assertEquals("value a2", entry.getValue());
+        assertEquals(2000, entry.getTimestamp());
+        assertEquals("value b", cache.get("b"));
+        assertEquals(2, cache.size());
+        assertEquals(15, cache.sizeBytes());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        DiskCache<String, String> cache = DiskCache.open(temporaryFolder.newFolder(), 10, Codecs.STRING);
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        cache.get("a");
+        cache.put("c", "cccc");
+        assertNull(cache.get("b"));
+        assertEquals("aaaa", cache.get("a"));
+        assertEquals("cccc", cache.get("c"));
+        assertEquals(8, cache.sizeBytes());
+    }
+
+    @Test
+    public void testRecoversFromCrashedWrites() throws Exception {
+        File directory = temporaryFolder.newFolder();
+        DiskCache<String, String> cache = DiskCache.open(directory, 1024, Codecs.STRING);
+        cache.put("a", "value a");
+        cache.close();
+
+        // unfinished write of a value and a truncated journal record
+        File tempFile = new File(directory, "100.tmp");
+        FileOutputStream output = new FileOutputStream(tempFile);
+        output.write(new byte[]{1, 2, 3});
+        output.close();
+        RandomAccessFile journal = new RandomAccessFile(new File(directory, DiskCache.JOURNAL_FILE), "rw");
+        journal.seek(journal.length());
+        journal.write(new byte[]{1, 0, 0, 0, 1, 'b', 0, 0});
+        journal.close();
+
+        cache = DiskCache.open(directory, 1024, Codecs.STRING);
+        assertEquals("value a", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertFalse(tempFile.exists());
+        cache.put("b", "value b");
+        cache.close();
+
+        cache = DiskCache.open(directory, 1024, Codecs.STRING);
+        assertEquals("value a", cache.get("a"));
+        assertEquals("value b", cache.get("b"));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+public class ExpiringLruCacheTest {
+
+    private static class TestCache extends ExpiringLruCache<String, String> {
+        long time;
+        final List<String> removedKeys = new ArrayList<>();
+
+        TestCache(long expireAfterWrite, long expireAfterAccess) {
+            super(100, expireAfterWrite, expireAfterAccess, TimeUnit.SECONDS);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return time;
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, String key, String oldValue, String newValue) {
+            removedKeys.add(key);
+        }
+    }
+
+    @Test
+    public void testExpiresAfterWrite() {
+        TestCache cache = new TestCache(10, 0);
+        cache.put("a", "value a");
+        cache.put("b", new Cache.Entry<>("value b", -5000));
+        cache.time = 9000;
+        Cache.Entry<String> entry = cache.getEntry("a");
+        assertEquals("value a", entry.getValue());
+        assertEquals(0, entry.getTimestamp());
+        assertNull(cache.get("b"));
+        cache.time = 10000;
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.expirationCount());
+    }
+
+    @Test
+    public void testExpiresAfterAccess() {
+        TestCache cache = new TestCache(0, 10);
+        cache.put("a", "value a");
+        cache.put("b", "value b");
+        for (int i = 1; i <= 5; i++) {
+            cache.time = i * 5000;
+            assertEquals("value a", cache.get("a"));
+        }
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testReleasesExpiredEntriesThatAreNotRead() {
+        TestCache cache = new TestCache(3600, 0);
+        for (int i = 0; i < 50; i++) {
+            cache.time = i * 1000;
+            cache.put("key" + i, "value");
+        }
+        cache.time = 3600 * 1000 + 25 * 1000;
+        cache.cleanUp();
+        assertEquals(24, cache.size());
+        assertEquals(26, cache.removedKeys.size());
+        assertEquals("key0", cache.removedKeys.get(0));
+        cache.time = 3 * 3600 * 1000;
+        cache.cleanUp();
+        assertEquals(0, cache.size());
+        assertEquals(50, cache.expirationCount());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowBitmapFactory;
+
+import java.util.concurrent.Executor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, shadows = {BitmapShadows.DecodingBitmapFactory.class, BitmapShadows.ReusableBitmap.class})
+public class ImageFetcherDecodeTest {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final BitmapPool pool = new BitmapPool(1024 * 1024);
+    private final ImageFetcher fetcher = ImageFetcher.create(DIRECT_EXECUTOR,
+            MemoryImageCache.<ImageKey>newInstance(1024 * 1024).setBitmapPool(pool), null);
+
+    @Before
+    public void setUp() {
+        ShadowBitmapFactory.provideWidthAndHeightHints("/images/photo.jpg", 400, 300);
+        ShadowBitmapFactory.provideWidthAndHeightHints("/images/icon.png", 400, 300);
+        BitmapShadows.DecodingBitmapFactory.boundsDecodeCount = 0;
+    }
+
+    @Test
+    public void testJpegIsSampledToKeyDimensions() throws Exception {
+        Bitmap bitmap = fetcher.fetchValue(ImageKey.create("/images/photo.jpg", 100, 75));
+        assertEquals(100, bitmap.getWidth());
+        assertEquals(75, bitmap.getHeight());
+        assertEquals(Bitmap.Config.RGB_565, bitmap.getConfig());
+        assertTrue(bitmap.isMutable());
+        assertEquals(1, BitmapShadows.DecodingBitmapFactory.boundsDecodeCount);
+    }
+
+    @Test
+    public void testSampleSizeKeepsImageCoveringTarget() throws Exception {
+        Bitmap bitmap = fetcher.fetchValue(ImageKey.create("/images/icon.png", 150, 0));
+        assertEquals(200, bitmap.getWidth());
+        assertEquals(150, bitmap.getHeight());
+        assertEquals(Bitmap.Config.ARGB_8888, bitmap.getConfig());
+    }
+
+    @Test
+    public void testScaledDecodeHasDisplayDensity() throws Exception {
+        fetcher.setScaleToTargetSize(true);
+        Bitmap bitmap = fetcher.fetchValue(ImageKey.create("/images/icon.png", 150, 0));
+        assertEquals(150, bitmap.getWidth());
+        assertEquals(113, bitmap.getHeight());
+        assertEquals(Resources.getSystem().getDisplayMetrics().densityDpi, bitmap.getDensity());
+    }
+
+    @Test
+    public void testPooledBitmapIsReusedWithoutDecodingBoundsAgain() throws Exception {
+        Bitmap pooled = Bitmap.createBitmap(100, 75, Bitmap.Config.RGB_565);
+        pool.put(pooled);
+        Bitmap bitmap = fetcher.fetchValue(ImageKey.create("/images/photo.jpg", 100, 75));
+        assertSame(pooled, bitmap);
+        assertEquals(1, pool.hitCount());
+        assertEquals(1, BitmapShadows.DecodingBitmapFactory.boundsDecodeCount);
+    }
+}
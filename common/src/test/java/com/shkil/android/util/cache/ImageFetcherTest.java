@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+
+public class ImageFetcherTest {
+
+    @Test
+    public void testInSampleSizeKeepsImageAtLeastAsLargeAsTarget() {
+        assertEquals(1, ImageFetcher.calculateInSampleSize(4000, 3000, 0, 0));
+        assertEquals(1, ImageFetcher.calculateInSampleSize(4000, 3000, 4000, 3000));
+        assertEquals(4, ImageFetcher.calculateInSampleSize(4000, 3000, 1000, 750));
+        assertEquals(2, ImageFetcher.calculateInSampleSize(4000, 3000, 1001, 750));
+        assertEquals(8, ImageFetcher.calculateInSampleSize(4000, 3000, 0, 300));
+        assertEquals(2048, ImageFetcher.calculateInSampleSize(4000, 3000, 1, 1));
+    }
+
+    @Test
+    public void testTargetDimensionsArePartOfKey() {
+        assertEquals(ImageKey.create("a.jpg", 100, 100), ImageKey.create("a.jpg", 100, 100));
+        assertFalse(ImageKey.create("a.jpg", 100, 100).equals(ImageKey.create("a.jpg", 200, 200)));
+        assertEquals(ImageKey.create("a.jpg", 0, 0), ImageKey.create("a.jpg"));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class LongLruCacheTest {
+
+    private static final int ITERATIONS = 100000;
+
+    @Test
+    public void testEvictsLeastRecentlyUsedBySize() {
+        final List<Long> evictedKeys = new ArrayList<>();
+        LongLruCache<String> cache = new LongLruCache<String>(10) {
+            @Override
+            protected int sizeOf(long key, String value) {
+                return value.length();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, long key, String oldValue, String newValue) {
+                if (evicted) {
+                    evictedKeys.add(key);
+                }
+            }
+        };
+        // colliding keys exercise probing and backward shift deletion
+        for (long key = 0; key < 100; key++) {
+            cache.put(key << 32, "ab");
+        }
+        assertEquals(10, cache.size());
+        assertTrue(Arrays.equals(new long[]{95L << 32, 96L << 32, 97L << 32, 98L << 32, 99L << 32}, cache.keys()));
+        assertEquals("ab", cache.get(95L << 32));
+        assertEquals("ab", cache.remove(97L << 32));
+        cache.put(1, "abcd");
+        assertEquals(96, evictedKeys.size());
+        assertTrue(Arrays.equals(new long[]{98L << 32, 99L << 32, 95L << 32, 1}, cache.keys()));
+        assertNull(cache.get(96L << 32));
+        assertTrue(cache.containsKey(1));
+        assertFalse(cache.containsKey(97L << 32));
+
+        Cache<Long, String> boxed = cache.asCache();
+        assertEquals("abcd", boxed.get(1L));
+        boxed.put(2L, "ab");
+        assertEquals(4, cache.count());
+        long requestCount = cache.stats().requestCount();
+        assertEquals(0, boxed.getTimestamp(2L));
+        assertEquals(Cache.NO_TIMESTAMP, boxed.getTimestamp(3L));
+        assertEquals(requestCount, cache.stats().requestCount());
+        boxed.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.keys().length);
+    }
+
+    @Test
+    public void testCachedHitDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        LongLruCache<String> cache = LongLruCache.newCache(1000);
+        for (long key = 0; key < 1000; key++) {
+            cache.put(key, "value");
+        }
+        getAll(cache, ITERATIONS); // warm up
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        getAll(cache, ITERATIONS);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        assertEquals("Bytes allocated per cached hit", 0, allocated / ITERATIONS);
+    }
+
+    /**
+     * Compares estimated footprints of both caches holding the same values. The estimate of
+     * {@code LinkedHashMap} entries ignores their LRU links, so the boxed cache is even larger than that.
+     */
+    @Test
+    public void testFootprintIsSmallerThanBoxedKeysCache() {
+        int count = 10000;
+        ObjectGraphWeigher<Object, Object> weigher = new ObjectGraphWeigher<>(false, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        LongLruCache<String> longCache = LongLruCache.newCache(count);
+        LruCache<Long, String> boxedCache = LruCache.newCache(count);
+        long emptyLongSize = weigher.weighObject(longCache);
+        long emptyBoxedSize = weigher.weighObject(boxedCache);
+        for (long key = 0; key < count; key++) {
+            String value = "value";
+            longCache.put(key * 7919, value);
+            boxedCache.put(key * 7919, value);
+        }
+        long longEntrySize = (weigher.weighObject(longCache) - emptyLongSize) / count;
+        long boxedEntrySize = (weigher.weighObject(boxedCache) - emptyBoxedSize) / count;
+        assertTrue("Bytes per entry: LongLruCache " + longEntrySize + ", LruCache<Long, V> " + boxedEntrySize,
+                longEntrySize * 3 < boxedEntrySize * 2);
+    }
+
+    private static void getAll(LongLruCache<String> cache, int count) {
+        for (int i = 0; i < count; i++) {
+            cache.get(i % 1000);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link LruCache} with {@link ConcurrentLruCache} on a skewed key distribution.
+ * Run with {@link #main} from the unit test classpath.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class LruCacheBenchmark {
+
+    private static final int KEYS_COUNT = 1 << 14;
+    private static final int KEYS_MASK = KEYS_COUNT - 1;
+    private static final int CACHE_SIZE = 1 << 12;
+
+    @Param({"LruCache", "ConcurrentLruCache"})
+    public String cacheType;
+
+    private Cache<Integer, Integer> cache;
+    private Integer[] keys;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int index = new Random().nextInt(KEYS_COUNT);
+    }
+
+    @Setup
+    public void setUp() {
+        if ("LruCache".equals(cacheType)) {
+            cache = LruCache.newCache(CACHE_SIZE);
+        } else {
+            cache = ConcurrentLruCache.newCache(CACHE_SIZE);
+        }
+        Random random = new Random(1);
+        keys = new Integer[KEYS_COUNT];
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            // skewed distribution: small keys are much more frequent
+            double x = random.nextDouble();
+            keys[i] = (int) (x * x * x * CACHE_SIZE * 2);
+        }
+        for (Integer key : keys) {
+            cache.put(key, key);
+        }
+    }
+
+    @Benchmark
+    public Integer read(ThreadState state) {
+        Integer key = keys[state.index++ & KEYS_MASK];
+        return cache.get(key);
+    }
+
+    @Benchmark
+    public Integer readWrite(ThreadState state) {
+        int index = state.index++;
+        Integer key = keys[index & KEYS_MASK];
+        if ((index & 7) == 0) {
+            return cache.put(key, key);
+        }
+        Integer value = cache.get(key);
+        if (value == null) {
+            cache.put(key, key);
+        }
+        return value;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(LruCacheBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import com.shkil.android.util.io.Codecs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class MappedBlobCacheTest {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MappedBlobCache<String> open(File directory) {
+        return new MappedBlobCache<>(directory, 1024, 8, Codecs.STRING, DIRECT_EXECUTOR);
+    }
+
+    @Test
+    public void testReloadsIndexAndAppendedRecords() throws Exception {
+        File directory = temporaryFolder.newFolder();
+        MappedBlobCache<String> cache = open(directory);
+        cache.put("a", new Cache.Entry<>(new byte[]{1, 2, 3}, 1000));
+        cache.put("b", new byte[]{4, 5});
+        cache.flush();
+        cache.put("c", new byte[]{6});
+        cache.remove("b");
+
+        cache = open(directory);
+        Cache.Entry<byte[]> entry = cache.getEntry("a");
+        assertTrue(Arrays.equals(new byte[]{1, 2, 3}, entry.getValue()));
+        assertEquals(1000, entry.getTimestamp());
+        assertNull(cache.get("b"));
+        ByteBuffer view = cache.getView("c");
+        assertEquals(1, view.remaining());
+        assertEquals(6, view.get(0));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testCompactsDeadRecords() throws Exception {
+        File directory = temporaryFolder.newFolder();
+        MappedBlobCache<String> cache = open(directory);
+        byte[] value = new byte[100];
+        for (int i = 0; i < 100; i++) {
+            value[0] = (byte) i;
+            cache.put("key" + (i % 3), value);
+        }
+        assertEquals(3, cache.size());
+        int segmentCount = directory.list().length - 1; // without index
+        assertTrue(segmentCount <= 2);
+
+        cache = open(directory);
+        assertEquals(99, cache.get("key0")[0]);
+        assertEquals(97, cache.get("key1")[0]);
+        assertEquals(98, cache.get("key2")[0]);
+    }
+
+    @Test
+    public void testCompactionKeepsSourceSegmentWhenRolling() throws Exception {
+        File directory = temporaryFolder.newFolder();
+        final List<Runnable> compactions = new ArrayList<>();
+        MappedBlobCache<String> cache = new MappedBlobCache<>(directory, 1024, 2, Codecs.STRING, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                compactions.add(command);
+            }
+        });
+        byte[] value = new byte[100]; // 126 bytes per record, 8 records per segment
+        for (int i = 0; i < 9; i++) {
+            value[0] = (byte) i;
+            cache.put("k" + i, value);
+        }
+        for (int i = 1; i < 7; i++) {
+            value[0] = (byte) (10 + i);
+            cache.put("k" + i, value); // the first segment keeps only k0 and k7
+        }
+        cache.put("k9", value); // the active segment is full
+        assertEquals(1, compactions.size());
+
+        compactions.get(0).run(); // copying k0 rolls a new segment with the source one at the limit
+        assertEquals(10, cache.size());
+        assertEquals(0, cache.get("k0")[0]);
+        assertEquals(7, cache.get("k7")[0]);
+        assertEquals(8, cache.get("k8")[0]);
+        assertEquals(2, directory.list().length - 1); // without index
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class ObjectGraphWeigherTest {
+
+    static class Item {
+        long id;
+        String name;
+        int[] values;
+        Item parent;
+    }
+
+    @Test
+    public void testWeighsFieldsArraysAndStrings() {
+        ObjectGraphWeigher<String, Object> weigher = ObjectGraphWeigher.newWeigher();
+        Item item = new Item();
+        assertEquals(32, weigher.weighObject(item)); // header, long and 3 references aligned to 8
+        item.name = "name";
+        item.values = new int[10];
+        item.parent = item;
+        assertEquals(32 + 24 + 56, weigher.weighObject(item));
+        assertEquals(weigher.weighObject(item), weigher.weigh("key", item));
+    }
+
+    @Test
+    public void testSamplesLargeCollections() {
+        ObjectGraphWeigher<String, Object> weigher = new ObjectGraphWeigher<>(false, 16, 100000);
+        List<Item> items = new ArrayList<>();
+        Map<Integer, String> map = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            Item item = new Item();
+            item.name = "item";
+            items.add(item);
+            map.put(i, "value");
+        }
+        long listSize = weigher.weighObject(items);
+        assertEquals(24 + 4016 + 1000 * 32 + 24, listSize); // the name is shared, so it is counted once
+        long mapSize = weigher.weighObject(map);
+        assertTrue(mapSize > 1000 * (32 + 16));
+
+        ObjectGraphWeigher<String, Object> cappedWeigher = new ObjectGraphWeigher<>(false, 10000, 10);
+        assertTrue(cappedWeigher.weighObject(items) < listSize / 4);
+
+        LruCache<String, Object> cache = LruCache.newWeighedCache(100 * 1024, weigher);
+        cache.put("items", items);
+        assertEquals(weigher.weighObject(items), cache.size());
+    }
+
+    @Test
+    public void testSampledObjectsReferencingThemselvesAreExtrapolated() {
+        ObjectGraphWeigher<String, Object> weigher = new ObjectGraphWeigher<>(false, 16, 100000);
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Item item = new Item();
+            item.parent = item;
+            items.add(item);
+        }
+        assertEquals(24 + 4016 + 1000 * 32, weigher.weighObject(items));
+    }
+
+    @Test
+    public void testWeighedCacheWeighsEntriesOnce() {
+        final int[] weighCount = new int[1];
+        LruCache<String, String> cache = LruCache.newWeighedCache(10, new Weigher<String, String>() {
+            @Override
+            public int weigh(String key, String value) {
+                weighCount[0]++;
+                return value.length();
+            }
+        });
+        cache.put("a", "12345");
+        cache.put("b", "1234");
+        cache.put("a", "123"); // replaces
+        assertEquals(7, cache.size());
+        cache.put("c", "abcd"); // evicts b
+        assertEquals(7, cache.size());
+        cache.remove("a");
+        assertEquals(4, cache.size());
+        assertEquals(4, weighCount[0]);
+    }
+}
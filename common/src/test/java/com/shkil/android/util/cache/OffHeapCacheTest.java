@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import com.shkil.android.util.io.Codecs;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class OffHeapCacheTest {
+
+    @Test
+    public void testStoresValuesAndTimestamps() {
+        OffHeapCache<String, String> cache = new OffHeapCache<>(4096, 1024, Codecs.STRING);
+        cache.put("a", new Cache.Entry<>("value a", 1000));
+        cache.put("b", "value b");
+        cache.put("a", new Cache.Entry<>("value a2", 2000));
+        Cache.Entry<String> entry = cache.getEntry("a");
+        assertEquals("value a2", entry.getValue());
+        assertEquals(2000, entry.getTimestamp());
+        assertEquals("value b", cache.get("b"));
+        assertEquals(2, cache.size());
+        cache.remove("b");
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedOfSizeClass() {
+        // a single slab of 64-byte chunks
+        OffHeapCache<Integer, byte[]> cache = new OffHeapCache<>(1024, 1024, Codecs.BYTE_ARRAY);
+        for (int i = 0; i < 16; i++) {
+            cache.put(i, new byte[]{(byte) i});
+        }
+        cache.get(0);
+        cache.put(16, new byte[]{16});
+        assertEquals(16, cache.size());
+        assertEquals(1, cache.evictionCount());
+        assertNull(cache.get(1));
+        assertTrue(Arrays.equals(new byte[]{0}, cache.get(0)));
+        for (int i = 2; i <= 16; i++) {
+            assertEquals(i, cache.get(i)[0]);
+        }
+    }
+
+    @Test
+    public void testMovesSlabToClassWithoutMemory() {
+        OffHeapCache<Integer, byte[]> cache = new OffHeapCache<>(2048, 1024, Codecs.BYTE_ARRAY);
+        for (int i = 0; i < 32; i++) {
+            cache.put(i, new byte[]{(byte) i});
+        }
+        assertEquals(2048, cache.allocatedBytes());
+
+        // the slab holding the least recently used entry is moved to the class of large values
+        cache.put(100, new byte[500]);
+        assertEquals(500, cache.get(100).length);
+        assertEquals(2048, cache.allocatedBytes());
+        assertEquals(16, cache.evictionCount());
+        assertEquals(17, cache.size());
+        assertNull(cache.get(1));
+        assertEquals(16, cache.get(16)[0]);
+        assertEquals(31, cache.get(31)[0]);
+    }
+}
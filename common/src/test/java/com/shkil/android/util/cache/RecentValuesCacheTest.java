@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class RecentValuesCacheTest {
+
+    @Test
+    public void testEvictsByClock() {
+        final List<String> evictedKeys = new ArrayList<>();
+        RecentValuesCache<String, String> cache = new RecentValuesCache<String, String>(3) {
+            @Override
+            protected void entryRemoved(boolean evicted, String key, String oldValue, String newValue) {
+                if (evicted) {
+                    evictedKeys.add(key);
+                }
+            }
+        };
+        cache.put("a", new Cache.Entry<>("value a", 1234));
+        cache.put("b", "value b");
+        cache.put("c", "value c");
+        assertEquals("value a", cache.get("a"));
+        assertEquals("value c", cache.get("c"));
+        cache.put("d", "value d"); // the hand skips "a"
+        assertEquals(1, evictedKeys.size());
+        assertEquals("b", evictedKeys.get(0));
+        assertEquals(1234, cache.getEntry("a").getTimestamp());
+        assertNull(cache.put("b", "value b2")); // "a" and "c" are read, "d" is not
+        assertEquals("d", evictedKeys.get(1));
+        assertEquals("value b2", cache.remove("b"));
+        assertEquals(2, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testTimestampProbesDoNotReferenceEntries() {
+        RecentValuesCache<String, String> cache = RecentValuesCache.newCache(2);
+        cache.put("a", new Cache.Entry<>("value a", 1234));
+        cache.put("b", "value b");
+        assertEquals(1234, cache.getTimestamp("a"));
+        assertEquals(Cache.NO_TIMESTAMP, cache.getTimestamp("c"));
+        assertEquals(0, cache.stats().requestCount());
+        cache.put("c", "value c"); // the hand does not skip "a"
+        assertEquals(Cache.NO_TIMESTAMP, cache.getTimestamp("a"));
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final RecentValuesCache<Integer, Integer> cache = RecentValuesCache.newCache(4);
+        final AtomicInteger wrongValues = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        Integer key = (i * 7 + seed) % 6;
+                        Integer value = cache.get(key);
+                        if (value == null) {
+                            cache.put(key, key * 10);
+                        } else if (value != key * 10) {
+                            wrongValues.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, wrongValues.get());
+        assertTrue(cache.size() <= 4);
+        assertTrue(cache.stats().hitCount() > 0);
+    }
+}
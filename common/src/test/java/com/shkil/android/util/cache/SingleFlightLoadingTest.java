@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import com.shkil.android.util.ValueFetcher;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class SingleFlightLoadingTest {
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        final LruCache<String, String> cache = new LruCache<>(10);
+        final CountDownLatch loadStarted = new CountDownLatch(1);
+        final CountDownLatch releaseLoad = new CountDownLatch(1);
+        final AtomicInteger loadCount = new AtomicInteger();
+        final ValueFetcher<String, String> loader = new ValueFetcher<String, String>() {
+            @Override
+            public String fetchValue(String key) throws Exception {
+                loadCount.incrementAndGet();
+                loadStarted.countDown();
+                releaseLoad.await();
+                return "value " + key;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return cache.computeIfAbsent("a", loader);
+                    }
+                }));
+            }
+            assertTrue(loadStarted.await(5, TimeUnit.SECONDS));
+            // Other keys are not blocked by the load in progress
+            assertEquals("value b", cache.computeIfAbsent("b", new ValueFetcher<String, String>() {
+                @Override
+                public String fetchValue(String key) {
+                    return "value " + key;
+                }
+            }));
+            releaseLoad.countDown();
+            for (Future<String> result : results) {
+                assertEquals("value a", result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loadCount.get());
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.createCount());
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws Exception {
+        LruCache<String, String> cache = new LruCache<>(10);
+        final IOException failure = new IOException();
+        try {
+            cache.computeIfAbsent("a", new ValueFetcher<String, String>() {
+                @Override
+                public String fetchValue(String key) throws Exception {
+                    throw failure;
+                }
+            });
+            fail();
+        } catch (ExecutionException ex) {
+            assertSame(failure, ex.getCause());
+        }
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.stats().loadFailureCount());
+
+        final AtomicInteger createCount = new AtomicInteger();
+        LruCache<String, String> creatingCache = new LruCache<String, String>(10) {
+            @Override
+            protected String create(String key) {
+                createCount.incrementAndGet();
+                return "created " + key;
+            }
+        }.setSingleFlightLoading(true);
+        assertEquals("created a", creatingCache.get("a"));
+        assertEquals("created a", creatingCache.get("a"));
+        assertEquals(1, createCount.get());
+    }
+
+    @Test(timeout = 5000)
+    public void testRecursiveLoadFailsInsteadOfDeadlocking() throws Exception {
+        final LruCache<String, String> cache = new LruCache<>(10);
+        try {
+            cache.computeIfAbsent("a", new ValueFetcher<String, String>() {
+                @Override
+                public String fetchValue(String key) throws Exception {
+                    return cache.computeIfAbsent("a", this);
+                }
+            });
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+            assertEquals("recursive load of a", ex.getCause().getMessage());
+        }
+        assertEquals(0, cache.size());
+        assertEquals("value a", cache.computeIfAbsent("a", new ValueFetcher<String, String>() {
+            @Override
+            public String fetchValue(String key) {
+                return "value " + key;
+            }
+        }));
+
+        LruCache<String, String> creatingCache = new LruCache<String, String>(10) {
+            @Override
+            protected String create(String key) {
+                return get(key);
+            }
+        }.setSingleFlightLoading(true);
+        try {
+            creatingCache.get("b");
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.shkil.android.util.io.Codecs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SqliteCacheTest {
+
+    private final List<Runnable> scheduledFlushes = new ArrayList<>();
+
+    private final Executor queueExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            scheduledFlushes.add(command);
+        }
+    };
+
+    private SQLiteDatabase database;
+
+    @Before
+    public void setUp() {
+        database = SQLiteDatabase.create(null);
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    @Test
+    public void testWritesAreBatchedAndKeepTimestamps() {
+        SqliteCache<String, String> cache = new SqliteCache<>(database, "test", 1024,
+                Codecs.STRING, Codecs.STRING, queueExecutor, 3);
+        cache.put("a", new Cache.Entry<>("value a", 1000));
+        cache.put("b", "value b");
+        assertEquals(1, scheduledFlushes.size());
+        assertEquals("value a", cache.get("a")); // pending
+        cache.remove("b");
+        assertNull(cache.get("b"));
+        assertEquals(1, scheduledFlushes.size()); // the third write flushed the batch
+
+        scheduledFlushes.get(0).run();
+        Cache.Entry<String> entry = cache.getEntry("a");
+        assertEquals("value a", entry.getValue());
+        assertEquals(1000, entry.getTimestamp());
+        assertEquals(Cache.Entry.Status.BAD, entry.check(CacheControl.NO_CACHE));
+        assertEquals(1, cache.size());
+        assertEquals(7, cache.sizeBytes());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyAccessed() throws Exception {
+        SqliteCache<String, String> cache = new SqliteCache<>(database, "test", 10,
+                Codecs.STRING, Codecs.STRING, queueExecutor, SqliteCache.DEFAULT_BATCH_SIZE);
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        cache.flush();
+        Thread.sleep(5);
+        assertEquals("aaaa", cache.get("a"));
+        cache.put("c", "cccc");
+        cache.flush();
+        assertNull(cache.get("b"));
+        assertEquals("aaaa", cache.get("a"));
+        assertEquals("cccc", cache.get("c"));
+        assertEquals(8, cache.sizeBytes());
+    }
+
+    @Test
+    public void testFailedFlushKeepsBatchPending() throws Exception {
+        SqliteCache<String, String> cache = new SqliteCache<>(database, "test", 10,
+                Codecs.STRING, Codecs.STRING, queueExecutor, SqliteCache.DEFAULT_BATCH_SIZE);
+        cache.put("a", "aaaa");
+        cache.flush();
+        Thread.sleep(5);
+        cache.put("b", "bbbb");
+        cache.flush();
+        Thread.sleep(5);
+        assertEquals("aaaa", cache.get("a")); // access time is pending
+
+        database.execSQL("CREATE TRIGGER fail BEFORE INSERT ON test BEGIN SELECT RAISE(ABORT, 'full'); END");
+        cache.put("c", "cccc");
+        cache.flush();
+        assertEquals("cccc", cache.get("c"));
+        assertEquals(8, cache.sizeBytes());
+
+        database.execSQL("DROP TRIGGER fail");
+        cache.flush();
+        assertNull(cache.get("b")); // a was accessed later
+        assertEquals("aaaa", cache.get("a"));
+        assertEquals("cccc", cache.get("c"));
+        assertEquals(8, cache.sizeBytes());
+    }
+
+    @Test
+    public void testRepeatedlyFailedBatchIsDropped() {
+        SqliteCache<String, String> cache = new SqliteCache<>(database, "test", 1024,
+                Codecs.STRING, Codecs.STRING, queueExecutor, 2);
+        database.execSQL("CREATE TABLE IF NOT EXISTS test (key BLOB PRIMARY KEY, value BLOB NOT NULL,"
+                + " timestamp INTEGER NOT NULL, access_time INTEGER NOT NULL, size INTEGER NOT NULL)");
+        database.execSQL("CREATE TRIGGER fail BEFORE INSERT ON test BEGIN SELECT RAISE(ABORT, 'full'); END");
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb"); // flushes the full batch on this thread and fails
+        assertEquals(1, scheduledFlushes.size());
+        cache.put("c", "cccc"); // not flushed on this thread after the failure
+        assertEquals("cccc", cache.get("c"));
+        scheduledFlushes.get(0).run();
+        assertEquals("aaaa", cache.get("a"));
+        cache.flush(); // the third failure drops the batch
+        assertNull(cache.get("a"));
+        assertNull(cache.get("c"));
+
+        database.execSQL("DROP TRIGGER fail");
+        cache.put("d", "dddd");
+        cache.put("e", "eeee");
+        assertEquals("dddd", cache.get("d"));
+        assertEquals(8, cache.sizeBytes());
+    }
+}
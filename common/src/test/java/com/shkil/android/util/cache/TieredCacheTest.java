@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import com.shkil.android.util.concurrent.ResultFuture;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class TieredCacheTest {
+
+    private static class QueueExecutor implements Executor {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private static class SlowCache extends ControllableCache<String, String> {
+        SlowCache() {
+            super(new LruCache<String, Cache.Entry<String>>(100));
+        }
+
+        @Override
+        public boolean isQuick() {
+            return false;
+        }
+    }
+
+    @Test
+    public void testPromotesHitWithTimestamp() {
+        Cache<String, String> memory = LruCache.newControllableCache(2);
+        Cache<String, String> disk = new SlowCache();
+        TieredCache<String, String> cache = TieredCache.<String, String>builder()
+                .addTier(memory)
+                .addTier(disk)
+                .build();
+        disk.put("a", new Cache.Entry<>("value a", 1234));
+        assertEquals(1234, cache.getEntry("a").getTimestamp());
+        assertEquals(1234, memory.getEntry("a").getTimestamp());
+        assertEquals("value a", cache.get("a"));
+        assertNull(cache.get("b"));
+
+        assertEquals(1, cache.tierStats(0).hitCount());
+        assertEquals(2, cache.tierStats(0).missCount());
+        assertEquals(1, cache.tierStats(1).hitCount());
+        assertEquals(1, cache.tierStats(1).missCount());
+        assertEquals(1, cache.tierStats(0).putCount());
+        assertEquals(2, cache.stats().hitCount());
+        assertEquals(1, cache.stats().missCount());
+        assertFalse(cache.isQuick());
+
+        disk.put("c", "value c");
+        assertEquals(2, cache.getEntries(Arrays.asList("a", "b", "c")).size());
+        assertEquals("value c", memory.get("c"));
+    }
+
+    @Test
+    public void testWritesBackAndReadsLowerTiersAsync() {
+        QueueExecutor writeExecutor = new QueueExecutor();
+        QueueExecutor readExecutor = new QueueExecutor();
+        Cache<String, String> memory = LruCache.newControllableCache(10);
+        Cache<String, String> disk = new SlowCache();
+        TieredCache<String, String> cache = TieredCache.<String, String>builder()
+                .addTier(memory)
+                .addTier(disk, TieredCache.WritePolicy.WRITE_BACK)
+                .setWriteExecutor(writeExecutor)
+                .setReadExecutor(readExecutor)
+                .build();
+        cache.put("a", new Cache.Entry<>("value a", 1000));
+        assertEquals("value a", memory.get("a"));
+        assertNull(disk.get("a"));
+        writeExecutor.runAll();
+        assertEquals(1000, disk.getEntry("a").getTimestamp());
+
+        memory.clear();
+        ResultFuture<Cache.Entry<String>> future = cache.getEntryAsync("a", writeExecutor);
+        assertFalse(future.isResultReady());
+        readExecutor.runAll();
+        assertEquals(1000, future.awaitValue().getTimestamp());
+        assertEquals("value a", memory.get("a"));
+    }
+
+    @Test
+    public void testPendingWriteBackRemovalsAreNotPromoted() {
+        QueueExecutor writeExecutor = new QueueExecutor();
+        Cache<String, String> memory = LruCache.newControllableCache(10);
+        Cache<String, String> disk = new SlowCache();
+        TieredCache<String, String> cache = TieredCache.<String, String>builder()
+                .addTier(memory)
+                .addTier(disk, TieredCache.WritePolicy.WRITE_BACK)
+                .setWriteExecutor(writeExecutor)
+                .build();
+        disk.put("a", "value a");
+        disk.put("b", "value b");
+        cache.remove("a");
+        assertNull(cache.get("a"));
+        assertTrue(cache.getEntries(Arrays.asList("a", "b")).containsKey("b"));
+        assertEquals(1, cache.getEntries(Arrays.asList("a", "b")).size());
+        writeExecutor.runAll();
+        assertNull(disk.get("a"));
+
+        disk.put("c", "value c");
+        cache.clear();
+        assertNull(cache.get("c"));
+        writeExecutor.runAll();
+        assertNull(disk.get("c"));
+
+        disk.put("d", "value d");
+        assertEquals("value d", cache.get("d"));
+    }
+
+    @Test
+    public void testStampsPromotionTimeOfTiersWithoutCacheControl() {
+        Cache<String, String> memory = LruCache.newControllableCache(10);
+        LruCache<String, String> plain = new LruCache<>(10);
+        TieredCache<String, String> cache = TieredCache.<String, String>builder()
+                .addTier(memory)
+                .addTier(plain)
+                .build();
+        plain.put("a", "value a");
+        plain.put("b", "value b");
+        long start = System.currentTimeMillis();
+        assertTrue(cache.getEntry("a").getTimestamp() >= start);
+        assertTrue(memory.getEntry("a").getTimestamp() >= start);
+        assertTrue(cache.getEntries(Arrays.asList("b")).get("b").getTimestamp() >= start);
+        assertEquals(Cache.Entry.Status.GOOD, memory.getEntry("b").check(CacheControl.builder().maxAgeSeconds(60).build()));
+    }
+
+    @Test
+    public void testTimestampProbesAreNotPromotedOrCounted() {
+        Cache<String, String> memory = LruCache.newControllableCache(10);
+        Cache<String, String> disk = new SlowCache();
+        TieredCache<String, String> cache = TieredCache.<String, String>builder()
+                .addTier(memory)
+                .addTier(disk, TieredCache.WritePolicy.WRITE_THROUGH, StatsCounter.DISABLED)
+                .setStatsCounter(StatsCounter.DISABLED)
+                .build();
+        disk.put("a", new Cache.Entry<>("value a", 1000));
+        assertEquals(1000, cache.getTimestamp("a"));
+        assertEquals(Cache.NO_TIMESTAMP, cache.getTimestamp("b"));
+        assertNull(memory.get("a"));
+        assertEquals(0, cache.tierStats(0).requestCount());
+
+        assertEquals("value a", cache.get("a"));
+        assertEquals(1, cache.tierStats(0).missCount());
+        assertEquals(0, cache.tierStats(1).requestCount());
+        assertEquals(0, cache.stats().requestCount());
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.cache;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+
+public class WeakEvictedValuesTest {
+
+    @Test
+    public void testResurrectsReachableEvictedValues() {
+        LruCache<String, Object> cache = new LruCache<String, Object>(2).setWeakEvictedValues(true);
+        Object a = new Object();
+        Object b = new Object();
+        cache.put("a", a);
+        cache.put("b", b);
+        cache.put("c", new Object());
+        assertEquals(1, cache.evictionCount());
+
+        assertSame(a, cache.get("a"));
+        assertEquals(1, cache.resurrectionCount());
+        assertEquals(1, cache.hitCount());
+        assertEquals(0, cache.missCount());
+        assertEquals(2, cache.size()); // "b" was evicted to make space
+
+        assertEquals(2, cache.getAll(Arrays.asList("a", "b")).size());
+        assertEquals(2, cache.resurrectionCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testDoesNotResurrectRemovedValues() {
+        LruCache<String, Object> cache = new LruCache<String, Object>(1).setWeakEvictedValues(true);
+        Object a = new Object();
+        cache.put("a", a);
+        cache.put("b", new Object());
+        cache.remove("a");
+        assertNull(cache.get("a"));
+
+        cache.put("a", a);
+        cache.put("b", new Object());
+        cache.clear();
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.resurrectionCount());
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.concurrent;
+
+import com.shkil.android.util.ValueFetcher;
+import com.shkil.android.util.cache.Cache;
+import com.shkil.android.util.cache.LruCache;
+import com.shkil.android.util.io.Codecs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PrefetchJournalTest {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("prefetch", ".journal");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testPendingKeysAreReplayed() {
+        PrefetchJournal<String> journal = newJournal();
+        journal.add("a");
+        journal.add("b");
+        journal.add("c");
+        journal.remove("b");
+        journal.add("a");
+        journal.close();
+        assertEquals(Arrays.asList("a", "c"), newJournal().getPendingKeys());
+    }
+
+    @Test
+    public void testTornTailIsTruncated() throws IOException {
+        PrefetchJournal<String> journal = newJournal();
+        journal.add("a");
+        journal.add("b");
+        journal.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 1); // the last record was not completely written
+        } finally {
+            raf.close();
+        }
+
+        journal = newJournal();
+        assertEquals(Collections.singletonList("a"), journal.getPendingKeys());
+        journal.add("c");
+        journal.close();
+        assertEquals(Arrays.asList("a", "c"), newJournal().getPendingKeys());
+    }
+
+    @Test
+    public void testCorruptHeaderIsRewritten() throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(new byte[]{1, 2, 3, 4, 1, 0, 0, 0, 1, 'a'});
+        } finally {
+            output.close();
+        }
+
+        PrefetchJournal<String> journal = newJournal();
+        assertEquals(Collections.<String>emptyList(), journal.getPendingKeys());
+        journal.add("b");
+        journal.close();
+        assertEquals(Collections.singletonList("b"), newJournal().getPendingKeys());
+    }
+
+    @Test
+    public void testFirstFetchRestoresUncachedKeys() throws Exception {
+        PrefetchJournal<String> journal = newJournal();
+        journal.add("a");
+        journal.add("b");
+        journal.close();
+
+        final List<String> fetchedKeys = new CopyOnWriteArrayList<>();
+        QueueFetcher<String, String> fetcher = QueueFetcher.create(DIRECT_EXECUTOR, DIRECT_EXECUTOR, false,
+                new ValueFetcher<String, String>() {
+                    @Override
+                    public String fetchValue(String key) {
+                        fetchedKeys.add(key);
+                        return "value " + key;
+                    }
+                });
+        Cache<String, String> cache = new LruCache<>(10);
+        cache.put("b", "value b");
+        fetcher.setCache(cache);
+        journal = newJournal();
+        fetcher.setPrefetchJournal(journal);
+
+        assertEquals("value x", fetcher.fetch("x").awaitValue());
+        for (int i = 0; i < 500 && !journal.getPendingKeys().isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(Collections.<String>emptyList(), journal.getPendingKeys());
+        assertEquals(Arrays.asList("x", "a"), fetchedKeys); // b is cached
+        assertEquals("value a", cache.get("a"));
+    }
+
+    private PrefetchJournal<String> newJournal() {
+        return new PrefetchJournal<>(file, Codecs.STRING, DIRECT_EXECUTOR);
+    }
+}
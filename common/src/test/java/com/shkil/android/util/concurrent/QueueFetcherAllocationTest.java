@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.concurrent;
+
+import com.shkil.android.util.ValueFetcher;
+import com.shkil.android.util.cache.Cache;
+import com.shkil.android.util.cache.CacheControl;
+import com.shkil.android.util.cache.LruCache;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertTrue;
+
+public class QueueFetcherAllocationTest {
+
+    private static final int ITERATIONS = 100000;
+
+    // keeps futures escaping, so allocations are not optimized away
+    private static volatile ResultFuture<?> sink;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void testCachedHitAllocatesOnlyItsFuture() throws Exception {
+        com.sun.management.ThreadMXBean threadBean = getThreadBean();
+        QueueFetcher<String, String> fetcher = QueueFetcher.create(DIRECT_EXECUTOR, DIRECT_EXECUTOR, false,
+                new ValueFetcher<String, String>() {
+                    @Override
+                    public String fetchValue(String key) {
+                        throw new AssertionError("Unexpected fetch of " + key);
+                    }
+                });
+        Cache<String, String> cache = LruCache.newControllableCache(10);
+        fetcher.setCache(cache);
+        fetcher.setDefaultRequestParams(RequestParams.cacheControl(
+                CacheControl.builder().maxAge(1, TimeUnit.HOURS)));
+        cache.put("key", "value");
+
+        // every hit gets its own future, cancelling it affects nobody else
+        ResultFuture<String> first = fetcher.fetch("key", Priority.IMMEDIATE);
+        assertEquals("value", first.awaitValue());
+        ResultFuture<String> second = fetcher.fetch("key", Priority.BACKGROUND);
+        assertNotSame(first, second);
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        first.onCancel(new Runnable() {
+            @Override
+            public void run() {
+                cancelled.set(true);
+            }
+        }, null);
+        assertTrue(first.cancel());
+        assertTrue(cancelled.get());
+        assertFalse(second.isCancelled());
+        assertEquals("value", fetcher.fetch("key").peekValue());
+
+        long threadId = Thread.currentThread().getId();
+        createFutures(ITERATIONS); // warm up
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        createFutures(ITERATIONS);
+        long futureBytes = (threadBean.getThreadAllocatedBytes(threadId) - before) / ITERATIONS;
+
+        fetchHits(fetcher, ITERATIONS); // warm up
+        before = threadBean.getThreadAllocatedBytes(threadId);
+        fetchHits(fetcher, ITERATIONS);
+        long hitBytes = (threadBean.getThreadAllocatedBytes(threadId) - before) / ITERATIONS;
+        assertTrue("Bytes allocated per cached hit: " + hitBytes + ", per future: " + futureBytes,
+                hitBytes <= futureBytes);
+    }
+
+    private static void createFutures(int count) {
+        for (int i = 0; i < count; i++) {
+            sink = ResultFutures.success("value");
+        }
+    }
+
+    private static void fetchHits(QueueFetcher<String, String> fetcher, int count) {
+        for (int i = 0; i < count; i++) {
+            sink = fetcher.fetch("key", Priority.NORMAL);
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean result = (com.sun.management.ThreadMXBean) threadBean;
+        Assume.assumeTrue(result.isThreadAllocatedMemorySupported());
+        result.setThreadAllocatedMemoryEnabled(true);
+        return result;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.event;
+
+import android.os.Parcel;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Batch of cache invalidations of several namespaces, broadcast by {@link CacheInvalidator}
+ * to other processes. Keys are encoded by codecs of the namespaces.
+ */
+public class CacheInvalidationEvent extends AbstractEvent implements IBroadcastEvent {
+
+    public static class Invalidation {
+        private final String namespace;
+        private final boolean all;
+        private final List<byte[]> keys;
+
+        public Invalidation(String namespace, boolean all, List<byte[]> keys) {
+            this.namespace = namespace;
+            this.all = all;
+            this.keys = all ? Collections.<byte[]>emptyList() : keys;
+        }
+
+        public String getNamespace() {
+            return namespace;
+        }
+
+        /**
+         * Returns true if all keys of the namespace are invalidated
+         */
+        public boolean isAll() {
+            return all;
+        }
+
+        public List<byte[]> getKeys() {
+            return keys;
+        }
+    }
+
+    private final int senderProcessId;
+    private final List<Invalidation> invalidations;
+
+    public CacheInvalidationEvent(List<Invalidation> invalidations) {
+        this.senderProcessId = Process.myPid();
+        this.invalidations = invalidations;
+    }
+
+    public int getSenderProcessId() {
+        return senderProcessId;
+    }
+
+    public List<Invalidation> getInvalidations() {
+        return invalidations;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeInt(senderProcessId);
+        out.writeInt(invalidations.size());
+        for (Invalidation invalidation : invalidations) {
+            out.writeString(invalidation.namespace);
+            out.writeInt(invalidation.all ? 1 : 0);
+            out.writeInt(invalidation.keys.size());
+            for (byte[] key : invalidation.keys) {
+                out.writeByteArray(key);
+            }
+        }
+    }
+
+    protected CacheInvalidationEvent(Parcel in) {
+        this.senderProcessId = in.readInt();
+        int count = in.readInt();
+        List<Invalidation> invalidations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String namespace = in.readString();
+            boolean all = in.readInt() != 0;
+            int keyCount = in.readInt();
+            List<byte[]> keys = new ArrayList<>(keyCount);
+            for (int j = 0; j < keyCount; j++) {
+                keys.add(in.createByteArray());
+            }
+            invalidations.add(new Invalidation(namespace, all, keys));
+        }
+        this.invalidations = invalidations;
+    }
+
+    public static final Creator<CacheInvalidationEvent> CREATOR = new Creator<CacheInvalidationEvent>() {
+        public CacheInvalidationEvent createFromParcel(Parcel source) {
+            return new CacheInvalidationEvent(source);
+        }
+
+        public CacheInvalidationEvent[] newArray(int size) {
+            return new CacheInvalidationEvent[size];
+        }
+    };
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("CacheInvalidationEvent{");
+        for (Invalidation invalidation : invalidations) {
+            builder.append(invalidation.namespace).append('=')
+                    .append(invalidation.all ? "all" : invalidation.keys.size() + " keys").append(' ');
+        }
+        return builder.append('}').toString();
+    }
+}
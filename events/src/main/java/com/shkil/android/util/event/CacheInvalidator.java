@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.event;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.shkil.android.util.cache.Cache;
+import com.shkil.android.util.io.Codec;
+import com.squareup.otto.Subscribe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Invalidates caches of namespaces in this process and in other processes of the app. Registered caches
+ * are invalidated immediately, invalidations are collected within a short window and broadcast by
+ * {@link EventBus} with one {@link CacheInvalidationEvent}, so a bulk sync sends one broadcast. Every process
+ * creates namespaces with the same names and key codecs and registers its caches, e.g. caches of
+ * {@code QueueFetcher}. The event bus must support event broadcasting.
+ * <p/>
+ * <p>Invalidations received from other processes are applied on the executor, since events are delivered
+ * on the main thread and caches may be slow to remove from, e.g. disk caches.
+ */
+public class CacheInvalidator {
+
+    private static final String TAG = "CacheInvalidator";
+
+    public static final long DEFAULT_WINDOW_MILLIS = 200;
+
+    /**
+     * Number of keys of a namespace in a window after which the whole namespace is invalidated
+     */
+    public static final int MAX_KEYS_PER_NAMESPACE = 1000;
+
+    /**
+     * Parcel size of pending keys after which namespaces with most keys are invalidated as a whole,
+     * to keep an event well below the binder transaction limit of 1 MB shared by the process
+     */
+    public static final int MAX_BATCH_BYTES = 128 * 1024;
+
+    private final EventBus eventBus;
+    private final long windowMillis;
+    private final Executor executor;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @GuardedBy("this")
+    private final Map<String, Namespace<?>> namespaces = new HashMap<>();
+
+    @GuardedBy("this")
+    private final Map<String, Set<ByteBuffer>> pendingKeys = new LinkedHashMap<>();
+
+    @GuardedBy("this")
+    private int pendingBytes;
+
+    @GuardedBy("this")
+    private boolean flushScheduled;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public CacheInvalidator(EventBus eventBus) {
+        this(eventBus, DEFAULT_WINDOW_MILLIS);
+    }
+
+    public CacheInvalidator(EventBus eventBus, long windowMillis) {
+        this(eventBus, windowMillis, AsyncTask.SERIAL_EXECUTOR);
+    }
+
+    /**
+     * @param executor serial executor applying invalidations received from other processes
+     */
+    public CacheInvalidator(EventBus eventBus, long windowMillis, Executor executor) {
+        this.eventBus = eventBus;
+        this.windowMillis = windowMillis;
+        this.executor = executor;
+        eventBus.register(this);
+    }
+
+    /**
+     * Returns the namespace of the name, creating it on the first call
+     */
+    @NonNull
+    @SuppressWarnings("unchecked")
+    public synchronized <K> Namespace<K> namespace(@NonNull String name, @NonNull Codec<K> keyCodec) {
+        Namespace<K> namespace = (Namespace<K>) namespaces.get(name);
+        if (namespace == null) {
+            namespace = new Namespace<>(name, keyCodec);
+            namespaces.put(name, namespace);
+        } else if (namespace.keyCodec != keyCodec) {
+            throw new IllegalArgumentException("Namespace " + name + " has another key codec");
+        }
+        return namespace;
+    }
+
+    public class Namespace<K> {
+        private final String name;
+        private final Codec<K> keyCodec;
+        @GuardedBy("CacheInvalidator.this")
+        private final WeakHashMap<Cache<K, ?>, Boolean> caches = new WeakHashMap<>();
+
+        Namespace(String name, Codec<K> keyCodec) {
+            this.name = name;
+            this.keyCodec = keyCodec;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Registers a cache to invalidate, the cache is held weakly
+         */
+        public Namespace<K> register(@NonNull Cache<K, ?> cache) {
+            synchronized (CacheInvalidator.this) {
+                caches.put(cache, Boolean.TRUE);
+            }
+            return this;
+        }
+
+        public Namespace<K> unregister(@NonNull Cache<K, ?> cache) {
+            synchronized (CacheInvalidator.this) {
+                caches.remove(cache);
+            }
+            return this;
+        }
+
+        /**
+         * Removes the key from caches of the namespace in all processes
+         */
+        public void invalidate(@NonNull K key) {
+            byte[] data;
+            try {
+                data = keyCodec.encode(key);
+            } catch (IOException ex) {
+                Log.w(TAG, "Error encoding key " + key + ", invalidating namespace " + name, ex);
+                invalidateAll();
+                return;
+            }
+            for (Cache<K, ?> cache : getCaches()) {
+                cache.remove(key);
+            }
+            addPending(name, ByteBuffer.wrap(data));
+        }
+
+        /**
+         * Clears caches of the namespace in all processes
+         */
+        public void invalidateAll() {
+            for (Cache<K, ?> cache : getCaches()) {
+                cache.clear();
+            }
+            addPending(name, null);
+        }
+
+        private List<Cache<K, ?>> getCaches() {
+            synchronized (CacheInvalidator.this) {
+                return new ArrayList<>(caches.keySet());
+            }
+        }
+
+        void apply(CacheInvalidationEvent.Invalidation invalidation) {
+            List<Cache<K, ?>> caches = getCaches();
+            if (invalidation.isAll()) {
+                for (Cache<K, ?> cache : caches) {
+                    cache.clear();
+                }
+                return;
+            }
+            for (byte[] data : invalidation.getKeys()) {
+                K key;
+                try {
+                    key = keyCodec.decode(data, 0, data.length);
+                } catch (IOException ex) {
+                    Log.w(TAG, "Error decoding key, invalidating namespace " + name, ex);
+                    for (Cache<K, ?> cache : caches) {
+                        cache.clear();
+                    }
+                    return;
+                }
+                for (Cache<K, ?> cache : caches) {
+                    cache.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param key key to invalidate or null to invalidate the namespace
+     */
+    private synchronized void addPending(String namespace, ByteBuffer key) {
+        Set<ByteBuffer> keys = pendingKeys.get(namespace);
+        boolean all = pendingKeys.containsKey(namespace) && keys == null;
+        if (!all) {
+            if (key == null) {
+                invalidatePendingNamespace(namespace);
+            } else {
+                if (keys == null) {
+                    keys = new LinkedHashSet<>();
+                    pendingKeys.put(namespace, keys);
+                }
+                if (keys.add(key)) {
+                    pendingBytes += parcelSize(key);
+                }
+                if (keys.size() > MAX_KEYS_PER_NAMESPACE) {
+                    invalidatePendingNamespace(namespace);
+                }
+                while (pendingBytes > MAX_BATCH_BYTES) {
+                    invalidatePendingNamespace(findLargestPendingNamespace());
+                }
+            }
+        }
+        if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, windowMillis);
+        }
+    }
+
+    @GuardedBy("this")
+    private void invalidatePendingNamespace(String namespace) {
+        Set<ByteBuffer> keys = pendingKeys.put(namespace, null);
+        if (keys != null) {
+            for (ByteBuffer key : keys) {
+                pendingBytes -= parcelSize(key);
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private String findLargestPendingNamespace() {
+        String largest = null;
+        int largestSize = -1;
+        for (Map.Entry<String, Set<ByteBuffer>> entry : pendingKeys.entrySet()) {
+            Set<ByteBuffer> keys = entry.getValue();
+            int size = 0;
+            if (keys != null) {
+                for (ByteBuffer key : keys) {
+                    size += parcelSize(key);
+                }
+            }
+            if (size > largestSize) {
+                largest = entry.getKey();
+                largestSize = size;
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Returns the size of the key written by {@link android.os.Parcel#writeByteArray}: length and padded data
+     */
+    private static int parcelSize(ByteBuffer key) {
+        return 4 + ((key.remaining() + 3) & ~3);
+    }
+
+    /**
+     * Broadcasts pending invalidations now
+     */
+    public void flush() {
+        List<CacheInvalidationEvent.Invalidation> invalidations;
+        synchronized (this) {
+            flushScheduled = false;
+            handler.removeCallbacks(flushRunnable);
+            if (pendingKeys.isEmpty()) {
+                return;
+            }
+            invalidations = new ArrayList<>(pendingKeys.size());
+            for (Map.Entry<String, Set<ByteBuffer>> entry : pendingKeys.entrySet()) {
+                Set<ByteBuffer> keys = entry.getValue();
+                List<byte[]> keyData = new ArrayList<>(keys != null ? keys.size() : 0);
+                if (keys != null) {
+                    for (ByteBuffer key : keys) {
+                        keyData.add(key.array());
+                    }
+                }
+                invalidations.add(new CacheInvalidationEvent.Invalidation(entry.getKey(), keys == null, keyData));
+            }
+            pendingKeys.clear();
+            pendingBytes = 0;
+        }
+        eventBus.post(new CacheInvalidationEvent(invalidations));
+    }
+
+    @Subscribe
+    public void onCacheInvalidation(final CacheInvalidationEvent event) {
+        if (event.getSenderProcessId() == Process.myPid()) {
+            return; // already applied to caches of this process
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                apply(event);
+            }
+        });
+    }
+
+    private void apply(CacheInvalidationEvent event) {
+        for (CacheInvalidationEvent.Invalidation invalidation : event.getInvalidations()) {
+            Namespace<?> namespace;
+            synchronized (this) {
+                namespace = namespaces.get(invalidation.getNamespace());
+            }
+            if (namespace != null) {
+                namespace.apply(invalidation);
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2018 Dmytro Shkil
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.shkil.android.util.event;
+
+import android.os.Parcel;
+import android.os.Process;
+
+import com.shkil.android.util.cache.LruCache;
+import com.shkil.android.util.io.Codecs;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class CacheInvalidatorTest {
+
+    private static class RecordingEventBus extends EventBus {
+        final List<CacheInvalidationEvent> events = new ArrayList<>();
+
+        RecordingEventBus() {
+            super(RuntimeEnvironment.application, false);
+        }
+
+        @Override
+        public void post(IEvent event) {
+            events.add((CacheInvalidationEvent) event);
+        }
+    }
+
+    @Test
+    public void testEventParcelRoundTrip() {
+        CacheInvalidationEvent event = new CacheInvalidationEvent(Arrays.asList(
+                new CacheInvalidationEvent.Invalidation("users", false,
+                        Arrays.asList(new byte[]{1, 2, 3}, new byte[0])),
+                new CacheInvalidationEvent.Invalidation("feeds", true, Collections.<byte[]>emptyList())));
+        Parcel parcel = Parcel.obtain();
+        try {
+            event.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            CacheInvalidationEvent restored = CacheInvalidationEvent.CREATOR.createFromParcel(parcel);
+            assertEquals(event.getSenderProcessId(), restored.getSenderProcessId());
+            assertEquals(2, restored.getInvalidations().size());
+            CacheInvalidationEvent.Invalidation users = restored.getInvalidations().get(0);
+            assertEquals("users", users.getNamespace());
+            assertFalse(users.isAll());
+            assertTrue(Arrays.equals(new byte[]{1, 2, 3}, users.getKeys().get(0)));
+            assertEquals(0, users.getKeys().get(1).length);
+            CacheInvalidationEvent.Invalidation feeds = restored.getInvalidations().get(1);
+            assertEquals("feeds", feeds.getNamespace());
+            assertTrue(feeds.isAll());
+            assertTrue(feeds.getKeys().isEmpty());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @Test
+    public void testBatchesKeysOfWindow() {
+        RecordingEventBus eventBus = new RecordingEventBus();
+        CacheInvalidator invalidator = new CacheInvalidator(eventBus);
+        LruCache<String, String> cache = LruCache.newCache(10);
+        cache.put("a", "value a");
+        CacheInvalidator.Namespace<String> users = invalidator.namespace("users", Codecs.STRING).register(cache);
+        users.invalidate("a");
+        users.invalidate("b");
+        users.invalidate("a");
+        invalidator.namespace("feeds", Codecs.STRING).invalidateAll();
+        assertNull(cache.get("a"));
+        assertTrue(eventBus.events.isEmpty());
+
+        invalidator.flush();
+        assertEquals(1, eventBus.events.size());
+        List<CacheInvalidationEvent.Invalidation> invalidations = eventBus.events.get(0).getInvalidations();
+        assertEquals(2, invalidations.size());
+        assertEquals("users", invalidations.get(0).getNamespace());
+        assertEquals(2, invalidations.get(0).getKeys().size());
+        assertTrue(invalidations.get(1).isAll());
+
+        invalidator.flush();
+        assertEquals(1, eventBus.events.size()); // nothing pending
+    }
+
+    @Test
+    public void testEscalatesLargeBatchesToNamespaces() {
+        RecordingEventBus eventBus = new RecordingEventBus();
+        CacheInvalidator invalidator = new CacheInvalidator(eventBus);
+        CacheInvalidator.Namespace<String> users = invalidator.namespace("users", Codecs.STRING);
+        CacheInvalidator.Namespace<String> feeds = invalidator.namespace("feeds", Codecs.STRING);
+        for (int i = 0; i <= CacheInvalidator.MAX_KEYS_PER_NAMESPACE; i++) {
+            users.invalidate("user" + i);
+        }
+        char[] chars = new char[1024];
+        Arrays.fill(chars, 'x');
+        String longKey = new String(chars);
+        feeds.invalidate("small");
+        for (int i = 0; i < CacheInvalidator.MAX_BATCH_BYTES / 1024; i++) {
+            feeds.invalidate(longKey + i);
+        }
+        invalidator.flush();
+        List<CacheInvalidationEvent.Invalidation> invalidations = eventBus.events.get(0).getInvalidations();
+        assertEquals("users", invalidations.get(0).getNamespace());
+        assertTrue(invalidations.get(0).isAll());
+        assertEquals("feeds", invalidations.get(1).getNamespace());
+        assertTrue(invalidations.get(1).isAll());
+
+        invalidator.namespace("big", Codecs.STRING).invalidate(new String(new char[CacheInvalidator.MAX_BATCH_BYTES]));
+        invalidator.namespace("small", Codecs.STRING).invalidate("key");
+        invalidator.flush();
+        invalidations = eventBus.events.get(1).getInvalidations();
+        assertTrue(invalidations.get(0).isAll());
+        assertFalse(invalidations.get(1).isAll());
+        assertEquals(1, invalidations.get(1).getKeys().size());
+    }
+
+    @Test
+    public void testAppliesRemoteInvalidationsOnExecutor() {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        };
+        CacheInvalidator invalidator = new CacheInvalidator(new RecordingEventBus(), 200, executor);
+        LruCache<String, String> cache = LruCache.newCache(10);
+        cache.put("a", "value a");
+        invalidator.namespace("users", Codecs.STRING).register(cache);
+
+        CacheInvalidationEvent event = new CacheInvalidationEvent(Arrays.asList(
+                new CacheInvalidationEvent.Invalidation("users", false, Arrays.asList("a".getBytes()))));
+        Parcel parcel = Parcel.obtain();
+        try {
+            event.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            parcel.writeInt(Process.myPid() + 1); // sent by another process
+            parcel.setDataPosition(0);
+            event = CacheInvalidationEvent.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+        invalidator.onCacheInvalidation(event);
+        assertEquals("value a", cache.get("a"));
+        tasks.poll().run();
+        assertNull(cache.get("a"));
+    }
+}